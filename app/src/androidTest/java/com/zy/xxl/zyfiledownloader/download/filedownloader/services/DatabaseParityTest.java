@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.services;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.zy.xxl.zyfiledownloader.download.filedownloader.model.ConnectionModel;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadModel;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadStatus;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadHelper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The same operations are applied on the {@link DefaultDatabaseImpl} and the
+ * {@link JournalDatabaseImpl}, then the state persisted by them, which is read on the new instances,
+ * must be the same.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseParityTest {
+
+    private final static int MAX_ID = 6;
+
+    private File journalDir;
+
+    @Before
+    public void setUp() {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        FileDownloadHelper.holdContext(context);
+
+        new DefaultDatabaseImpl().clear();
+        journalDir = new File(context.getCacheDir(), "journal-parity-" + System.nanoTime());
+    }
+
+    @Test
+    public void writes_persistTheSame() {
+        applyWrites(new DefaultDatabaseImpl());
+        applyWrites(new JournalDatabaseImpl(journalDir));
+
+        assertEquals(dump(new DefaultDatabaseImpl()), dump(new JournalDatabaseImpl(journalDir)));
+    }
+
+    @Test
+    public void changeId_persistsTheSame() {
+        applyWrites(new DefaultDatabaseImpl());
+        applyWrites(new JournalDatabaseImpl(journalDir));
+
+        // on the new instances, so none of the models is used on the memory.
+        applyChangeId(new DefaultDatabaseImpl());
+        applyChangeId(new JournalDatabaseImpl(journalDir));
+
+        assertEquals(dump(new DefaultDatabaseImpl()), dump(new JournalDatabaseImpl(journalDir)));
+    }
+
+    @Test
+    public void clear_persistsTheSame() {
+        final DefaultDatabaseImpl defaultDatabase = new DefaultDatabaseImpl();
+        final JournalDatabaseImpl journalDatabase = new JournalDatabaseImpl(journalDir);
+        applyWrites(defaultDatabase);
+        applyWrites(journalDatabase);
+        defaultDatabase.clear();
+        journalDatabase.clear();
+
+        final String defaultDump = dump(new DefaultDatabaseImpl());
+        assertEquals("", defaultDump);
+        assertEquals(defaultDump, dump(new JournalDatabaseImpl(journalDir)));
+    }
+
+    private static void applyWrites(final FileDownloadDatabase database) {
+        database.insert(createModel(1, 1));
+        database.insert(createModel(2, 1));
+        database.insert(createModel(3, 1));
+        database.insert(createModel(4, 2));
+
+        final FileDownloadModel updated = createModel(1, 1);
+        updated.setETag("etag");
+        updated.setTotal(100);
+        database.update(updated);
+        database.updateConnected(1, 200, "etag-2", "name");
+        database.updateProgress(1, 50);
+        database.updatePause(2, 30);
+        database.updateError(3, new RuntimeException("failed"), 40);
+        database.updateRetry(2, new RuntimeException("retry"));
+        database.updateOldEtagOverdue(2, "etag-new", 5, 500, 1);
+
+        // insert, update and split the connections.
+        database.insertConnectionModel(createConnection(1, 0, 0, 99));
+        database.insertConnectionModel(createConnection(1, 0, 10, 199));
+        database.runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                database.updateConnectionModel(1, 0, 20);
+                database.updateProgress(1, 20);
+            }
+        });
+        database.splitConnectionModel(1, 0, createConnection(1, 1, 60, 99), 2);
+        database.updateConnectionModel(1, 1, 70);
+        database.updateConnectionCount(1, 2);
+
+        database.insertConnectionModel(createConnection(3, 0, 0, 99));
+        database.insertConnectionModel(createConnection(4, 0, 0, 49));
+        database.insertConnectionModel(createConnection(4, 1, 50, 99));
+
+        // remove the model only, and the connections only.
+        database.insert(createModel(5, 1));
+        database.insertConnectionModel(createConnection(5, 0, 0, 99));
+        database.remove(5);
+        database.insert(createModel(6, 1));
+        database.insertConnectionModel(createConnection(6, 0, 0, 99));
+        database.removeConnections(6);
+        database.updateCompleted(2, 500);
+    }
+
+    private static void applyChangeId(FileDownloadDatabase database) {
+        // the same as the maintaining on the CustomComponentHolder.
+        final FileDownloadDatabase.Maintainer maintainer = database.maintainer();
+        final Iterator<FileDownloadModel> iterator = maintainer.iterator();
+        while (iterator.hasNext()) {
+            final FileDownloadModel model = iterator.next();
+            final int oldId = model.getId();
+            // 3: single connection with the stale connection rows; 4: multiple connections.
+            if (oldId == 3 || oldId == 4) {
+                model.setId(oldId + MAX_ID);
+                maintainer.changeFileDownloadModelId(oldId, model);
+            }
+            maintainer.onRefreshedValidData(model);
+        }
+        maintainer.onFinishMaintain();
+    }
+
+    /**
+     * @return all models and connections persisted, one line for each of them, in order.
+     */
+    private static String dump(FileDownloadDatabase database) {
+        final List<String> lines = new ArrayList<>();
+
+        final FileDownloadDatabase.Maintainer maintainer = database.maintainer();
+        final Iterator<FileDownloadModel> iterator = maintainer.iterator();
+        while (iterator.hasNext()) {
+            final FileDownloadModel model = iterator.next();
+            lines.add("model " + model.getId() + " " + model.getUrl() + " " + model.getPath() + " "
+                    + model.isPathAsDirectory() + " " + model.getFilename() + " "
+                    + model.getStatus() + " " + model.getSoFar() + " " + model.getTotal() + " "
+                    + model.getErrMsg() + " " + model.getETag() + " "
+                    + model.getConnectionCount());
+        }
+        maintainer.onFinishMaintain();
+
+        for (int id = 1; id <= MAX_ID * 2; id++) {
+            for (ConnectionModel model : database.findConnectionModel(id)) {
+                lines.add("connection " + model.getId() + "/" + model.getIndex() + " "
+                        + model.getStartOffset() + " " + model.getCurrentOffset() + " "
+                        + model.getEndOffset());
+            }
+        }
+
+        Collections.sort(lines);
+        final StringBuilder builder = new StringBuilder();
+        for (String line : lines) {
+            builder.append(line).append('\n');
+        }
+        return builder.toString();
+    }
+
+    private static FileDownloadModel createModel(int id, int connectionCount) {
+        final FileDownloadModel model = new FileDownloadModel();
+        model.setId(id);
+        model.setUrl("http://example.com/" + id);
+        model.setPath("/sdcard/" + id, false);
+        model.setStatus(FileDownloadStatus.pending);
+        model.setConnectionCount(connectionCount);
+        return model;
+    }
+
+    private static ConnectionModel createConnection(int id, int index, long startOffset,
+                                                    long endOffset) {
+        final ConnectionModel model = new ConnectionModel();
+        model.setId(id);
+        model.setIndex(index);
+        model.setStartOffset(startOffset);
+        model.setCurrentOffset(startOffset);
+        model.setEndOffset(endOffset);
+        return model;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.services;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.zy.xxl.zyfiledownloader.download.filedownloader.model.ConnectionModel;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadModel;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadStatus;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadHelper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+/**
+ * The same mix of the writes on downloading is applied on the {@link DefaultDatabaseImpl} and the
+ * {@link JournalDatabaseImpl}, and the throughput of them is logged.
+ * <p>
+ * In each ten writes: one progress of the task with the single connection, eight offsets of the
+ * connections, and one transaction committing the offsets of all connections of a task, which is
+ * how the durable sync commits in batch.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseWriteBenchmarkTest {
+
+    private final static String TAG = "DatabaseWriteBenchmark";
+    private final static int TASK_COUNT = 100;
+    private final static int CONNECTION_COUNT = 5;
+    private final static int WRITE_COUNT = 5000;
+    private final static int ROUND_COUNT = 3;
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        FileDownloadHelper.holdContext(context);
+    }
+
+    @Test
+    public void writes_benchmark() {
+        long defaultNanos = Long.MAX_VALUE;
+        long journalNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUND_COUNT; round++) {
+            final DefaultDatabaseImpl defaultDatabase = new DefaultDatabaseImpl();
+            defaultDatabase.clear();
+            defaultNanos = Math.min(defaultNanos, applyWrites(defaultDatabase));
+
+            final File journalDir = new File(context.getCacheDir(),
+                    "journal-benchmark-" + System.nanoTime());
+            journalNanos = Math.min(journalNanos,
+                    applyWrites(new JournalDatabaseImpl(journalDir)));
+        }
+
+        Log.i(TAG, String.format("%d writes on %d tasks with %d connections: default %dms" +
+                        "(%d/s), journal %dms(%d/s)", WRITE_COUNT, TASK_COUNT, CONNECTION_COUNT,
+                defaultNanos / 1000000, throughput(defaultNanos),
+                journalNanos / 1000000, throughput(journalNanos)));
+    }
+
+    /**
+     * @return the nanos consumed by the writes, the seeding isn't counted.
+     */
+    private static long applyWrites(final FileDownloadDatabase database) {
+        database.runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                for (int id = 1; id <= TASK_COUNT; id++) {
+                    database.insert(createModel(id));
+                    for (int index = 0; index < CONNECTION_COUNT; index++) {
+                        database.insertConnectionModel(createConnection(id, index));
+                    }
+                }
+            }
+        });
+
+        final long begin = System.nanoTime();
+        for (int i = 0; i < WRITE_COUNT; i++) {
+            final int id = i % TASK_COUNT + 1;
+            final long offset = i * 100L;
+            switch (i % 10) {
+                case 0:
+                    database.updateProgress(id, offset);
+                    break;
+                case 9:
+                    database.runInTransaction(new Runnable() {
+                        @Override
+                        public void run() {
+                            for (int index = 0; index < CONNECTION_COUNT; index++) {
+                                database.updateConnectionModel(id, index,
+                                        index * 1000000L + offset);
+                            }
+                        }
+                    });
+                    break;
+                default:
+                    database.updateConnectionModel(id, i % CONNECTION_COUNT,
+                            i % CONNECTION_COUNT * 1000000L + offset);
+                    break;
+            }
+        }
+        return System.nanoTime() - begin;
+    }
+
+    private static long throughput(long nanos) {
+        return WRITE_COUNT * 1000000000L / Math.max(nanos, 1);
+    }
+
+    private static FileDownloadModel createModel(int id) {
+        final FileDownloadModel model = new FileDownloadModel();
+        model.setId(id);
+        model.setUrl("http://example.com/" + id);
+        model.setPath("/sdcard/" + id, false);
+        model.setStatus(FileDownloadStatus.progress);
+        model.setTotal(CONNECTION_COUNT * 1000000L);
+        model.setConnectionCount(CONNECTION_COUNT);
+        return model;
+    }
+
+    private static ConnectionModel createConnection(int id, int index) {
+        final ConnectionModel model = new ConnectionModel();
+        model.setId(id);
+        model.setIndex(index);
+        model.setStartOffset(index * 1000000L);
+        model.setCurrentOffset(index * 1000000L);
+        model.setEndOffset((index + 1) * 1000000L - 1);
+        return model;
+    }
+}
@@ -0,0 +1,441 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.services;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.zy.xxl.zyfiledownloader.download.filedownloader.download.CustomComponentHolder;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.model.ConnectionModel;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadModel;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadStatus;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The hot writes through the compiled statements must persist the same as the ones through the
+ * {@link ContentValues}, they are always checked on a new instance.
+ * <p>
+ * The finding before the maintaining is finished must get the same result as the maintaining, no
+ * matter it is before, among or after the maintaining reads the models.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DefaultDatabaseImplTest {
+
+    private final static String TAG = "DefaultDatabaseImplTest";
+    private final static int ID = 1;
+    // the id generator re-keys the model stored with ID to it.
+    private final static int REFRESHED_ID = 101;
+
+    private Context context;
+    private DefaultDatabaseImpl database;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getTargetContext();
+        FileDownloadHelper.holdContext(context);
+
+        database = new DefaultDatabaseImpl();
+        database.clear();
+    }
+
+    @After
+    public void tearDown() {
+        CustomComponentHolder.getImpl().setInitCustomMaker(null);
+    }
+
+    @Test
+    public void insertConnectionModel_isPersisted() {
+        database.insertConnectionModel(createConnection(0, 0, 49));
+        database.insertConnectionModel(createConnection(1, 50, 99));
+
+        final List<ConnectionModel> connectionList =
+                new DefaultDatabaseImpl().findConnectionModel(ID);
+        assertEquals(2, connectionList.size());
+        final ConnectionModel second = findConnection(connectionList, 1);
+        assertEquals(50, second.getStartOffset());
+        assertEquals(50, second.getCurrentOffset());
+        assertEquals(99, second.getEndOffset());
+    }
+
+    @Test
+    public void insertConnectionModel_sameIndex_isIgnored() {
+        database.insertConnectionModel(createConnection(0, 0, 49));
+        // conflicts with the primary key, only logged the same as SQLiteDatabase#insert.
+        database.insertConnectionModel(createConnection(0, 10, 99));
+
+        final List<ConnectionModel> connectionList =
+                new DefaultDatabaseImpl().findConnectionModel(ID);
+        assertEquals(1, connectionList.size());
+        assertEquals(49, connectionList.get(0).getEndOffset());
+    }
+
+    @Test
+    public void updateConnectionModel_onlyTheIndex() {
+        database.insertConnectionModel(createConnection(0, 0, 49));
+        database.insertConnectionModel(createConnection(1, 50, 99));
+
+        database.updateConnectionModel(ID, 1, 70);
+
+        final List<ConnectionModel> connectionList =
+                new DefaultDatabaseImpl().findConnectionModel(ID);
+        assertEquals(0, findConnection(connectionList, 0).getCurrentOffset());
+        assertEquals(70, findConnection(connectionList, 1).getCurrentOffset());
+    }
+
+    @Test
+    public void removeConnections_onlyTheId() {
+        database.insertConnectionModel(createConnection(0, 0, 49));
+        final ConnectionModel other = createConnection(0, 0, 49);
+        other.setId(ID + 1);
+        database.insertConnectionModel(other);
+
+        database.removeConnections(ID);
+
+        final DefaultDatabaseImpl reopened = new DefaultDatabaseImpl();
+        assertTrue(reopened.findConnectionModel(ID).isEmpty());
+        assertEquals(1, reopened.findConnectionModel(ID + 1).size());
+    }
+
+    @Test
+    public void updateProgress_updateConnectionCount_arePersisted() {
+        database.insert(createModel());
+
+        database.updateProgress(ID, 30);
+        database.updateConnectionCount(ID, 3);
+
+        final FileDownloadModel model = findPersisted(new DefaultDatabaseImpl());
+        assertEquals(FileDownloadStatus.progress, model.getStatus());
+        assertEquals(30, model.getSoFar());
+        assertEquals(3, model.getConnectionCount());
+    }
+
+    @Test
+    public void updateProgress_noRow_isIgnored() {
+        database.updateProgress(ID, 30);
+        database.updateConnectionCount(ID, 3);
+
+        assertNull(findPersisted(new DefaultDatabaseImpl()));
+    }
+
+    /**
+     * The compiled statement against the update with the {@link ContentValues} it replaces, for
+     * the offset of the connections which is the hottest write of the downloading. Each update is
+     * committed by itself as the sync of the connection does, on the table seeded with
+     * {@code taskCount} tasks. The costs are printed on the logcat, and the compiled one must
+     * persist the offsets.
+     */
+    @Test
+    public void updateConnectionModel_benchmark() {
+        final int taskCount = 10000;
+        final int connectionCount = 5;
+        final int times = 500;
+        final int rounds = 3;
+        database.runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                for (int id = 1; id <= taskCount; id++) {
+                    database.insert(createModel(id));
+                    for (int i = 0; i < connectionCount; i++) {
+                        database.insertConnectionModel(createConnection(id, i, i * 1000,
+                                i * 1000 + 999));
+                    }
+                }
+            }
+        });
+
+        final SQLiteDatabase contentValuesDb =
+                new DefaultDatabaseOpenHelper(context).getWritableDatabase();
+        long contentValuesCost = Long.MAX_VALUE;
+        long compiledCost = Long.MAX_VALUE;
+        try {
+            for (int round = 0; round < rounds; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < times; i++) {
+                    final ContentValues values = new ContentValues();
+                    values.put(ConnectionModel.CURRENT_OFFSET, i);
+                    contentValuesDb.update(DefaultDatabaseImpl.CONNECTION_TABLE_NAME, values,
+                            ConnectionModel.ID + " = ? AND " + ConnectionModel.INDEX + " = ?",
+                            new String[]{Integer.toString(spreadId(i, taskCount)),
+                                    Integer.toString(i % connectionCount)});
+                }
+                contentValuesCost = Math.min(contentValuesCost, System.nanoTime() - start);
+
+                start = System.nanoTime();
+                for (int i = 0; i < times; i++) {
+                    database.updateConnectionModel(spreadId(i, taskCount), i % connectionCount,
+                            round * times + i);
+                }
+                compiledCost = Math.min(compiledCost, System.nanoTime() - start);
+            }
+        } finally {
+            contentValuesDb.close();
+        }
+
+        Log.i(TAG, String.format("%d single updates of the connection offset on %d tasks," +
+                        " ContentValues: %dus, compiled statement: %dus", times, taskCount,
+                contentValuesCost / 1000, compiledCost / 1000));
+
+        final DefaultDatabaseImpl persistedDatabase = new DefaultDatabaseImpl();
+        for (int i = times - connectionCount; i < times; i++) {
+            final List<ConnectionModel> connectionList =
+                    persistedDatabase.findConnectionModel(spreadId(i, taskCount));
+            assertEquals((rounds - 1) * times + i,
+                    findConnection(connectionList, i % connectionCount).getCurrentOffset());
+        }
+    }
+
+    /**
+     * Spread the updates over the tasks, the {@code i}th one is for the different task from the
+     * others as long as {@code i} is less than the {@code taskCount}.
+     */
+    private static int spreadId(int i, int taskCount) {
+        return (int) ((long) i * 7919 % taskCount) + 1;
+    }
+
+    @Test
+    public void find_beforeMaintained_reKeysTheRow() throws IOException {
+        useReKeyIdGenerator();
+        database.insert(createResumableModel());
+
+        final DefaultDatabaseImpl reopened = new DefaultDatabaseImpl();
+        final FileDownloadModel found = reopened.find(REFRESHED_ID);
+
+        // it is re-keyed at once, rather than after the maintaining.
+        assertEquals(REFRESHED_ID, found.getId());
+        assertNull(reopened.find(ID));
+        assertNull(findPersisted(new DefaultDatabaseImpl(), ID));
+        assertEquals(REFRESHED_ID, findPersisted(new DefaultDatabaseImpl(), REFRESHED_ID).getId());
+    }
+
+    @Test
+    public void find_amongMaintaining_isKept() throws IOException {
+        useReKeyIdGenerator();
+        database.insert(createResumableModel());
+
+        final DefaultDatabaseImpl reopened = new DefaultDatabaseImpl();
+        final FileDownloadDatabase.Maintainer maintainer = reopened.maintainer();
+        // the maintaining has read the models with the old id.
+        final List<FileDownloadModel> readList = readAll(maintainer);
+
+        final FileDownloadModel found = reopened.find(REFRESHED_ID);
+        applyMaintain(maintainer, readList);
+
+        assertSame(found, reopened.find(REFRESHED_ID));
+        final List<FileDownloadModel> persistedList = readPersisted(new DefaultDatabaseImpl());
+        assertEquals(1, persistedList.size());
+        assertEquals(REFRESHED_ID, persistedList.get(0).getId());
+    }
+
+    @Test
+    public void find_afterMaintained_isTheMaintainedOne() throws IOException {
+        useReKeyIdGenerator();
+        database.insert(createResumableModel());
+
+        final DefaultDatabaseImpl reopened = new DefaultDatabaseImpl();
+        final FileDownloadDatabase.Maintainer maintainer = reopened.maintainer();
+        applyMaintain(maintainer, readAll(maintainer));
+
+        assertEquals(REFRESHED_ID, reopened.find(REFRESHED_ID).getId());
+        assertNull(reopened.find(ID));
+    }
+
+    @Test
+    public void remove_amongMaintaining_isNotRestored() throws IOException {
+        database.insert(createResumableModel());
+
+        final DefaultDatabaseImpl reopened = new DefaultDatabaseImpl();
+        final FileDownloadDatabase.Maintainer maintainer = reopened.maintainer();
+        final List<FileDownloadModel> readList = readAll(maintainer);
+
+        assertTrue(reopened.remove(ID));
+        applyMaintain(maintainer, readList);
+
+        assertNull(reopened.find(ID));
+        assertNull(findPersisted(new DefaultDatabaseImpl(), ID));
+    }
+
+    @Test
+    public void remove_oldIdAmongMaintaining_isNotRestoredWithTheNewId() throws IOException {
+        useReKeyIdGenerator();
+        database.insert(createResumableModel());
+
+        final DefaultDatabaseImpl reopened = new DefaultDatabaseImpl();
+        final FileDownloadDatabase.Maintainer maintainer = reopened.maintainer();
+        final List<FileDownloadModel> readList = readAll(maintainer);
+
+        assertTrue(reopened.remove(ID));
+        applyMaintain(maintainer, readList);
+
+        assertNull(reopened.find(REFRESHED_ID));
+        assertTrue(readPersisted(new DefaultDatabaseImpl()).isEmpty());
+    }
+
+    @Test
+    public void clear_amongMaintaining_restoresNothing() throws IOException {
+        database.insert(createResumableModel());
+
+        final DefaultDatabaseImpl reopened = new DefaultDatabaseImpl();
+        final FileDownloadDatabase.Maintainer maintainer = reopened.maintainer();
+        final List<FileDownloadModel> readList = readAll(maintainer);
+
+        reopened.clear();
+        applyMaintain(maintainer, readList);
+
+        assertNull(reopened.find(ID));
+        assertTrue(readPersisted(new DefaultDatabaseImpl()).isEmpty());
+    }
+
+    /**
+     * The id generator which changes {@link #ID} to {@link #REFRESHED_ID} on restoring.
+     */
+    private static void useReKeyIdGenerator() {
+        CustomComponentHolder.getImpl().setInitCustomMaker(
+                new DownloadMgrInitialParams.InitCustomMaker().idGenerator(new DefaultIdGenerator() {
+                    @Override
+                    public int transOldId(int oldId, String url, String path,
+                                          boolean pathAsDirectory) {
+                        return oldId == ID ? REFRESHED_ID : oldId;
+                    }
+                }));
+    }
+
+    /**
+     * @return the model which is valid for resuming from the breakpoint on maintaining.
+     */
+    private FileDownloadModel createResumableModel() throws IOException {
+        final FileDownloadModel model = createModel();
+        final File target = new File(context.getCacheDir(), "maintain-" + System.nanoTime());
+        model.setPath(target.getAbsolutePath(), false);
+        model.setStatus(FileDownloadStatus.paused);
+        model.setSoFar(10);
+        model.setTotal(100);
+
+        final FileOutputStream tempOutput = new FileOutputStream(model.getTempFilePath());
+        try {
+            tempOutput.write(new byte[10]);
+        } finally {
+            tempOutput.close();
+        }
+        return model;
+    }
+
+    private static List<FileDownloadModel> readAll(FileDownloadDatabase.Maintainer maintainer) {
+        final List<FileDownloadModel> modelList = new ArrayList<>();
+        for (FileDownloadModel model : maintainer) {
+            modelList.add(model);
+        }
+        return modelList;
+    }
+
+    /**
+     * The same as the maintaining on the {@link CustomComponentHolder}, for the models read.
+     */
+    private static void applyMaintain(FileDownloadDatabase.Maintainer maintainer,
+                                      List<FileDownloadModel> readList) {
+        for (FileDownloadModel model : readList) {
+            if (!CustomComponentHolder.maintainModel(model)) {
+                maintainer.onRemovedInvalidData(model);
+                continue;
+            }
+
+            final int oldId = model.getId();
+            final int refreshedId = CustomComponentHolder.getRefreshedId(model);
+            if (refreshedId != oldId) {
+                model.setId(refreshedId);
+                maintainer.changeFileDownloadModelId(oldId, model);
+            }
+            maintainer.onRefreshedValidData(model);
+        }
+        maintainer.onFinishMaintain();
+    }
+
+    private static FileDownloadModel findPersisted(DefaultDatabaseImpl database) {
+        return findPersisted(database, ID);
+    }
+
+    private static List<FileDownloadModel> readPersisted(DefaultDatabaseImpl database) {
+        final FileDownloadDatabase.Maintainer maintainer = database.maintainer();
+        final List<FileDownloadModel> modelList = readAll(maintainer);
+        maintainer.onFinishMaintain();
+        return modelList;
+    }
+
+    private static FileDownloadModel findPersisted(DefaultDatabaseImpl database, int id) {
+        for (FileDownloadModel model : readPersisted(database)) {
+            if (model.getId() == id) return model;
+        }
+        return null;
+    }
+
+    private static ConnectionModel findConnection(List<ConnectionModel> connectionList,
+                                                  int index) {
+        for (ConnectionModel model : connectionList) {
+            if (model.getIndex() == index) return model;
+        }
+        return null;
+    }
+
+    private static FileDownloadModel createModel() {
+        return createModel(ID);
+    }
+
+    private static FileDownloadModel createModel(int id) {
+        final FileDownloadModel model = new FileDownloadModel();
+        model.setId(id);
+        model.setUrl("http://example.com/" + id);
+        model.setPath("/sdcard/" + id, false);
+        model.setStatus(FileDownloadStatus.pending);
+        model.setConnectionCount(1);
+        return model;
+    }
+
+    private static ConnectionModel createConnection(int index, long startOffset, long endOffset) {
+        return createConnection(ID, index, startOffset, endOffset);
+    }
+
+    private static ConnectionModel createConnection(int id, int index, long startOffset,
+                                                    long endOffset) {
+        final ConnectionModel model = new ConnectionModel();
+        model.setId(id);
+        model.setIndex(index);
+        model.setStartOffset(startOffset);
+        model.setCurrentOffset(startOffset);
+        model.setEndOffset(endOffset);
+        return model;
+    }
+}
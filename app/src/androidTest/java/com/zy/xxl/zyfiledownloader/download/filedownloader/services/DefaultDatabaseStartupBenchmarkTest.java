@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.services;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.zy.xxl.zyfiledownloader.download.filedownloader.download.CustomComponentHolder;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadModel;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadStatus;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadHelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * The startup of the {@link DefaultDatabaseImpl} with {@link #ROW_COUNT} rows, before the
+ * maintaining is finished: the opening, the first find of the existing task(such as resuming it),
+ * and the first find of the new task(such as starting it), which looks up the old ids only when
+ * the id generator can re-key the rows. The costs are printed on the logcat.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DefaultDatabaseStartupBenchmarkTest {
+
+    private final static String TAG = "DefaultDatabaseStartup";
+    private final static int ROW_COUNT = 100000;
+    // the id isn't on the table.
+    private final static int NEW_ID = ROW_COUNT + 1;
+
+    @Before
+    public void setUp() {
+        FileDownloadHelper.holdContext(InstrumentationRegistry.getTargetContext());
+
+        final DefaultDatabaseImpl database = new DefaultDatabaseImpl();
+        database.clear();
+        database.runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                for (int id = 1; id <= ROW_COUNT; id++) {
+                    database.insert(createModel(id));
+                }
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        CustomComponentHolder.getImpl().setInitCustomMaker(null);
+        new DefaultDatabaseImpl().clear();
+    }
+
+    @Test
+    public void startup_defaultIdGenerator_benchmark() {
+        CustomComponentHolder.getImpl().setInitCustomMaker(null);
+        benchmark("default id generator");
+    }
+
+    @Test
+    public void startup_reKeyableIdGenerator_benchmark() {
+        CustomComponentHolder.getImpl().setInitCustomMaker(
+                new DownloadMgrInitialParams.InitCustomMaker().idGenerator(new DefaultIdGenerator() {
+                    @Override
+                    public int transOldId(int oldId, String url, String path,
+                                          boolean pathAsDirectory) {
+                        return oldId;
+                    }
+                }));
+        benchmark("re-keyable id generator");
+    }
+
+    private static void benchmark(String name) {
+        long start = System.nanoTime();
+        final DefaultDatabaseImpl database = new DefaultDatabaseImpl();
+        final long openCost = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        final FileDownloadModel existing = database.find(ROW_COUNT / 2);
+        final long findExistingCost = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        final FileDownloadModel missing = database.find(NEW_ID);
+        final long findNewCost = System.nanoTime() - start;
+
+        Log.i(TAG, String.format("%s with %d rows, open: %dus, first find of the existing" +
+                        " task: %dus, first find of the new task: %dus", name, ROW_COUNT,
+                openCost / 1000, findExistingCost / 1000, findNewCost / 1000));
+
+        assertEquals(ROW_COUNT / 2, existing.getId());
+        assertNull(missing);
+    }
+
+    private static FileDownloadModel createModel(int id) {
+        final FileDownloadModel model = new FileDownloadModel();
+        model.setId(id);
+        model.setUrl("http://example.com/" + id);
+        model.setPath("/sdcard/" + id, false);
+        model.setStatus(FileDownloadStatus.paused);
+        model.setConnectionCount(1);
+        return model;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.stream;
+
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadHelper;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+/**
+ * Write a multi-GB file the way the connections of a task do: each connection writes its own
+ * range with the buffer sized chunks and syncs every {@link #SYNC_BYTES}, through the
+ * {@link FileDownloadMappedOutputStream}, the {@link FileDownloadRandomAccessFile} and the default
+ * {@link FileDownloadChannelOutputStream}.
+ * <p>
+ * The results are only logged, the test is skipped if there isn't enough space on the device.
+ */
+@RunWith(AndroidJUnit4.class)
+public class OutputStreamBenchmarkTest {
+
+    private final static String TAG = "OutputStreamBenchmark";
+    private final static long MB = 1024 * 1024;
+    private final static long FILE_SIZE = 2 * 1024 * MB;
+    private final static int CHUNK_SIZE = 64 * 1024;
+    private final static long SYNC_BYTES = 64 * MB;
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        final Context context = InstrumentationRegistry.getTargetContext();
+        FileDownloadHelper.holdContext(context);
+
+        final File dir = context.getExternalCacheDir() != null
+                ? context.getExternalCacheDir() : context.getCacheDir();
+        file = new File(dir, TAG);
+        file.delete();
+        Assume.assumeTrue(dir.getUsableSpace() > FILE_SIZE + 512 * MB);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void write_oneConnection_benchmark() throws Exception {
+        benchmark(1);
+    }
+
+    @Test
+    public void write_fourConnections_benchmark() throws Exception {
+        benchmark(4);
+    }
+
+    private void benchmark(int connectionCount) throws Exception {
+        final long mappedNanos = write(new FileDownloadMappedOutputStream.Creator(),
+                connectionCount);
+        final long randomAccessNanos = write(new FileDownloadRandomAccessFile.Creator(),
+                connectionCount);
+        final long channelNanos = write(new FileDownloadChannelOutputStream.Creator(),
+                connectionCount);
+
+        Log.i(TAG, String.format("write %dMB on %d connections: mapped %dms(%dMB/s)," +
+                        " random access %dms(%dMB/s), channel %dms(%dMB/s)", FILE_SIZE / MB,
+                connectionCount, mappedNanos / 1000000, throughput(mappedNanos),
+                randomAccessNanos / 1000000, throughput(randomAccessNanos),
+                channelNanos / 1000000, throughput(channelNanos)));
+    }
+
+    /**
+     * The connections write their ranges in turn by chunk on this thread, so the result is about
+     * the stream rather than the scheduling.
+     */
+    private long write(FileDownloadHelper.OutputStreamCreator creator, int connectionCount)
+            throws Exception {
+        file.delete();
+        final byte[] chunk = new byte[CHUNK_SIZE];
+        for (int i = 0; i < chunk.length; i++) chunk[i] = (byte) i;
+
+        final long rangeSize = FILE_SIZE / connectionCount;
+        final FileDownloadOutputStream[] streams = new FileDownloadOutputStream[connectionCount];
+        final long[] offsets = new long[connectionCount];
+        final long[] syncedOffsets = new long[connectionCount];
+
+        final long begin = System.nanoTime();
+        for (int i = 0; i < connectionCount; i++) {
+            streams[i] = creator.create(file);
+            if (i == 0) streams[i].setLength(FILE_SIZE);
+            offsets[i] = syncedOffsets[i] = rangeSize * i;
+            streams[i].seek(offsets[i]);
+        }
+
+        boolean isWriting = true;
+        while (isWriting) {
+            isWriting = false;
+            for (int i = 0; i < connectionCount; i++) {
+                final long endOffset = i == connectionCount - 1 ? FILE_SIZE : rangeSize * (i + 1);
+                if (offsets[i] >= endOffset) continue;
+
+                final int count = (int) Math.min(CHUNK_SIZE, endOffset - offsets[i]);
+                streams[i].write(chunk, 0, count);
+                offsets[i] += count;
+                if (offsets[i] - syncedOffsets[i] >= SYNC_BYTES) {
+                    streams[i].flushAndSync();
+                    syncedOffsets[i] = offsets[i];
+                }
+                isWriting = true;
+            }
+        }
+
+        for (FileDownloadOutputStream stream : streams) {
+            stream.flushAndSync();
+            stream.close();
+        }
+        return System.nanoTime() - begin;
+    }
+
+    private static long throughput(long nanos) {
+        return FILE_SIZE / MB * 1000000000L / Math.max(nanos, 1);
+    }
+}
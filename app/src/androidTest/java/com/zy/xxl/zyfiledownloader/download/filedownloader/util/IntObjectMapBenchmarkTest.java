@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.util;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.util.SparseArray;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The put, get and remove of the {@link IntObjectMap} and the {@link SparseArray} on the same
+ * keys. The keys are random, as the download ids are hashed from the url and the path, and they
+ * are put, got and removed in the random order. The best of {@link #ROUND_COUNT} rounds is logged.
+ * <p/>
+ * The {@link SparseArray} calls are wrapped with {@code synchronized} as the registries did before
+ * moving to the {@link IntObjectMap}, which is synchronized itself.
+ */
+@RunWith(AndroidJUnit4.class)
+public class IntObjectMapBenchmarkTest {
+
+    private final static String TAG = "IntObjectMapBenchmark";
+    private final static int ROUND_COUNT = 5;
+
+    @Test
+    public void tenThousandKeys_benchmark() {
+        benchmark(10000);
+    }
+
+    @Test
+    public void twentyThousandKeys_benchmark() {
+        benchmark(20000);
+    }
+
+    @Test
+    public void fiftyThousandKeys_benchmark() {
+        benchmark(50000);
+    }
+
+    private static void benchmark(int keyCount) {
+        final int[] keys = createKeys(keyCount);
+
+        final long[] mapNanos = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+        final long[] arrayNanos = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+        for (int round = 0; round < ROUND_COUNT; round++) {
+            final long[] map = runIntObjectMap(keys);
+            final long[] array = runSparseArray(keys);
+            for (int i = 0; i < mapNanos.length; i++) {
+                mapNanos[i] = Math.min(mapNanos[i], map[i]);
+                arrayNanos[i] = Math.min(arrayNanos[i], array[i]);
+            }
+        }
+
+        Log.i(TAG, String.format("%d keys, put: map %dus array %dus, get: map %dus array %dus," +
+                        " remove: map %dus array %dus", keyCount,
+                mapNanos[0] / 1000, arrayNanos[0] / 1000,
+                mapNanos[1] / 1000, arrayNanos[1] / 1000,
+                mapNanos[2] / 1000, arrayNanos[2] / 1000));
+    }
+
+    /**
+     * @return the nanos of the put, get and remove of all keys.
+     */
+    private static long[] runIntObjectMap(int[] keys) {
+        final IntObjectMap<Integer> map = new IntObjectMap<>();
+        final long[] nanos = new long[3];
+
+        long begin = System.nanoTime();
+        for (int key : keys) map.put(key, key);
+        nanos[0] = System.nanoTime() - begin;
+
+        int found = 0;
+        begin = System.nanoTime();
+        for (int key : keys) {
+            if (map.get(key) != null) found++;
+        }
+        nanos[1] = System.nanoTime() - begin;
+
+        begin = System.nanoTime();
+        for (int key : keys) map.remove(key);
+        nanos[2] = System.nanoTime() - begin;
+
+        assertEquals(keys.length, found);
+        assertEquals(0, map.size());
+        return nanos;
+    }
+
+    private static long[] runSparseArray(int[] keys) {
+        final SparseArray<Integer> array = new SparseArray<>();
+        final long[] nanos = new long[3];
+
+        long begin = System.nanoTime();
+        for (int key : keys) {
+            synchronized (array) {
+                array.put(key, key);
+            }
+        }
+        nanos[0] = System.nanoTime() - begin;
+
+        int found = 0;
+        begin = System.nanoTime();
+        for (int key : keys) {
+            synchronized (array) {
+                if (array.get(key) != null) found++;
+            }
+        }
+        nanos[1] = System.nanoTime() - begin;
+
+        begin = System.nanoTime();
+        for (int key : keys) {
+            synchronized (array) {
+                array.remove(key);
+            }
+        }
+        nanos[2] = System.nanoTime() - begin;
+
+        assertEquals(keys.length, found);
+        assertEquals(0, array.size());
+        return nanos;
+    }
+
+    private static int[] createKeys(int keyCount) {
+        final Random random = new Random(keyCount);
+        final Set<Integer> keySet = new HashSet<>(keyCount * 2);
+        final int[] keys = new int[keyCount];
+        int i = 0;
+        while (i < keyCount) {
+            final int key = random.nextInt();
+            if (keySet.add(key)) keys[i++] = key;
+        }
+        return keys;
+    }
+}
@@ -205,6 +205,19 @@ public interface BaseDownloadTask {
      */
     BaseDownloadTask setWifiRequired(final boolean isWifiRequired);
 
+    /**
+     * Set the priority of this task in the network thread pool. Default {@code 0}.
+     * <p>
+     * The task with the higher priority is executed first when there are tasks waiting for the
+     * network threads, the tasks with the same priority are executed in the order they are started.
+     * If the priority preemption is enabled, the running task with the lower priority is paused and
+     * queued again for the task with the higher priority.
+     *
+     * @param priority The priority of this task, the larger the value, the higher the priority.
+     * @see FileDownloader#setTaskPriority(int, int)
+     */
+    BaseDownloadTask setPriority(final int priority);
+
     /**
      * Ready this task(For the task in a queue).
      * <p>
@@ -542,6 +555,12 @@ public interface BaseDownloadTask {
      */
     boolean isWifiRequired();
 
+    /**
+     * @return The priority of this task in the network thread pool.
+     * @see #setPriority(int)
+     */
+    int getPriority();
+
     /**
      * Declare the task will be assembled by a queue which makes up of the same listener task.
      */
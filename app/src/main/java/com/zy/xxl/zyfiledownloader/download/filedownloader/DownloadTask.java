@@ -65,6 +65,8 @@ public class DownloadTask implements BaseDownloadTask, BaseDownloadTask.IRunning
 
     private boolean mIsWifiRequired = false;
 
+    private int mPriority = 0;
+
     public final static int DEFAULT_CALLBACK_PROGRESS_MIN_INTERVAL_MILLIS = 10;
     private int mCallbackProgressTimes = FileDownloadModel.DEFAULT_CALLBACK_PROGRESS_TIMES;
     private int mCallbackProgressMinIntervalMillis = DEFAULT_CALLBACK_PROGRESS_MIN_INTERVAL_MILLIS;
@@ -123,6 +125,8 @@ public class DownloadTask implements BaseDownloadTask, BaseDownloadTask.IRunning
     @Override
     public BaseDownloadTask setListener(final FileDownloadListener listener) {
         this.mListener = listener;
+        // the task may be running, then it is indexed by the new listener.
+        FileDownloadList.getImpl().updateListener(this);
 
         if (FileDownloadLog.NEED_LOG) {
             FileDownloadLog.d(this, "setListener %s", listener);
@@ -257,6 +261,12 @@ public class DownloadTask implements BaseDownloadTask, BaseDownloadTask.IRunning
         return this;
     }
 
+    @Override
+    public BaseDownloadTask setPriority(int priority) {
+        this.mPriority = priority;
+        return this;
+    }
+
 
     @Override
     public int ready() {
@@ -565,6 +575,11 @@ public class DownloadTask implements BaseDownloadTask, BaseDownloadTask.IRunning
         return mIsWifiRequired;
     }
 
+    @Override
+    public int getPriority() {
+        return mPriority;
+    }
+
     private final Object headerCreateLock = new Object();
 
     private void checkAndCreateHeader() {
@@ -610,7 +610,8 @@ public class DownloadTaskHunter implements ITaskHunter, ITaskHunter.IStarter, IT
                             origin.getAutoRetryTimes(),
                             origin.isForceReDownload(),
                             mTask.getHeader(),
-                            origin.isWifiRequired());
+                            origin.isWifiRequired(),
+                            origin.getPriority());
 
             if (mStatus == FileDownloadStatus.paused) {
                 FileDownloadLog.w(this, "High concurrent cause, this task %d will be paused," +
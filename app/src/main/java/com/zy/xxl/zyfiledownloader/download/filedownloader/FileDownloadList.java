@@ -21,13 +21,21 @@ import com.zy.xxl.zyfiledownloader.download.filedownloader.message.MessageSnapsh
 import com.zy.xxl.zyfiledownloader.download.filedownloader.message.MessageSnapshotTaker;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadStatus;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadLog;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.IntObjectMap;
 
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 已完成
  * Storing all tasks in processing in the Main-Process.
+ * <p/>
+ * The tasks are indexed by the id and by the listener, in the order they are added, so finding the
+ * tasks of one id or one listener doesn't scan all tasks.
  */
 @SuppressWarnings("UnusedReturnValue")
 public class FileDownloadList {
@@ -40,10 +48,18 @@ public class FileDownloadList {
         return HolderClass.INSTANCE;
     }
 
-    private final ArrayList<BaseDownloadTask.IRunningTask> mList;
+    // the tasks in the order they are added, with the keys they are indexed by.
+    private final LinkedHashMap<BaseDownloadTask.IRunningTask, IndexKey> mList;
+    // guarded by the mList.
+    private final IntObjectMap<LinkedHashSet<BaseDownloadTask.IRunningTask>> mIdIndex;
+    // guarded by the mList.
+    private final IdentityHashMap<FileDownloadListener,
+            LinkedHashSet<BaseDownloadTask.IRunningTask>> mListenerIndex;
 
     private FileDownloadList() {
-        mList = new ArrayList<>();
+        mList = new LinkedHashMap<>();
+        mIdIndex = new IntObjectMap<>();
+        mListenerIndex = new IdentityHashMap<>();
     }
 
     boolean isEmpty() {
@@ -59,28 +75,19 @@ public class FileDownloadList {
      * @return get counts os same id
      */
     int count(final int id) {
-        int size = 0;
         synchronized (mList) {
-            for (BaseDownloadTask.IRunningTask task : mList) {
-                if (task.is(id)) {
-                    size++;
-                }
-            }
+            final LinkedHashSet<BaseDownloadTask.IRunningTask> idTasks = mIdIndex.get(id);
+            return idTasks == null ? 0 : idTasks.size();
         }
-        return size;
     }
 
     //获取正在运行的指定ID的任务
     public BaseDownloadTask.IRunningTask get(final int id) {
         synchronized (mList) {
-            for (BaseDownloadTask.IRunningTask task : mList) {
-                // when FileDownloadMgr#isDownloading
-                if (task.is(id)) {
-                    return task;
-                }
-            }
+            // when FileDownloadMgr#isDownloading
+            final LinkedHashSet<BaseDownloadTask.IRunningTask> idTasks = mIdIndex.get(id);
+            return idTasks == null ? null : idTasks.iterator().next();
         }
-        return null;
     }
 
     /**
@@ -91,8 +98,11 @@ public class FileDownloadList {
     List<BaseDownloadTask.IRunningTask> getReceiveServiceTaskList(final int id){
         final List<BaseDownloadTask.IRunningTask> list = new ArrayList<>();
         synchronized (this.mList) {
-            for (BaseDownloadTask.IRunningTask task : this.mList) {
-                if (task.is(id) && !task.isOver()) {
+            final LinkedHashSet<BaseDownloadTask.IRunningTask> idTasks = mIdIndex.get(id);
+            if (idTasks == null) return list;
+
+            for (BaseDownloadTask.IRunningTask task : idTasks) {
+                if (!task.isOver()) {
 
                     final byte status = task.getOrigin().getStatus();
                     if (status != FileDownloadStatus.INVALID_STATUS &&
@@ -111,9 +121,11 @@ public class FileDownloadList {
     List<BaseDownloadTask.IRunningTask> getDownloadingList(final int id) {
         final List<BaseDownloadTask.IRunningTask> list = new ArrayList<>();
         synchronized (this.mList) {
-            for (BaseDownloadTask.IRunningTask task : this.mList) {
-                if (task.is(id) &&
-                        !task.isOver()) {
+            final LinkedHashSet<BaseDownloadTask.IRunningTask> idTasks = mIdIndex.get(id);
+            if (idTasks == null) return list;
+
+            for (BaseDownloadTask.IRunningTask task : idTasks) {
+                if (!task.isOver()) {
                     list.add(task);
                 }
             }
@@ -123,20 +135,18 @@ public class FileDownloadList {
     }
 
     boolean isNotContains(final BaseDownloadTask.IRunningTask download) {
-        return mList.isEmpty() || !mList.contains(download);
+        synchronized (mList) {
+            return !mList.containsKey(download);
+        }
     }
 
     //获取相同监听器的任务集合
     List<BaseDownloadTask.IRunningTask> copy(final FileDownloadListener listener) {
-        final List<BaseDownloadTask.IRunningTask> targetList = new ArrayList<>();
         synchronized (mList) {
-            // Prevent size changing
-            for (BaseDownloadTask.IRunningTask task : mList) {
-                if (task.is(listener)) {
-                    targetList.add(task);
-                }
-            }
-            return targetList;
+            final LinkedHashSet<BaseDownloadTask.IRunningTask> listenerTasks =
+                    mListenerIndex.get(listener);
+            if (listenerTasks == null) return new ArrayList<>();
+            return new ArrayList<>(listenerTasks);
         }
     }
 
@@ -145,9 +155,12 @@ public class FileDownloadList {
                                                              FileDownloadListener listener) {
         final List<BaseDownloadTask.IRunningTask> targetList = new ArrayList<>();
         synchronized (mList) {
-            // Prevent size changing
-            for (BaseDownloadTask.IRunningTask task : mList) {
-                if (task.getOrigin().getListener() == listener && !task.getOrigin().isAttached()) {
+            final LinkedHashSet<BaseDownloadTask.IRunningTask> listenerTasks =
+                    mListenerIndex.get(listener);
+            if (listenerTasks == null) return targetList;
+
+            for (BaseDownloadTask.IRunningTask task : listenerTasks) {
+                if (!task.getOrigin().isAttached()) {
                     task.setAttachKeyByQueue(attachKey);
                     targetList.add(task);
                 }
@@ -160,7 +173,7 @@ public class FileDownloadList {
         synchronized (mList) {
             // Prevent size changing
             BaseDownloadTask.IRunningTask[] copy = new BaseDownloadTask.IRunningTask[mList.size()];
-            return mList.toArray(copy);
+            return mList.keySet().toArray(copy);
         }
     }
 
@@ -170,12 +183,14 @@ public class FileDownloadList {
     void divertAndIgnoreDuplicate(@SuppressWarnings("SameParameterValue") final List<BaseDownloadTask.IRunningTask>
                                           destination) {
         synchronized (mList) {
-            for (BaseDownloadTask.IRunningTask iRunningTask : mList) {
+            for (BaseDownloadTask.IRunningTask iRunningTask : mList.keySet()) {
                 if (!destination.contains(iRunningTask)) {
                     destination.add(iRunningTask);
                 }
             }
             mList.clear();
+            mIdIndex.clear();
+            mListenerIndex.clear();
         }
     }
 
@@ -187,7 +202,9 @@ public class FileDownloadList {
         final byte removeByStatus = snapshot.getStatus();
         boolean succeed;
         synchronized (mList) {
-            succeed = mList.remove(willRemoveDownload);
+            final IndexKey key = mList.remove(willRemoveDownload);
+            succeed = key != null;
+            if (succeed) unindex(willRemoveDownload, key);
         }
         if (FileDownloadLog.NEED_LOG) {
             if (mList.size() == 0) {
@@ -248,11 +265,14 @@ public class FileDownloadList {
         }
 
         synchronized (mList) {
-            if (mList.contains(task)) {
+            if (mList.containsKey(task)) {
                 FileDownloadLog.w(this, "already has %s", task);
             } else {
                 task.markAdded2List();
-                mList.add(task);
+                final IndexKey key = new IndexKey(task.getOrigin().getId(),
+                        task.getOrigin().getListener());
+                mList.put(task, key);
+                index(task, key);
                 if (FileDownloadLog.NEED_LOG) {
                     FileDownloadLog.v(this, "add list in all %s %d %d", task,
                             task.getOrigin().getStatus(), mList.size());
@@ -260,4 +280,81 @@ public class FileDownloadList {
             }
         }
     }
+
+    /**
+     * Index the {@code task} by its new listener, because the listener can be replaced while the
+     * task is running.
+     *
+     * @see BaseDownloadTask#setListener(FileDownloadListener)
+     */
+    void updateListener(final BaseDownloadTask.IRunningTask task) {
+        synchronized (mList) {
+            final IndexKey key = mList.get(task);
+            if (key == null) return;
+
+            final FileDownloadListener listener = task.getOrigin().getListener();
+            if (key.listener == listener) return;
+
+            removeFrom(mListenerIndex, key.listener, task);
+            key.listener = listener;
+            addTo(mListenerIndex, listener, task);
+        }
+    }
+
+    // must hold the mList.
+    private void index(BaseDownloadTask.IRunningTask task, IndexKey key) {
+        LinkedHashSet<BaseDownloadTask.IRunningTask> idTasks = mIdIndex.get(key.id);
+        if (idTasks == null) {
+            idTasks = new LinkedHashSet<>();
+            mIdIndex.put(key.id, idTasks);
+        }
+        idTasks.add(task);
+
+        addTo(mListenerIndex, key.listener, task);
+    }
+
+    // must hold the mList.
+    private void unindex(BaseDownloadTask.IRunningTask task, IndexKey key) {
+        final LinkedHashSet<BaseDownloadTask.IRunningTask> idTasks = mIdIndex.get(key.id);
+        if (idTasks != null && idTasks.remove(task) && idTasks.isEmpty()) {
+            mIdIndex.remove(key.id);
+        }
+
+        removeFrom(mListenerIndex, key.listener, task);
+    }
+
+    private static void addTo(Map<FileDownloadListener,
+            LinkedHashSet<BaseDownloadTask.IRunningTask>> index,
+                              FileDownloadListener listener, BaseDownloadTask.IRunningTask task) {
+        LinkedHashSet<BaseDownloadTask.IRunningTask> tasks = index.get(listener);
+        if (tasks == null) {
+            tasks = new LinkedHashSet<>();
+            index.put(listener, tasks);
+        }
+        tasks.add(task);
+    }
+
+    private static void removeFrom(Map<FileDownloadListener,
+            LinkedHashSet<BaseDownloadTask.IRunningTask>> index,
+                                   FileDownloadListener listener,
+                                   BaseDownloadTask.IRunningTask task) {
+        final LinkedHashSet<BaseDownloadTask.IRunningTask> tasks = index.get(listener);
+        if (tasks != null && tasks.remove(task) && tasks.isEmpty()) {
+            index.remove(listener);
+        }
+    }
+
+    /**
+     * The keys the task is indexed by, the id is fixed once the task is added, but the listener can
+     * be replaced.
+     */
+    private static class IndexKey {
+        final int id;
+        FileDownloadListener listener;
+
+        IndexKey(int id, FileDownloadListener listener) {
+            this.id = id;
+            this.listener = listener;
+        }
+    }
 }
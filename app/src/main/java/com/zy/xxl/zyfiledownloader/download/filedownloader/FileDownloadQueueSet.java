@@ -37,6 +37,7 @@ public class FileDownloadQueueSet {
     private Boolean syncCallback;
     private Boolean isForceReDownload;
     private Boolean isWifiRequired;
+    private Integer priority;
     private Integer callbackProgressTimes;
     private Integer callbackProgressMinIntervalMillis;
     private Object tag;
@@ -159,6 +160,10 @@ public class FileDownloadQueueSet {
                 task.setWifiRequired(this.isWifiRequired);
             }
 
+            if (this.priority != null) {
+                task.setPriority(this.priority);
+            }
+
             task.asInQueueTask().enqueue();
         }
 
@@ -260,4 +265,12 @@ public class FileDownloadQueueSet {
         return this;
     }
 
+    /**
+     * @see BaseDownloadTask#setPriority(int)
+     */
+    public FileDownloadQueueSet setPriority(int priority) {
+        this.priority = priority;
+        return this;
+    }
+
 }
@@ -64,10 +64,10 @@ public class FileDownloadServiceProxy implements IFileDownloadServiceProxy {
     public boolean start(String url, String path, boolean pathAsDirectory, int callbackProgressTimes,
                          int callbackProgressMinIntervalMillis,
                          int autoRetryTimes, boolean forceReDownload, FileDownloadHeader header,
-                         boolean isWifiRequired) {
+                         boolean isWifiRequired, int priority) {
         return handler.start(url, path, pathAsDirectory, callbackProgressTimes,
                 callbackProgressMinIntervalMillis, autoRetryTimes, forceReDownload, header,
-                isWifiRequired);
+                isWifiRequired, priority);
     }
 
     @Override
@@ -148,6 +148,26 @@ public class FileDownloadServiceProxy implements IFileDownloadServiceProxy {
         return handler.setMaxNetworkThreadCount(count);
     }
 
+    @Override
+    public int getMaxNetworkThreadCount() {
+        return handler.getMaxNetworkThreadCount();
+    }
+
+    @Override
+    public boolean setTaskPriority(int id, int priority) {
+        return handler.setTaskPriority(id, priority);
+    }
+
+    @Override
+    public boolean setMaxBandwidth(long bytesPerSecond) {
+        return handler.setMaxBandwidth(bytesPerSecond);
+    }
+
+    @Override
+    public boolean setTaskMaxBandwidth(int id, long bytesPerSecond) {
+        return handler.setTaskMaxBandwidth(id, bytesPerSecond);
+    }
+
     //清除指定ID的任务的数据
     @Override
     public boolean clearTaskData(int id) {
@@ -47,13 +47,13 @@ class FileDownloadServiceSharedTransmit implements
     public boolean start(String url, String path, boolean pathAsDirectory, int callbackProgressTimes,
                          int callbackProgressMinIntervalMillis,
                          int autoRetryTimes, boolean forceReDownload, FileDownloadHeader header,
-                         boolean isWifiRequired) {
+                         boolean isWifiRequired, int priority) {
         if (!isConnected()) {
             return DownloadServiceNotConnectedHelper.start(url, path, pathAsDirectory);
         }
 
         handler.start(url, path, pathAsDirectory, callbackProgressTimes, callbackProgressMinIntervalMillis,
-                autoRetryTimes, forceReDownload, header, isWifiRequired);
+                autoRetryTimes, forceReDownload, header, isWifiRequired, priority);
         return true;
     }
 
@@ -180,6 +180,44 @@ class FileDownloadServiceSharedTransmit implements
         return handler.setMaxNetworkThreadCount(count);
     }
 
+    @Override
+    public int getMaxNetworkThreadCount() {
+        if (!isConnected()) {
+            return DownloadServiceNotConnectedHelper.getMaxNetworkThreadCount();
+        }
+
+        return handler.getMaxNetworkThreadCount();
+    }
+
+    @Override
+    public boolean setTaskPriority(int id, int priority) {
+        if (!isConnected()) {
+            return DownloadServiceNotConnectedHelper.setTaskPriority(id, priority);
+        }
+
+        return handler.setTaskPriority(id, priority);
+    }
+
+    @Override
+    public boolean setMaxBandwidth(long bytesPerSecond) {
+        if (!isConnected()) {
+            return DownloadServiceNotConnectedHelper.setMaxBandwidth(bytesPerSecond);
+        }
+
+        handler.setMaxBandwidth(bytesPerSecond);
+        return true;
+    }
+
+    @Override
+    public boolean setTaskMaxBandwidth(int id, long bytesPerSecond) {
+        if (!isConnected()) {
+            return DownloadServiceNotConnectedHelper.setTaskMaxBandwidth(id, bytesPerSecond);
+        }
+
+        handler.setTaskMaxBandwidth(id, bytesPerSecond);
+        return true;
+    }
+
     @Override
     public boolean clearTaskData(int id) {
         if (!isConnected()) {
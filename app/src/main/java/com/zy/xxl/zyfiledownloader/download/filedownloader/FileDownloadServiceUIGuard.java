@@ -87,13 +87,15 @@ class FileDownloadServiceUIGuard extends
      * @param callbackProgressTimes for callback progress times
      * @param autoRetryTimes        for auto retry times when error
      * @param header                for http header
+     * @param priority              for the order in the network thread pool
      */
     @Override
     public boolean start(final String url, final String path, final boolean pathAsDirectory,
                          final int callbackProgressTimes,
                          final int callbackProgressMinIntervalMillis,
                          final int autoRetryTimes, final boolean forceReDownload,
-                         final FileDownloadHeader header, final boolean isWifiRequired) {
+                         final FileDownloadHeader header, final boolean isWifiRequired,
+                         final int priority) {
         if (!isConnected()) {
             return DownloadServiceNotConnectedHelper.start(url, path, pathAsDirectory);
         }
@@ -101,7 +103,7 @@ class FileDownloadServiceUIGuard extends
         try {
             getService().start(url, path, pathAsDirectory, callbackProgressTimes,
                     callbackProgressMinIntervalMillis, autoRetryTimes, forceReDownload, header,
-                    isWifiRequired);
+                    isWifiRequired, priority);
         } catch (RemoteException e) {
             e.printStackTrace();
 
@@ -264,6 +266,70 @@ class FileDownloadServiceUIGuard extends
         return false;
     }
 
+    @Override
+    public int getMaxNetworkThreadCount() {
+        if (!isConnected()) {
+            return DownloadServiceNotConnectedHelper.getMaxNetworkThreadCount();
+        }
+
+        try {
+            return getService().getMaxNetworkThreadCount();
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+
+        return 0;
+    }
+
+    @Override
+    public boolean setTaskPriority(int id, int priority) {
+        if (!isConnected()) {
+            return DownloadServiceNotConnectedHelper.setTaskPriority(id, priority);
+        }
+
+        try {
+            return getService().setTaskPriority(id, priority);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+
+        return false;
+    }
+
+    @Override
+    public boolean setMaxBandwidth(long bytesPerSecond) {
+        if (!isConnected()) {
+            return DownloadServiceNotConnectedHelper.setMaxBandwidth(bytesPerSecond);
+        }
+
+        try {
+            getService().setMaxBandwidth(bytesPerSecond);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean setTaskMaxBandwidth(int id, long bytesPerSecond) {
+        if (!isConnected()) {
+            return DownloadServiceNotConnectedHelper.setTaskMaxBandwidth(id, bytesPerSecond);
+        }
+
+        try {
+            getService().setTaskMaxBandwidth(id, bytesPerSecond);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+
+            return false;
+        }
+
+        return true;
+    }
+
     @Override
     public boolean clearTaskData(int id) {
         if (!isConnected()) {
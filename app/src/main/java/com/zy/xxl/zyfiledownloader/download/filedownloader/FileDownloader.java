@@ -709,23 +709,68 @@ public class FileDownloader {
      * Set the maximum count of the network thread, what is the number of simultaneous downloads in
      * FileDownloader.
      *
+     * <p>
+     * It is applied in place even though there are tasks running: if the count grows, the tasks
+     * waiting are started at once; if it shrinks, the running ones drain to the new count, or the
+     * excess ones with the lowest priority are paused and queued again when
+     * {@code download.priority-preemption} is enabled. No waiting task is discarded.
+     *
      * @param count the number of simultaneous downloads, scope: [1, 12].
      * @return whether is successful to set the max network thread count.
-     * If there are any actively executing tasks in FileDownloader, you will receive a warn
-     * priority log int the logcat and this operation would be failed.
+     * @see #getMaxNetworkThreadCount()
      */
     public boolean setMaxNetworkThreadCount(final int count) {
-        if (!FileDownloadList.getImpl().isEmpty()) {
-            FileDownloadLog.w(this, "Can't change the max network thread count, because there " +
-                    "are actively executing tasks in FileDownloader, please try again after all" +
-                    " actively executing tasks are completed or invoking FileDownloader#pauseAll" +
-                    " directly.");
-            return false;
-        }
-
         return FileDownloadServiceProxy.getImpl().setMaxNetworkThreadCount(count);
     }
 
+    /**
+     * @return the effective maximum count of the network thread, {@code 0} if the download service
+     * isn't connected.
+     */
+    public int getMaxNetworkThreadCount() {
+        return FileDownloadServiceProxy.getImpl().getMaxNetworkThreadCount();
+    }
+
+    /**
+     * 修改任务的优先级
+     * Change the priority of the task which has been started, if it is still waiting for the
+     * network thread, it is reordered with the new priority at once.
+     *
+     * @param id       the id of the task.
+     * @param priority the new priority, the larger the value, the higher the priority.
+     * @return {@code true} if the task is found in the network thread pool.
+     * @see BaseDownloadTask#setPriority(int)
+     */
+    public boolean setTaskPriority(final int id, final int priority) {
+        return FileDownloadServiceProxy.getImpl().setTaskPriority(id, priority);
+    }
+
+    /**
+     * 设置全局最大带宽
+     * Set the max bandwidth shared by all running tasks, the tasks with the higher priority take the
+     * larger share, such as limiting the downloads when a video starts playing.
+     *
+     * @param bytesPerSecond the max bytes per second, {@code 0} means no limit.
+     * @return {@code true} if it is applied to the download service.
+     * @see BaseDownloadTask#setPriority(int)
+     */
+    public boolean setMaxBandwidth(final long bytesPerSecond) {
+        return FileDownloadServiceProxy.getImpl().setMaxBandwidth(bytesPerSecond);
+    }
+
+    /**
+     * 设置任务的最大带宽
+     * Set the max bandwidth of the task, it is kept in the download service for the task until it
+     * is set to {@code 0}.
+     *
+     * @param id             the id of the task.
+     * @param bytesPerSecond the max bytes per second, {@code 0} means no limit.
+     * @return {@code true} if it is applied to the download service.
+     */
+    public boolean setTaskMaxBandwidth(final int id, final long bytesPerSecond) {
+        return FileDownloadServiceProxy.getImpl().setTaskMaxBandwidth(id, bytesPerSecond);
+    }
+
     /**
      * 判断是否绑定了Service
      * If the FileDownloader service is not started and connected, FileDownloader will try to start
@@ -30,7 +30,8 @@ public interface IFileDownloadServiceProxy {
                   final int callbackProgressTimes,
                   final int callbackProgressMinIntervalMillis,
                   final int autoRetryTimes, boolean forceReDownload,
-                  final FileDownloadHeader header, boolean isWifiRequired);
+                  final FileDownloadHeader header, boolean isWifiRequired,
+                  int priority);
 
     boolean pause(final int id);
 
@@ -60,6 +61,14 @@ public interface IFileDownloadServiceProxy {
 
     boolean setMaxNetworkThreadCount(int count);
 
+    int getMaxNetworkThreadCount();
+
+    boolean setTaskPriority(int id, int priority);
+
+    boolean setMaxBandwidth(long bytesPerSecond);
+
+    boolean setTaskMaxBandwidth(int id, long bytesPerSecond);
+
     boolean clearTaskData(int id);
 
     void clearAllTaskData();
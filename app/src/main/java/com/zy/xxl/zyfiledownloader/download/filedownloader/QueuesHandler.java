@@ -19,11 +19,11 @@ package com.zy.xxl.zyfiledownloader.download.filedownloader;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Message;
-import android.util.SparseArray;
 
 import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadStatus;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadLog;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadUtils;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.IntObjectMap;
 
 import java.lang.ref.WeakReference;
 import java.util.List;
@@ -36,10 +36,10 @@ import java.util.List;
 
 class QueuesHandler implements IQueuesHandler {
 
-    private final SparseArray<Handler> mRunningSerialMap;
+    private final IntObjectMap<Handler> mRunningSerialMap;
 
     public QueuesHandler() {
-        this.mRunningSerialMap = new SparseArray<>();
+        this.mRunningSerialMap = new IntObjectMap<>();
     }
 
     //开启并行队列
@@ -85,9 +85,7 @@ class QueuesHandler implements IQueuesHandler {
 
         callback.goNext(0);
 
-        synchronized (mRunningSerialMap) {
-            mRunningSerialMap.put(attachKey, serialHandler);
-        }
+        mRunningSerialMap.put(attachKey, serialHandler);
 
         return true;
     }
@@ -95,9 +93,7 @@ class QueuesHandler implements IQueuesHandler {
     //冻结串行队列
     @Override
     public void freezeAllSerialQueues() {
-        for (int i = 0; i < mRunningSerialMap.size(); i++) {
-            final int key = mRunningSerialMap.keyAt(i);
-            Handler handler = mRunningSerialMap.get(key);
+        for (Handler handler : mRunningSerialMap.values()) {
             freezeSerialHandler(handler);
         }
     }
@@ -180,9 +176,7 @@ class QueuesHandler implements IQueuesHandler {
             if (msg.what == WHAT_SERIAL_NEXT) {
                 //如果过arg1 大于队列长度 结束handler
                 if (msg.arg1 >= mList.size()) {
-                    synchronized (mRunningSerialMap) {
-                        mRunningSerialMap.remove(mList.get(0).getAttachKey());
-                    }
+                    mRunningSerialMap.remove(mList.get(0).getAttachKey());
                     // final serial tasks
                     if (this.mHandler != null && this.mHandler.getLooper() != null) {
                         this.mHandler.getLooper().quit();
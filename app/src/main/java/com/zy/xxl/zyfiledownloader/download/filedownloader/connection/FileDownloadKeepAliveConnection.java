@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.connection;
+
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadHelper;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadLog;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.NoSuchAlgorithmException;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+
+/**
+ * 长连接复用
+ * The FileDownloadConnection which releases its socket back to the keep-alive pool of the
+ * platform {@link HttpURLConnection} once it is ending, so the next range, retry, redirect or task
+ * to the same host can be sent on the same socket without the TCP and TLS handshake again.
+ * <p/>
+ * The socket is only reusable when its response body has been read to the end, so the small
+ * remaining body is drained on ending, and the socket with the large remaining one(such as the
+ * range is split or paused) is closed instead of being left to the garbage collector.
+ * <p/>
+ * The https connections are always created through the default {@code SSLSocketFactory}, so they
+ * share the same pool and the same TLS session cache for resuming the sessions.
+ * <p/>
+ * The keep-alive pool and the TLS session cache of the platform are left untouched unless they are
+ * tuned through {@link Configuration#tunePlatform(boolean)}, since they are process-wide.
+ */
+public class FileDownloadKeepAliveConnection extends FileDownloadUrlConnection {
+
+    private final long maxDrainBytes;
+    private KeepAliveInputStream inputStream;
+    // whether the response has been received, otherwise there isn't anything to drain.
+    private boolean responded;
+
+    public FileDownloadKeepAliveConnection(String originUrl,
+                                           FileDownloadUrlConnection.Configuration urlConfiguration,
+                                           long maxDrainBytes) throws IOException {
+        this(new URL(originUrl), urlConfiguration, maxDrainBytes);
+    }
+
+    public FileDownloadKeepAliveConnection(URL url,
+                                           FileDownloadUrlConnection.Configuration urlConfiguration,
+                                           long maxDrainBytes) throws IOException {
+        super(url, urlConfiguration);
+        this.maxDrainBytes = maxDrainBytes;
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+        final int code = super.getResponseCode();
+        responded = true;
+        return code;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (inputStream == null) {
+            inputStream = new KeepAliveInputStream(mConnection.getInputStream());
+        }
+        return inputStream;
+    }
+
+    @Override
+    public void ending() {
+        if (!(mConnection instanceof HttpURLConnection)) return;
+
+        final KeepAliveInputStream inputStream = this.inputStream;
+        if (inputStream != null && inputStream.closed) return;
+
+        if (!responded && inputStream == null) {
+            ((HttpURLConnection) mConnection).disconnect();
+            return;
+        }
+
+        final long remainingBytes = inputStream == null
+                ? getBodyLength() : getBodyLength() - inputStream.readBytes;
+        if (remainingBytes < 0 || remainingBytes > maxDrainBytes) {
+            // draining it costs more than a new handshake.
+            ((HttpURLConnection) mConnection).disconnect();
+            return;
+        }
+
+        try {
+            final InputStream drainStream = getInputStream();
+            final byte[] buff = new byte[1024];
+            //noinspection StatementWithEmptyBody
+            while (drainStream.read(buff) != -1) {
+            }
+            drainStream.close();
+        } catch (IOException e) {
+            // such as the body of the error response can't be read, the socket is closed then.
+            ((HttpURLConnection) mConnection).disconnect();
+        }
+    }
+
+    private long getBodyLength() {
+        final String contentLength = mConnection.getHeaderField("Content-Length");
+        if (contentLength == null) return -1;
+
+        try {
+            return Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * The input stream which only returns the socket to the pool when the body has been read to
+     * the end, otherwise the socket is closed, and closing it on the other thread interrupts the
+     * blocking read.
+     */
+    private class KeepAliveInputStream extends FilterInputStream {
+        private volatile long readBytes;
+        private volatile boolean exhausted;
+        private volatile boolean closed;
+
+        KeepAliveInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b == -1) {
+                exhausted = true;
+            } else {
+                readBytes++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int byteCount = super.read(b, off, len);
+            if (byteCount == -1) {
+                exhausted = true;
+            } else {
+                readBytes += byteCount;
+            }
+            return byteCount;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+
+            if (!exhausted && mConnection instanceof HttpURLConnection) {
+                ((HttpURLConnection) mConnection).disconnect();
+            }
+            super.close();
+        }
+    }
+
+    public static class Creator implements FileDownloadHelper.ConnectionCreator {
+        private final FileDownloadUrlConnection.Configuration mUrlConfiguration;
+        private final long mMaxDrainBytes;
+
+        public Creator() {
+            this(null, null);
+        }
+
+        public Creator(FileDownloadUrlConnection.Configuration urlConfiguration,
+                       Configuration configuration) {
+            this.mUrlConfiguration = urlConfiguration;
+            if (configuration == null) configuration = new Configuration();
+            this.mMaxDrainBytes = configuration.maxDrainBytes;
+            if (configuration.tunePlatform) configuration.applyToPlatform();
+        }
+
+        @Override
+        public FileDownloadConnection create(String originUrl) throws IOException {
+            return new FileDownloadKeepAliveConnection(originUrl, mUrlConfiguration,
+                    mMaxDrainBytes);
+        }
+    }
+
+    /**
+     * The configuration for the keep-alive pool and the TLS session cache of the platform, they are
+     * process-wide, so they are only applied if {@link #tunePlatform(boolean)} is enabled, and the
+     * pool ones only take effect when they are applied before the first connection of the process.
+     */
+    public static class Configuration {
+        private boolean tunePlatform = false;
+        private int maxIdleConnections = 5;
+        private long keepAliveDurationMillis = 60 * 1000;
+        private long maxDrainBytes = 64 * 1024;
+        private int tlsSessionTimeoutSeconds = 5 * 60;
+
+        /**
+         * Whether to apply the {@link #maxIdleConnections(int)}, the
+         * {@link #keepAliveDuration(long)} and the {@link #tlsSessionTimeout(int)} to the platform
+         * when the creator is created, default is {@code false}.
+         * <p>
+         * They change the system properties and the default {@link SSLContext}, which affect all
+         * the connections of the process, not only the ones for downloading.
+         */
+        public Configuration tunePlatform(boolean tunePlatform) {
+            this.tunePlatform = tunePlatform;
+            return this;
+        }
+
+        /**
+         * The maximum idle connections kept in the keep-alive pool, default is 5, only applied if
+         * {@link #tunePlatform(boolean)} is enabled.
+         * <p>
+         * This {@code maxIdleConnections} will be applied through the system property
+         * {@code http.maxConnections}
+         */
+        public Configuration maxIdleConnections(int maxIdleConnections) {
+            this.maxIdleConnections = maxIdleConnections;
+            return this;
+        }
+
+        /**
+         * The milliseconds the idle connection is kept in the pool before it is closed, default is
+         * 60 seconds, only applied if {@link #tunePlatform(boolean)} is enabled.
+         * <p>
+         * This {@code keepAliveDurationMillis} will be applied through the system property
+         * {@code http.keepAliveDuration}
+         */
+        public Configuration keepAliveDuration(long keepAliveDurationMillis) {
+            this.keepAliveDurationMillis = keepAliveDurationMillis;
+            return this;
+        }
+
+        /**
+         * The maximum remaining bytes of the response body drained on ending for reusing the
+         * socket, the socket with more remaining bytes is closed, default is 64KB.
+         */
+        public Configuration maxDrainBytes(long maxDrainBytes) {
+            this.maxDrainBytes = maxDrainBytes;
+            return this;
+        }
+
+        /**
+         * The seconds the TLS session is cached for resuming, default is 5 minutes, only applied if
+         * {@link #tunePlatform(boolean)} is enabled.
+         * <p>
+         * This {@code tlsSessionTimeoutSeconds} will be applied to the client session context of
+         * the default {@link SSLContext}.
+         */
+        public Configuration tlsSessionTimeout(int tlsSessionTimeoutSeconds) {
+            this.tlsSessionTimeoutSeconds = tlsSessionTimeoutSeconds;
+            return this;
+        }
+
+        void applyToPlatform() {
+            System.setProperty("http.keepAlive", "true");
+            System.setProperty("http.maxConnections", String.valueOf(maxIdleConnections));
+            System.setProperty("http.keepAliveDuration", String.valueOf(keepAliveDurationMillis));
+
+            try {
+                final SSLSessionContext sessionContext = SSLContext.getDefault()
+                        .getClientSessionContext();
+                if (sessionContext != null) {
+                    sessionContext.setSessionTimeout(tlsSessionTimeoutSeconds);
+                }
+            } catch (NoSuchAlgorithmException e) {
+                if (FileDownloadLog.NEED_LOG) {
+                    FileDownloadLog.d(this, "can't tune the tls session cache %s", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.connection;
+
+import android.util.SparseArray;
+
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadHelper;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadLog;
+
+/**
+ * 根据实测吞吐量调整下载数
+ * The connection count adapter driven by the measured throughput rather than the file size.
+ * <p/>
+ * The task starts with a small connection count, and then one more connection is added each time
+ * the total throughput is sampled, until the extra connection no longer raises the total
+ * throughput obviously(the link or the server is saturated), then the extra one is dropped and the
+ * count is held.
+ */
+public class ThroughputConnectionCountAdapter
+        implements FileDownloadHelper.AdaptiveConnectionCountAdapter {
+
+    // 1 connection: [0, 1MB)
+    private final static long ONE_CONNECTION_UPPER_LIMIT = 1024 * 1024; // 1MB
+    private final static int INITIAL_CONNECTION_COUNT = 2;
+    private final static int DEFAULT_MAX_CONNECTION_COUNT = 8;
+    // the extra connection must raise the total throughput 10% at least.
+    private final static float MIN_THROUGHPUT_GAIN_RATIO = 0.1f;
+
+    private final int maxConnectionCount;
+    private final Monitor monitor;
+    private final SparseArray<Probe> probeArray = new SparseArray<>();
+
+    public ThroughputConnectionCountAdapter() {
+        this(DEFAULT_MAX_CONNECTION_COUNT, null);
+    }
+
+    public ThroughputConnectionCountAdapter(Monitor monitor) {
+        this(DEFAULT_MAX_CONNECTION_COUNT, monitor);
+    }
+
+    /**
+     * @param maxConnectionCount the max count of connections for each task.
+     * @param monitor            the monitor for the decisions of this adapter, nullable.
+     */
+    public ThroughputConnectionCountAdapter(int maxConnectionCount, Monitor monitor) {
+        if (maxConnectionCount < 1) {
+            throw new IllegalArgumentException("the max connection count must be large than 0: "
+                    + maxConnectionCount);
+        }
+        this.maxConnectionCount = maxConnectionCount;
+        this.monitor = monitor;
+    }
+
+    @Override
+    public int determineConnectionCount(int downloadId, String url, String path, long totalLength) {
+        synchronized (probeArray) {
+            probeArray.remove(downloadId);
+        }
+
+        if (totalLength < ONE_CONNECTION_UPPER_LIMIT) {
+            return 1;
+        }
+
+        return Math.min(INITIAL_CONNECTION_COUNT, maxConnectionCount);
+    }
+
+    @Override
+    public int adjustConnectionCount(int downloadId, int connectionCount,
+                                     long totalBytesPerSecond) {
+        final int targetCount;
+        synchronized (probeArray) {
+            Probe probe = probeArray.get(downloadId);
+            if (probe == null) {
+                probe = new Probe();
+                probeArray.put(downloadId, probe);
+                targetCount = climb(connectionCount);
+            } else if (connectionCount > probe.lastConnectionCount) {
+                // one more connection is added since the last sample.
+                final long expectBytesPerSecond = (long) (probe.lastBytesPerSecond
+                        * (1 + MIN_THROUGHPUT_GAIN_RATIO));
+                if (totalBytesPerSecond >= expectBytesPerSecond) {
+                    targetCount = climb(connectionCount);
+                } else {
+                    // the extra connection doesn't help, drop it and hold.
+                    probe.settled = true;
+                    targetCount = connectionCount - 1;
+                }
+            } else if (connectionCount == probe.lastConnectionCount) {
+                // the connection can't be added if there isn't any range large enough to split.
+                targetCount = probe.settled ? connectionCount : climb(connectionCount);
+            } else {
+                // some connections are completed at the tail of the task, nothing to learn.
+                targetCount = connectionCount;
+            }
+
+            probe.lastConnectionCount = connectionCount;
+            probe.lastBytesPerSecond = totalBytesPerSecond;
+        }
+
+        if (targetCount != connectionCount) {
+            if (FileDownloadLog.NEED_LOG) {
+                FileDownloadLog.d(this, "adjust the connection count of task[%d] from %d to %d" +
+                        " on %d bytes/s", downloadId, connectionCount, targetCount,
+                        totalBytesPerSecond);
+            }
+
+            if (monitor != null) {
+                monitor.onConnectionCountAdjusted(downloadId, connectionCount, targetCount,
+                        totalBytesPerSecond);
+            }
+        }
+
+        return Math.max(targetCount, 1);
+    }
+
+    @Override
+    public void onTaskFinished(int downloadId) {
+        synchronized (probeArray) {
+            probeArray.remove(downloadId);
+        }
+    }
+
+    private int climb(int connectionCount) {
+        return Math.min(connectionCount + 1, maxConnectionCount);
+    }
+
+    private static class Probe {
+        int lastConnectionCount;
+        long lastBytesPerSecond;
+        boolean settled;
+    }
+
+    /**
+     * The monitor for the decisions of {@link ThroughputConnectionCountAdapter}, it is invoked on
+     * the downloader service process.
+     */
+    public interface Monitor {
+        /**
+         * @param downloadId          the download id.
+         * @param fromCount           the count of the connections which are running now.
+         * @param toCount             the count of the connections expected.
+         * @param totalBytesPerSecond the total throughput of the task since the last sample.
+         */
+        void onConnectionCountAdjusted(int downloadId, int fromCount, int toCount,
+                                       long totalBytesPerSecond);
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.download;
+
+import android.os.SystemClock;
+
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadLog;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadProperties;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 带宽管理
+ * The bandwidth manager for all running tasks, each task has a token bucket which all of its
+ * connections consume after they read the data.
+ * <p/>
+ * The rate of each bucket is the share of the global rate weighted by the priority of the task,
+ * each higher priority doubles the weight, and it is never larger than the cap of the task, the
+ * rate the capped tasks leave is shared by the others. If there isn't any global rate, the bucket
+ * only follows the cap of its task.
+ * <p/>
+ * The reading thread is blocked until its bucket pays off the bytes read, so the debt of several
+ * reads is paid with one wait, and it is woken up once the rates are changed or the task is paused.
+ *
+ * @see FileDownloadProperties#DOWNLOAD_MAX_BANDWIDTH
+ */
+public class BandwidthManager {
+
+    private final static int MAX_WEIGHT_SHIFT = 10;
+
+    // guarded by this.
+    private long globalRate;
+    private final Map<Integer, Long> taskCapMap = new HashMap<>();
+    private final Map<Integer, Bucket> bucketMap = new HashMap<>();
+
+    // whether there is any rate limited, for skipping the lock on reading.
+    private volatile boolean isLimited;
+
+    public static class HolderClass {
+        private final static BandwidthManager INSTANCE = new BandwidthManager();
+    }
+
+    public static BandwidthManager getImpl() {
+        return HolderClass.INSTANCE;
+    }
+
+    private BandwidthManager() {
+        globalRate = FileDownloadProperties.getImpl().DOWNLOAD_MAX_BANDWIDTH;
+        isLimited = globalRate > 0;
+    }
+
+    /**
+     * Change the max bandwidth for all tasks.
+     *
+     * @param bytesPerSecond {@code 0} means no limit.
+     */
+    public synchronized void setMaxBandwidth(long bytesPerSecond) {
+        globalRate = Math.max(0, bytesPerSecond);
+        reallocate();
+    }
+
+    /**
+     * Change the max bandwidth for the task, it is kept for the task until it is changed to
+     * {@code 0} again, no matter the task is running or not.
+     *
+     * @param bytesPerSecond {@code 0} means no limit.
+     */
+    public synchronized void setTaskMaxBandwidth(int id, long bytesPerSecond) {
+        if (bytesPerSecond > 0) {
+            taskCapMap.put(id, bytesPerSecond);
+        } else {
+            taskCapMap.remove(id);
+        }
+        reallocate();
+    }
+
+    synchronized void setTaskPriority(int id, int priority) {
+        final Bucket bucket = bucketMap.get(id);
+        if (bucket == null) return;
+
+        bucket.weight = toWeight(priority);
+        reallocate();
+    }
+
+    /**
+     * Register the running task, the task registered before with the same id is replaced.
+     *
+     * @param owner the one who registers, only it can unregister the task.
+     */
+    synchronized void register(int id, int priority, Object owner) {
+        bucketMap.put(id, new Bucket(owner, toWeight(priority), SystemClock.elapsedRealtime()));
+        reallocate();
+    }
+
+    /**
+     * Unregister the task, and wake up its connections waiting for the bandwidth.
+     */
+    synchronized void unregister(int id, Object owner) {
+        final Bucket bucket = bucketMap.get(id);
+        if (bucket == null || bucket.owner != owner) return;
+
+        bucketMap.remove(id);
+        reallocate();
+    }
+
+    /**
+     * Consume the {@code byteCount} bytes which have been read for the task, and block until its
+     * bucket has paid them off.
+     */
+    void consume(int id, int byteCount) throws InterruptedIOException {
+        if (!isLimited) return;
+
+        synchronized (this) {
+            final Bucket bucket = bucketMap.get(id);
+            if (bucket == null) return;
+
+            bucket.refill(SystemClock.elapsedRealtime());
+            bucket.tokens -= byteCount;
+
+            // the bucket is replaced or removed once the task is unregistered.
+            while (bucket.tokens < 0 && bucket.rate > 0 && bucketMap.get(id) == bucket) {
+                final long waitMillis = (long) Math.ceil(-bucket.tokens * 1000 / bucket.rate);
+                try {
+                    wait(Math.max(1, waitMillis));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(
+                            "interrupted on waiting for the bandwidth of the task " + id);
+                }
+                bucket.refill(SystemClock.elapsedRealtime());
+            }
+        }
+    }
+
+    // must hold this.
+    private void reallocate() {
+        final long now = SystemClock.elapsedRealtime();
+        for (Map.Entry<Integer, Bucket> entry : bucketMap.entrySet()) {
+            final Bucket bucket = entry.getValue();
+            // settle the tokens with the old rate.
+            bucket.refill(now);
+            final Long cap = taskCapMap.get(entry.getKey());
+            bucket.rate = cap == null ? 0 : cap;
+        }
+
+        if (globalRate > 0 && !bucketMap.isEmpty()) shareGlobalRate();
+
+        boolean limited = globalRate > 0;
+        for (Bucket bucket : bucketMap.values()) {
+            if (bucket.rate > 0) limited = true;
+            bucket.tokens = Math.min(bucket.tokens, bucket.getCapacity());
+        }
+        isLimited = limited;
+
+        if (FileDownloadLog.NEED_LOG) {
+            FileDownloadLog.d(this, "reallocate the bandwidth %d for %d tasks", globalRate,
+                    bucketMap.size());
+        }
+
+        // the waiting connections recalculate with the new rate.
+        notifyAll();
+    }
+
+    /**
+     * Water-filling: the tasks whose cap is less than their weighted share take their cap, and the
+     * rest is shared by the others again until every one is settled.
+     */
+    // must hold this.
+    private void shareGlobalRate() {
+        final List<Bucket> unsettledList = new ArrayList<>(bucketMap.values());
+        double remainingRate = globalRate;
+
+        boolean isAnySettled = true;
+        while (isAnySettled && !unsettledList.isEmpty()) {
+            isAnySettled = false;
+            final double totalWeight = getTotalWeight(unsettledList);
+            final Iterator<Bucket> iterator = unsettledList.iterator();
+            while (iterator.hasNext()) {
+                final Bucket bucket = iterator.next();
+                // the rate of the unsettled bucket is its cap here.
+                if (bucket.rate > 0
+                        && bucket.rate <= remainingRate * bucket.weight / totalWeight) {
+                    remainingRate -= bucket.rate;
+                    iterator.remove();
+                    isAnySettled = true;
+                }
+            }
+        }
+
+        final double totalWeight = getTotalWeight(unsettledList);
+        for (Bucket bucket : unsettledList) {
+            bucket.rate = Math.max(1, (long) (remainingRate * bucket.weight / totalWeight));
+        }
+    }
+
+    private static double getTotalWeight(List<Bucket> bucketList) {
+        double totalWeight = 0;
+        for (Bucket bucket : bucketList) {
+            totalWeight += bucket.weight;
+        }
+        return totalWeight;
+    }
+
+    private static double toWeight(int priority) {
+        final int shift = Math.max(-MAX_WEIGHT_SHIFT, Math.min(MAX_WEIGHT_SHIFT, priority));
+        return Math.pow(2, shift);
+    }
+
+    private static class Bucket {
+        final Object owner;
+        double weight;
+        // bytes per second, 0 means no limit.
+        long rate;
+        double tokens;
+        long lastRefillTimestamp;
+
+        Bucket(Object owner, double weight, long now) {
+            this.owner = owner;
+            this.weight = weight;
+            this.lastRefillTimestamp = now;
+        }
+
+        // the burst up to one second is allowed.
+        double getCapacity() {
+            return rate;
+        }
+
+        void refill(long now) {
+            if (rate > 0) {
+                tokens = Math.min(getCapacity(),
+                        tokens + (now - lastRefillTimestamp) * rate / 1000.0);
+            } else {
+                // never owe anything when there isn't any limit.
+                tokens = 0;
+            }
+            lastRefillTimestamp = now;
+        }
+    }
+}
@@ -44,6 +44,9 @@ public class ConnectTask {
     private ConnectionProfile profile;
     private String etag;
 
+    // the token of the next request has been reserved from the HostRequestRateLimiter.
+    private volatile boolean isRequestReserved;
+
     private Map<String, List<String>> requestHeader;
     private List<String> redirectedUrlList;
 
@@ -57,7 +60,22 @@ public class ConnectTask {
         this.profile = profile;
     }
 
+    /**
+     * The token of the next request has been reserved through
+     * {@link HostRequestRateLimiter#execute(String, Runnable, java.util.concurrent.Executor)}.
+     */
+    void markRequestReserved() {
+        isRequestReserved = true;
+    }
+
     FileDownloadConnection connect() throws IOException, IllegalAccessException {
+        // be polite to the host, the token of the first request may be reserved on dispatching.
+        if (isRequestReserved) {
+            isRequestReserved = false;
+        } else {
+            HostRequestRateLimiter.getImpl().acquireWithoutWait(url);
+        }
+
         FileDownloadConnection connection = CustomComponentHolder.getImpl().createConnection(url);
 
         addUserRequiredHeader(connection);
@@ -150,6 +168,27 @@ public class ConnectTask {
         return profile;
     }
 
+    /**
+     * Shrink the range of this connect task to {@code endOffset}, which is used when the tail of the
+     * range has been split out to the other connection, so the retry would only require the rest.
+     */
+    void updateEndOffset(long endOffset) {
+        profile = new ConnectionProfile(profile.startOffset, profile.currentOffset, endOffset,
+                endOffset - profile.currentOffset + 1);
+    }
+
+    /**
+     * Invoked when the connection is closed by the {@link StallWatchdog}, ensure the reconnection
+     * only require the range from the {@code currentOffset} which has been fetched.
+     */
+    void updateCurrentOffset(long currentOffset) {
+        final long contentLength = profile.contentLength > 0
+                ? profile.contentLength - (currentOffset - profile.currentOffset)
+                : profile.contentLength;
+        profile = new ConnectionProfile(profile.startOffset, currentOffset, profile.endOffset,
+                contentLength);
+    }
+
     public void retryOnConnectedWithNewParam(ConnectionProfile profile, String etag) throws Reconnect {
         if (profile == null) throw new IllegalArgumentException();
         this.profile = profile;
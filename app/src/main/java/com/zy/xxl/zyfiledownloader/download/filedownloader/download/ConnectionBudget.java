@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.download;
+
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadExecutors;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadLog;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadProperties;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * 全局连接预算
+ * The budget of the concurrent connections for the multi-connection tasks of all tasks.
+ * <p/>
+ * Each connection must be acquired from this budget before it is launched, and released when it is
+ * done. The task which can't acquire any more is put into the waiting list, and the connection
+ * released is handed over to it directly through {@link Client#onBudgetAcquired()}, so the task can
+ * start with fewer connections than it requires and gain more as the budget frees up.
+ * <p/>
+ * The budget is shared fairly: when there are tasks waiting, the task which has held its fair share
+ * ({@code max count / active tasks}) can't acquire any more.
+ *
+ * @see FileDownloadProperties#DOWNLOAD_MAX_CONNECTION_COUNT
+ * @see FileDownloadProperties#DOWNLOAD_MAX_CONNECTION_COUNT_PER_HOST
+ */
+public class ConnectionBudget {
+
+    interface Client {
+        /**
+         * @return the host of the task, used for the per-host limit.
+         */
+        String getHost();
+
+        /**
+         * Invoked when one connection has been acquired for the waiting client, the client must
+         * launch a connection with it or release it. It is invoked without holding the lock of the
+         * budget.
+         */
+        void onBudgetAcquired();
+    }
+
+    private final static ThreadPoolExecutor CALLBACK_EXECUTOR = FileDownloadExecutors
+            .newDefaultThreadPool(1, "connection-budget");
+
+    private int maxConnectionCount;
+    private int maxConnectionCountPerHost;
+
+    // guarded by this.
+    private int heldCount;
+    private final Map<Client, Integer> clientHeldMap = new HashMap<>();
+    private final Map<String, Integer> hostHeldMap = new HashMap<>();
+    private final Map<Client, Boolean> waitingMap = new LinkedHashMap<>();
+
+    public static class HolderClass {
+        private final static ConnectionBudget INSTANCE = new ConnectionBudget();
+    }
+
+    public static ConnectionBudget getImpl() {
+        return HolderClass.INSTANCE;
+    }
+
+    private ConnectionBudget() {
+        maxConnectionCount = FileDownloadProperties.getImpl().DOWNLOAD_MAX_CONNECTION_COUNT;
+        maxConnectionCountPerHost = FileDownloadProperties.getImpl()
+                .DOWNLOAD_MAX_CONNECTION_COUNT_PER_HOST;
+    }
+
+    /**
+     * Change the max count of the concurrent connections, the connections which have been launched
+     * are never interrupted, the waiting tasks are notified if the budget grows.
+     *
+     * @param count the max count for all tasks.
+     * @param countPerHost the max count for each host, {@code 0} means no limit for the host.
+     */
+    public void setMaxConnectionCount(int count, int countPerHost) {
+        synchronized (this) {
+            maxConnectionCount = FileDownloadProperties.getValidConnectionCount(count);
+            maxConnectionCountPerHost = Math.max(0, countPerHost);
+        }
+        notifyWaiting();
+    }
+
+    public synchronized int getMaxConnectionCount() {
+        return maxConnectionCount;
+    }
+
+    /**
+     * @return {@code true} if one connection is acquired for the {@code client}.
+     */
+    synchronized boolean tryAcquire(Client client) {
+        if (!isAvailable(client)) return false;
+
+        acquire(client);
+        return true;
+    }
+
+    // must hold this.
+    private void acquire(Client client) {
+        heldCount++;
+        clientHeldMap.put(client, getHeldCount(client) + 1);
+        hostHeldMap.put(client.getHost(), getHostHeldCount(client.getHost()) + 1);
+    }
+
+    void release(Client client) {
+        synchronized (this) {
+            final int clientHeldCount = getHeldCount(client);
+            if (clientHeldCount <= 0) {
+                FileDownloadLog.w(this, "release the connection but it isn't held %s", client);
+                return;
+            }
+
+            heldCount--;
+            if (clientHeldCount == 1) {
+                clientHeldMap.remove(client);
+            } else {
+                clientHeldMap.put(client, clientHeldCount - 1);
+            }
+
+            final String host = client.getHost();
+            final int hostHeldCount = getHostHeldCount(host);
+            if (hostHeldCount <= 1) {
+                hostHeldMap.remove(host);
+            } else {
+                hostHeldMap.put(host, hostHeldCount - 1);
+            }
+        }
+
+        notifyWaiting();
+    }
+
+    /**
+     * Put the {@code client} into the waiting list, it will be notified through
+     * {@link Client#onBudgetAcquired()} only once.
+     */
+    void waitFor(Client client) {
+        synchronized (this) {
+            waitingMap.put(client, Boolean.TRUE);
+        }
+        // the connection may be released after the client failed to acquire.
+        notifyWaiting();
+    }
+
+    /**
+     * @return {@code true} if the {@code client} is removed from the waiting list, and it will
+     * never be notified.
+     */
+    synchronized boolean removeWaiting(Client client) {
+        return waitingMap.remove(client) != null;
+    }
+
+    private void notifyWaiting() {
+        final List<Client> notifyList = new ArrayList<>();
+        synchronized (this) {
+            final Iterator<Client> iterator = waitingMap.keySet().iterator();
+            while (heldCount < maxConnectionCount && iterator.hasNext()) {
+                final Client client = iterator.next();
+                // such as limited by its host, the other ones may still be available.
+                if (!isAvailable(client)) continue;
+
+                iterator.remove();
+                acquire(client);
+                notifyList.add(client);
+            }
+        }
+
+        for (final Client client : notifyList) {
+            // never invoke the client on the thread holding its lock.
+            CALLBACK_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    client.onBudgetAcquired();
+                }
+            });
+        }
+    }
+
+    // must hold this.
+    private boolean isAvailable(Client client) {
+        if (heldCount >= maxConnectionCount) return false;
+
+        if (maxConnectionCountPerHost > 0
+                && getHostHeldCount(client.getHost()) >= maxConnectionCountPerHost) {
+            return false;
+        }
+
+        final int clientHeldCount = getHeldCount(client);
+        if (clientHeldCount == 0) return true;
+
+        // fair share: don't take more than the fair share when the others are waiting.
+        int activeClientCount = clientHeldMap.size();
+        boolean isAnyOtherWaiting = false;
+        for (Client waitingClient : waitingMap.keySet()) {
+            if (waitingClient == client) continue;
+
+            isAnyOtherWaiting = true;
+            if (!clientHeldMap.containsKey(waitingClient)) activeClientCount++;
+        }
+        if (!isAnyOtherWaiting) return true;
+
+        final int fairShare = Math.max(1, maxConnectionCount / activeClientCount);
+        return clientHeldCount < fairShare;
+    }
+
+    private int getHeldCount(Client client) {
+        final Integer count = clientHeldMap.get(client);
+        return count == null ? 0 : count;
+    }
+
+    private int getHostHeldCount(String host) {
+        final Integer count = hostHeldMap.get(host);
+        return count == null ? 0 : count;
+    }
+}
@@ -23,13 +23,20 @@ import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadSta
 import com.zy.xxl.zyfiledownloader.download.filedownloader.services.DownloadMgrInitialParams;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.services.FileDownloadDatabase;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.stream.FileDownloadOutputStream;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadExecutors;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadHelper;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadLog;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * 已完成
@@ -101,7 +108,13 @@ public class CustomComponentHolder {
         synchronized (this) {
             if (database == null) {
                 database = getDownloadMgrInitialParams().createDatabase();
-                maintainDatabase(database.maintainer());
+                final FileDownloadDatabase.Maintainer maintainer = database.maintainer();
+                if (maintainer instanceof FileDownloadDatabase.LazyMaintainer) {
+                    // the database loads the models on finding before the maintaining is finished.
+                    maintainDatabaseInBackground((FileDownloadDatabase.LazyMaintainer) maintainer);
+                } else {
+                    maintainDatabase(maintainer);
+                }
             }
         }
 
@@ -132,6 +145,19 @@ public class CustomComponentHolder {
         return getConnectionCountAdapter().determineConnectionCount(downloadId, url, path, totalLength);
     }
 
+    /**
+     * @return the adapter which can adjust the connection count while downloading, {@code null} if
+     * the connection count adapter isn't adaptive.
+     */
+    public FileDownloadHelper.AdaptiveConnectionCountAdapter getAdaptiveConnectionCountAdapter() {
+        final FileDownloadHelper.ConnectionCountAdapter adapter = getConnectionCountAdapter();
+        if (adapter instanceof FileDownloadHelper.AdaptiveConnectionCountAdapter) {
+            return (FileDownloadHelper.AdaptiveConnectionCountAdapter) adapter;
+        }
+
+        return null;
+    }
+
     private FileDownloadHelper.ConnectionCountAdapter getConnectionCountAdapter() {
         if (connectionCountAdapter != null) return connectionCountAdapter;
 
@@ -188,91 +214,17 @@ public class CustomComponentHolder {
         long refreshDataCount = 0;
         long removedDataCount = 0;
         long resetIdCount = 0;
-        final FileDownloadHelper.IdGenerator idGenerator = getImpl().getIdGeneratorInstance();
 
         final long startTimestamp = System.currentTimeMillis();
         try {
             while (iterator.hasNext()) {
-                boolean isInvalid = false;
                 final FileDownloadModel model = iterator.next();
-                do {
-                    if (model.getStatus() == FileDownloadStatus.progress ||
-                            model.getStatus() == FileDownloadStatus.connected ||
-                            model.getStatus() == FileDownloadStatus.error ||
-                            (model.getStatus() == FileDownloadStatus.pending && model.getSoFar() > 0)
-                            ) {
-                        // Ensure can be covered by RESUME FROM BREAKPOINT.
-                        model.setStatus(FileDownloadStatus.paused);
-                    }
-                    final String targetFilePath = model.getTargetFilePath();
-                    if (targetFilePath == null) {
-                        // no target file path, can't used to resume from breakpoint.
-                        isInvalid = true;
-                        break;
-                    }
-
-                    final File targetFile = new File(targetFilePath);
-                    // consider check in new thread, but SQLite lock | file lock aways effect, so sync
-                    if (model.getStatus() == FileDownloadStatus.paused &&
-                            FileDownloadUtils.isBreakpointAvailable(model.getId(), model,
-                                    model.getPath(), null)) {
-                        // can be reused in the old mechanism(no-temp-file).
-
-                        final File tempFile = new File(model.getTempFilePath());
-
-                        if (!tempFile.exists() && targetFile.exists()) {
-                            final boolean successRename = targetFile.renameTo(tempFile);
-                            if (FileDownloadLog.NEED_LOG) {
-                                FileDownloadLog.d(FileDownloadDatabase.class,
-                                        "resume from the old no-temp-file architecture [%B], [%s]->[%s]",
-                                        successRename, targetFile.getPath(), tempFile.getPath());
-
-                            }
-                        }
-                    }
-
-                    /**
-                     * Remove {@code model} from DB if it can't used for judging whether the
-                     * old-downloaded file is valid for reused & it can't used for resuming from
-                     * BREAKPOINT, In other words, {@code model} is no use anymore for FileDownloader.
-                     */
-                    if (model.getStatus() == FileDownloadStatus.pending && model.getSoFar() <= 0) {
-                        // This model is redundant.
-                        isInvalid = true;
-                        break;
-                    }
-
-                    if (!FileDownloadUtils.isBreakpointAvailable(model.getId(), model)) {
-                        // It can't used to resuming from breakpoint.
-                        isInvalid = true;
-                        break;
-                    }
-
-                    if (targetFile.exists()) {
-                        // It has already completed downloading.
-                        isInvalid = true;
-                        break;
-                    }
-
-                } while (false);
-
-
-                if (isInvalid) {
+                if (!maintainModel(model)) {
                     iterator.remove();
                     maintainer.onRemovedInvalidData(model);
                     removedDataCount++;
                 } else {
-                    final int oldId = model.getId();
-                    final int newId = idGenerator.transOldId(oldId, model.getUrl(), model.getPath(), model.isPathAsDirectory());
-                    if (newId != oldId) {
-                        if (FileDownloadLog.NEED_LOG) {
-                            FileDownloadLog.d(FileDownloadDatabase.class, "the id is changed on restoring from db: old[%d] -> new[%d]", oldId, newId);
-                        }
-                        model.setId(newId);
-                        maintainer.changeFileDownloadModelId(oldId, model);
-                        resetIdCount++;
-                    }
-
+                    if (refreshModelId(maintainer, model)) resetIdCount++;
                     maintainer.onRefreshedValidData(model);
                     refreshDataCount++;
                 }
@@ -289,4 +241,164 @@ public class CustomComponentHolder {
             }
         }
     }
+
+    private final static int MAINTAIN_BATCH_SIZE = 512;
+    private final static int MAINTAIN_CHECK_THREAD_COUNT = 4;
+
+    /**
+     * Maintain the database on the background, the models are read in batch, and the files of each
+     * batch are checked in parallel, then the results are applied in order on the maintaining
+     * thread.
+     */
+    private static void maintainDatabaseInBackground(
+            final FileDownloadDatabase.LazyMaintainer maintainer) {
+        final ThreadPoolExecutor maintainExecutor = FileDownloadExecutors
+                .newDefaultThreadPool(1, "database-maintain");
+        maintainExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final ThreadPoolExecutor checkExecutor = FileDownloadExecutors
+                        .newDefaultThreadPool(MAINTAIN_CHECK_THREAD_COUNT, "database-maintain-check");
+                final Iterator<FileDownloadModel> iterator = maintainer.iterator();
+                long refreshDataCount = 0;
+                long removedDataCount = 0;
+                long resetIdCount = 0;
+
+                final long startTimestamp = System.currentTimeMillis();
+                try {
+                    final List<FileDownloadModel> batch = new ArrayList<>(MAINTAIN_BATCH_SIZE);
+                    final List<Callable<Boolean>> checkList = new ArrayList<>(MAINTAIN_BATCH_SIZE);
+                    while (iterator.hasNext()) {
+                        batch.clear();
+                        checkList.clear();
+                        while (batch.size() < MAINTAIN_BATCH_SIZE && iterator.hasNext()) {
+                            final FileDownloadModel model = iterator.next();
+                            batch.add(model);
+                            checkList.add(new Callable<Boolean>() {
+                                @Override
+                                public Boolean call() {
+                                    return maintainModel(model);
+                                }
+                            });
+                        }
+
+                        final List<Future<Boolean>> resultList = checkExecutor.invokeAll(checkList);
+                        for (int i = 0; i < batch.size(); i++) {
+                            final FileDownloadModel model = batch.get(i);
+                            if (!resultList.get(i).get()) {
+                                maintainer.onRemovedInvalidData(model);
+                                removedDataCount++;
+                            } else {
+                                if (refreshModelId(maintainer, model)) resetIdCount++;
+                                maintainer.onRefreshedValidData(model);
+                                refreshDataCount++;
+                            }
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (ExecutionException e) {
+                    FileDownloadLog.e(FileDownloadDatabase.class, e.getCause(),
+                            "maintain the database failed");
+                } finally {
+                    checkExecutor.shutdown();
+                    FileDownloadUtils.markConverted(FileDownloadHelper.getAppContext());
+                    maintainer.onFinishMaintain();
+                    if (FileDownloadLog.NEED_LOG) {
+                        FileDownloadLog.d(FileDownloadDatabase.class,
+                                "refreshed data count: %d , delete data count: %d, reset id count: %d. consume %d on background",
+                                refreshDataCount, removedDataCount, resetIdCount,
+                                System.currentTimeMillis() - startTimestamp);
+                    }
+                }
+            }
+        });
+        maintainExecutor.shutdown();
+    }
+
+    /**
+     * Maintain the model read from the database: the status is corrected for resuming from the
+     * breakpoint, and the file is checked whether the model is still valid.
+     *
+     * @return {@code false} if the model is no use anymore and should be removed.
+     */
+    public static boolean maintainModel(FileDownloadModel model) {
+        if (model.getStatus() == FileDownloadStatus.progress ||
+                model.getStatus() == FileDownloadStatus.connected ||
+                model.getStatus() == FileDownloadStatus.error ||
+                (model.getStatus() == FileDownloadStatus.pending && model.getSoFar() > 0)
+                ) {
+            // Ensure can be covered by RESUME FROM BREAKPOINT.
+            model.setStatus(FileDownloadStatus.paused);
+        }
+        final String targetFilePath = model.getTargetFilePath();
+        if (targetFilePath == null) {
+            // no target file path, can't used to resume from breakpoint.
+            return false;
+        }
+
+        final File targetFile = new File(targetFilePath);
+        // consider check in new thread, but SQLite lock | file lock aways effect, so sync
+        if (model.getStatus() == FileDownloadStatus.paused &&
+                FileDownloadUtils.isBreakpointAvailable(model.getId(), model,
+                        model.getPath(), null)) {
+            // can be reused in the old mechanism(no-temp-file).
+
+            final File tempFile = new File(model.getTempFilePath());
+
+            if (!tempFile.exists() && targetFile.exists()) {
+                final boolean successRename = targetFile.renameTo(tempFile);
+                if (FileDownloadLog.NEED_LOG) {
+                    FileDownloadLog.d(FileDownloadDatabase.class,
+                            "resume from the old no-temp-file architecture [%B], [%s]->[%s]",
+                            successRename, targetFile.getPath(), tempFile.getPath());
+
+                }
+            }
+        }
+
+        /**
+         * Remove {@code model} from DB if it can't used for judging whether the
+         * old-downloaded file is valid for reused & it can't used for resuming from
+         * BREAKPOINT, In other words, {@code model} is no use anymore for FileDownloader.
+         */
+        if (model.getStatus() == FileDownloadStatus.pending && model.getSoFar() <= 0) {
+            // This model is redundant.
+            return false;
+        }
+
+        if (!FileDownloadUtils.isBreakpointAvailable(model.getId(), model)) {
+            // It can't used to resuming from breakpoint.
+            return false;
+        }
+
+        // It has already completed downloading if the target file exists.
+        return !targetFile.exists();
+    }
+
+    /**
+     * @return the id of the {@code model} from the current id generator, it is different from the
+     * id on the database if the model is stored with the id from the old id generator.
+     */
+    public static int getRefreshedId(FileDownloadModel model) {
+        return getImpl().getIdGeneratorInstance().transOldId(model.getId(), model.getUrl(),
+                model.getPath(), model.isPathAsDirectory());
+    }
+
+    /**
+     * @return {@code true} if the id of the {@code model} is changed by the id generator.
+     */
+    private static boolean refreshModelId(FileDownloadDatabase.Maintainer maintainer,
+                                          FileDownloadModel model) {
+        final int oldId = model.getId();
+        final int newId = getRefreshedId(model);
+        if (newId == oldId) return false;
+
+        if (FileDownloadLog.NEED_LOG) {
+            FileDownloadLog.d(FileDownloadDatabase.class, "the id is changed on restoring from db: old[%d] -> new[%d]", oldId, newId);
+        }
+        model.setId(newId);
+        maintainer.changeFileDownloadModelId(oldId, model);
+        return true;
+    }
 }
@@ -18,6 +18,7 @@ package com.zy.xxl.zyfiledownloader.download.filedownloader.download;
 
 import android.Manifest;
 import android.os.Process;
+import android.os.SystemClock;
 
 import com.zy.xxl.zyfiledownloader.download.filedownloader.IThreadPoolMonitor;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.connection.FileDownloadConnection;
@@ -26,6 +27,7 @@ import com.zy.xxl.zyfiledownloader.download.filedownloader.exception.FileDownloa
 import com.zy.xxl.zyfiledownloader.download.filedownloader.exception.FileDownloadNetworkPolicyException;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.exception.FileDownloadOutOfSpaceException;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.model.ConnectionModel;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.model.DownloadedRangeSet;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadHeader;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadModel;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadStatus;
@@ -40,14 +42,16 @@ import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadUtil
 import java.io.File;
 import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Callable;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * 已完成
@@ -65,11 +69,13 @@ import java.util.concurrent.atomic.AtomicBoolean;
  *              create multiple {@link com.zy.xxl.zyfiledownloader.download.filedownloader.DownloadTask} to download.
  *         else:
  *              reuse the first connection and use {@link FetchDataTask} to fetch data from the connection.
+ * step 4. on multiple connections, the launch thread returns once the sub-tasks are dispatched, and
+ *         the task is finished on the thread of the last sub-task.
  * <p/>
  * We use {@link DownloadStatusCallback} to handle all events sync to DB/filesystem and callback to user.
  */
 // TODO: 2017/10/24  一知半解 感觉还是应用的时候带着问题来看会学到更多 先这样吧
-public class DownloadLaunchRunnable implements Runnable, ProcessCallback {
+public class DownloadLaunchRunnable implements Runnable, ProcessCallback, ConnectionBudget.Client {
 
     private final DownloadStatusCallback statusCallback;
     private final int DEFAULT_CONNECTION_COUNT = 5;
@@ -98,15 +104,64 @@ public class DownloadLaunchRunnable implements Runnable, ProcessCallback {
     private static final int HTTP_REQUESTED_RANGE_NOT_SATISFIABLE = 416;
     private static final int TOTAL_VALUE_IN_CHUNKED_RESOURCE = -1;
 
+    /**
+     * The remaining range of the connection must be larger than this value to be split out to the
+     * connection which has been completed, otherwise the cost of establishing the new connection is
+     * more than the benefit.
+     */
+    private static final long MIN_SPLIT_REGION_BYTES = 1024 * 1024; // 1MB
+    /**
+     * The interval to sample the throughput for the adaptive connection count adapter.
+     */
+    private static final long ADJUST_CONNECTION_COUNT_INTERVAL_MILLIS = 2000;
+    /**
+     * The tail hedging starts when the bytes remaining on all connections are less than this
+     * value, or the projected finish time of one range is {@link #HEDGE_LAG_FACTOR} times the
+     * median of the others.
+     */
+    private static final long HEDGE_REMAINING_BYTES = 4 * MIN_SPLIT_REGION_BYTES;
+    private static final int HEDGE_LAG_FACTOR = 3;
+    /**
+     * The tail hedged must be at least this value, and it is the half of the remaining range.
+     */
+    private static final long MIN_HEDGE_REGION_BYTES = 64 * 1024;
+    private static final long HEDGE_CHECK_INTERVAL_MILLIS = 1000;
+
 
     private final boolean supportSeek;
 
     private final ArrayList<DownloadRunnable> downloadRunnableList = new ArrayList<>(DEFAULT_CONNECTION_COUNT);
+    // the launch thread and each running sub-task hold the task active.
+    private final AtomicInteger activeHolderCount = new AtomicInteger(1);
+    // the ranges taken back from the connections when the connection count is reduced, they are
+    // guarded by the lock of the download runnable list.
+    private final List<ConnectionModel> pendingRangeList = new ArrayList<>();
+    private volatile int targetConnectionCount;
+    private volatile FileDownloadHelper.AdaptiveConnectionCountAdapter adaptiveAdapter;
+    private final Object throughputLock = new Object();
+    private volatile long lastAdjustSoFar;
+    private volatile long lastAdjustTimestamp;
+    private final boolean isTailHedging;
+    private volatile long lastHedgeCheckTimestamp;
+    // guarded by the lock of the download runnable list.
+    private boolean isWaitingBudget;
+    private String host;
+    private volatile OnFinishedListener onFinishedListener;
+
+    public interface OnFinishedListener {
+        /**
+         * Invoked when the task is finished, no matter it is completed, paused or failed.
+         */
+        void onFinished(DownloadLaunchRunnable runnable);
+    }
     private FetchDataTask singleFetchDataTask;
     private boolean isSingleConnection;
 
     private final static ThreadPoolExecutor DOWNLOAD_EXECUTOR = FileDownloadExecutors
             .newDefaultThreadPool(Integer.MAX_VALUE, "download-executor");
+    // the executor to run the sub-tasks, it never bounds the threads, because each sub-task has
+    // acquired its connection from the ConnectionBudget, which is the only limit of them.
+    private final Executor subTaskExecutor;
 
     private boolean isResumeAvailableOnDB;
     private boolean acceptPartial;
@@ -117,13 +172,33 @@ public class DownloadLaunchRunnable implements Runnable, ProcessCallback {
     private volatile boolean error;
     private volatile Exception errorException;
 
+    // the priority in the network thread pool, the larger the value, the higher the priority.
+    private volatile int priority;
+    private volatile boolean started;
+    // the token of the first request has been reserved from the HostRequestRateLimiter.
+    private volatile boolean isFirstRequestReserved;
+    private volatile boolean preempted;
+    // the task is finished for the preemption, and its status isn't persisted as paused.
+    private boolean finishedForPreemption;
+    private final Object preemptLock = new Object();
+    // kept for creating the runnable to resume the task after it is preempted.
+    private final int minIntervalMillis;
+    private final int callbackProgressMaxCount;
+    private final int maxRetryTimes;
+
     private String redirectedUrl;
 
     private DownloadLaunchRunnable(FileDownloadModel model, FileDownloadHeader header,
-                                   IThreadPoolMonitor threadPoolMonitor,
+                                   IThreadPoolMonitor threadPoolMonitor, Executor subTaskExecutor,
                                    final int minIntervalMillis, int callbackProgressMaxCount,
-                                   boolean isForceReDownload, boolean isWifiRequired, int maxRetryTimes) {
+                                   boolean isForceReDownload, boolean isWifiRequired, int maxRetryTimes,
+                                   int priority) {
         this.alive = new AtomicBoolean(true);
+        this.subTaskExecutor = subTaskExecutor != null ? subTaskExecutor : DOWNLOAD_EXECUTOR;
+        this.priority = priority;
+        this.minIntervalMillis = minIntervalMillis;
+        this.callbackProgressMaxCount = callbackProgressMaxCount;
+        this.maxRetryTimes = maxRetryTimes;
         this.paused = false;
         this.isTriedFixRangeNotSatisfiable = false;
 
@@ -133,6 +208,7 @@ public class DownloadLaunchRunnable implements Runnable, ProcessCallback {
         this.isWifiRequired = isWifiRequired;
         this.database = CustomComponentHolder.getImpl().getDatabaseInstance();
         this.supportSeek = CustomComponentHolder.getImpl().isSupportSeek();
+        this.isTailHedging = FileDownloadProperties.getImpl().DOWNLOAD_TAIL_HEDGING;
         this.threadPoolMonitor = threadPoolMonitor;
         this.validRetryTimes = maxRetryTimes;
 
@@ -154,10 +230,15 @@ public class DownloadLaunchRunnable implements Runnable, ProcessCallback {
         this.isWifiRequired = isWifiRequired;
         this.database = CustomComponentHolder.getImpl().getDatabaseInstance();
         this.supportSeek = CustomComponentHolder.getImpl().isSupportSeek();
+        this.isTailHedging = FileDownloadProperties.getImpl().DOWNLOAD_TAIL_HEDGING;
         this.threadPoolMonitor = threadPoolMonitor;
         this.validRetryTimes = maxRetryTimes;
 
         this.statusCallback = callback;
+        this.subTaskExecutor = DOWNLOAD_EXECUTOR;
+        this.minIntervalMillis = minIntervalMillis;
+        this.callbackProgressMaxCount = callbackProgressMaxCount;
+        this.maxRetryTimes = maxRetryTimes;
     }
 
     static DownloadLaunchRunnable createForTest(DownloadStatusCallback callback,
@@ -171,11 +252,31 @@ public class DownloadLaunchRunnable implements Runnable, ProcessCallback {
     }
 
     public void pause() {
+        synchronized (preemptLock) {
+            // paused by the user, so it must not be resumed for the preemption.
+            this.preempted = false;
+            if (finishedForPreemption) {
+                // it is finished before it is resumed, persist the paused status it skipped.
+                finishedForPreemption = false;
+                statusCallback.onPausedDirectly();
+                return;
+            }
+        }
+        pauseInternal();
+    }
+
+    private void pauseInternal() {
         this.paused = true;
+        cancelWaitingBudget();
+        // wake up the connections waiting for the bandwidth.
+        BandwidthManager.getImpl().unregister(model.getId(), this);
 
         if (singleFetchDataTask != null) singleFetchDataTask.pause();
-        @SuppressWarnings("unchecked") ArrayList<DownloadRunnable> pauseList =
-                (ArrayList<DownloadRunnable>) downloadRunnableList.clone();
+        final ArrayList<DownloadRunnable> pauseList;
+        synchronized (downloadRunnableList) {
+            //noinspection unchecked
+            pauseList = (ArrayList<DownloadRunnable>) downloadRunnableList.clone();
+        }
         for (DownloadRunnable runnable : pauseList) {
             if (runnable != null) {
                 runnable.pause();
@@ -184,16 +285,77 @@ public class DownloadLaunchRunnable implements Runnable, ProcessCallback {
         }
     }
 
+    /**
+     * Pause this task for the task with the higher priority, the task should be resumed through
+     * {@link #copyForResume()} after it is finished.
+     */
+    public void preempt() {
+        this.preempted = true;
+        pauseInternal();
+    }
+
+    /**
+     * @return {@code true} if this task is paused by {@link #preempt()} rather than the user.
+     */
+    public boolean isPreempted() {
+        return preempted;
+    }
+
+    /**
+     * @return {@code true} if this task is finished because of {@link #preempt()} and isn't paused
+     * by the user after that, so it should be resumed through {@link #copyForResume()}.
+     */
+    public boolean isFinishedForPreemption() {
+        synchronized (preemptLock) {
+            return finishedForPreemption;
+        }
+    }
+
+    /**
+     * @return {@code true} if this task has been executed on the network thread.
+     */
+    public boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Create the runnable to resume this task from the breakpoint on the database, it never forces
+     * to re-download, otherwise the downloaded data would be discarded.
+     */
+    public DownloadLaunchRunnable copyForResume() {
+        synchronized (preemptLock) {
+            // the task is taken over by the copy.
+            finishedForPreemption = false;
+        }
+        return new DownloadLaunchRunnable(model, userRequestHeader, threadPoolMonitor,
+                subTaskExecutor, minIntervalMillis, callbackProgressMaxCount,
+                false, isWifiRequired, maxRetryTimes, priority);
+    }
+
+    /**
+     * Execute this runnable on the {@code executor} once its first request is allowed by the
+     * {@link HostRequestRateLimiter}, so it never waits for the request on the network thread.
+     */
+    public void executeWhenRequestAllowed(Executor executor) {
+        isFirstRequestReserved = true;
+        HostRequestRateLimiter.getImpl().execute(model.getUrl(), this, executor);
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public void setPriority(int priority) {
+        this.priority = priority;
+        if (started) BandwidthManager.getImpl().setTaskPriority(model.getId(), priority);
+    }
+
     public void pending() {
         if (model.getConnectionCount() > 1) {
+            // the downloaded ranges on the connection table are valid even though the rows don't
+            // match the connection count, they are planned again when resuming.
             final List<ConnectionModel> connectionOnDBList = database.findConnectionModel(model.getId());
-            if (model.getConnectionCount() == connectionOnDBList.size()) {
-                model.setSoFar(ConnectionModel.getTotalOffset(connectionOnDBList));
-            } else {
-                // dirty
-                model.setSoFar(0);
-                database.removeConnections(model.getId());
-            }
+            model.setSoFar(ConnectionModel.getTotalOffset(connectionOnDBList));
         }
 
         statusCallback.onPending();
@@ -201,6 +363,8 @@ public class DownloadLaunchRunnable implements Runnable, ProcessCallback {
 
     @Override
     public void run() {
+        started = true;
+        if (!paused) BandwidthManager.getImpl().register(model.getId(), priority, this);
         try {
             Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
 
@@ -266,6 +430,10 @@ public class DownloadLaunchRunnable implements Runnable, ProcessCallback {
                             .setConnectionProfile(connectionProfile)
                             .build();
 
+                    if (isFirstRequestReserved) {
+                        isFirstRequestReserved = false;
+                        firstConnectionTask.markRequestReserved();
+                    }
                     connection = firstConnectionTask.connect();
                     handleFirstConnected(firstConnectionTask.getRequestHeader(),
                             firstConnectionTask, connection);
@@ -282,14 +450,10 @@ public class DownloadLaunchRunnable implements Runnable, ProcessCallback {
                     handlePreAllocate(totalLength, model.getTempFilePath());
 
                     final int connectionCount;
-                    // start fetching
+                    // start fetching, the downloaded ranges can be resumed with any connection count.
                     if (isMultiConnectionAvailable()) {
-                        if (isResumeAvailableOnDB) {
-                            connectionCount = model.getConnectionCount();
-                        } else {
-                            connectionCount = CustomComponentHolder.getImpl()
-                                    .determineConnectionCount(model.getId(), model.getUrl(), model.getPath(), totalLength);
-                        }
+                        connectionCount = CustomComponentHolder.getImpl()
+                                .determineConnectionCount(model.getId(), model.getUrl(), model.getPath(), totalLength);
                     } else {
                         connectionCount = 1;
                     }
@@ -305,21 +469,28 @@ public class DownloadLaunchRunnable implements Runnable, ProcessCallback {
                         return;
                     }
 
-                    isSingleConnection = connectionCount == 1;
+                    // the ranges downloaded with multiple connections aren't continuous, so they
+                    // can only be resumed through the connection table.
+                    final boolean isResumeFromRanges = isResumeAvailableOnDB && acceptPartial
+                            && model.getConnectionCount() > 1 && isMultiConnectionAvailable();
+                    isSingleConnection = connectionCount == 1 && !isResumeFromRanges;
                     if (isSingleConnection) {
                         // single connection
                         fetchWithSingleConnection(firstConnectionTask.getProfile(), connection);
                     } else {
-                        if (connection != null) {
-                            connection.ending();
-                            connection = null;
-                        }
+                        // the first connection is handed over to the first range, or ended.
+                        final FileDownloadConnection firstConnection = connection;
+                        connection = null;
                         // multiple connection
                         statusCallback.onMultiConnection();
                         if (isResumeAvailableOnDB) {
+                            // the offset of the first connection is the total offset of the
+                            // rows rather than the offset of any range, so it can't be reused.
+                            if (firstConnection != null) firstConnection.ending();
                             fetchWithMultipleConnectionFromResume(connectionCount, connectionOnDBList);
                         } else {
-                            fetchWithMultipleConnectionFromBeginning(totalLength, connectionCount);
+                            fetchWithMultipleConnectionFromBeginning(totalLength, connectionCount,
+                                    firstConnection);
                         }
                     }
 
@@ -342,21 +513,64 @@ public class DownloadLaunchRunnable implements Runnable, ProcessCallback {
                 break;
             } while (true);
         } finally {
-            statusCallback.discardAllMessage();
+            // the network thread is released here, if there are sub-tasks still running, the
+            // task is finished on the last one of them.
+            releaseActiveHolder();
+        }
+    }
 
-            if (paused) {
-                statusCallback.onPausedDirectly();
-            } else if (error) {
-                statusCallback.onErrorDirectly(errorException);
-            } else {
-                try {
-                    statusCallback.onCompletedDirectly();
-                } catch (IOException e) {
-                    statusCallback.onErrorDirectly(e);
-                }
+    private void releaseActiveHolder() {
+        if (activeHolderCount.decrementAndGet() == 0) finish();
+    }
+
+    /**
+     * Handle the final status of the task, it is invoked only once: on the launch thread when
+     * there isn't any sub-task, otherwise on the thread of the last sub-task.
+     */
+    private void finish() {
+        try {
+            BandwidthManager.getImpl().unregister(model.getId(), this);
+            final FileDownloadHelper.AdaptiveConnectionCountAdapter adapter = adaptiveAdapter;
+            if (adapter != null) adapter.onTaskFinished(model.getId());
+            finishStatus();
+        } finally {
+            final OnFinishedListener listener = onFinishedListener;
+            if (listener != null) listener.onFinished(this);
+        }
+    }
+
+    private void finishStatus() {
+        statusCallback.discardAllMessage();
+
+        if (paused) {
+            if (!finishForPreemption()) statusCallback.onPausedDirectly();
+        } else if (error) {
+            statusCallback.onErrorDirectly(errorException);
+        } else {
+            try {
+                statusCallback.onCompletedDirectly();
+            } catch (IOException e) {
+                statusCallback.onErrorDirectly(e);
             }
+        }
+
+        alive.set(false);
+    }
+
+    /**
+     * The task paused by {@link #preempt()} is going on through the runnable created by
+     * {@link #copyForResume()}, so only the breakpoint is persisted, and the client never receives
+     * any over status and keeps the task downloading.
+     *
+     * @return {@code true} if this task is finished for the preemption.
+     */
+    private boolean finishForPreemption() {
+        synchronized (preemptLock) {
+            if (!preempted) return false;
 
-            alive.set(false);
+            statusCallback.onPreemptedDirectly();
+            finishedForPreemption = true;
+            return true;
         }
     }
 
@@ -365,11 +579,6 @@ public class DownloadLaunchRunnable implements Runnable, ProcessCallback {
      * @return
      */
     private boolean isMultiConnectionAvailable() {
-        //noinspection SimplifiableIfStatement
-        if (isResumeAvailableOnDB && model.getConnectionCount() <= 1) {
-            return false;
-        }
-
         return acceptPartial && supportSeek && !isChunked;
     }
 
@@ -400,12 +609,8 @@ public class DownloadLaunchRunnable implements Runnable, ProcessCallback {
                 } else {
                     if (isMultiConnection) {
                         // when it is multi connections, the offset would be 0, because it only store on the connection table.
-                        if (connectionCount != connectionOnDBList.size()) {
-                            // dirty data
-                            offset = 0;
-                        } else {
-                            offset = ConnectionModel.getTotalOffset(connectionOnDBList);
-                        }
+                        // the rows may not match the connection count, but the ranges downloaded on them are still valid.
+                        offset = ConnectionModel.getTotalOffset(connectionOnDBList);
                     } else {
                         offset = model.getSoFar();
                     }
@@ -595,19 +800,48 @@ public class DownloadLaunchRunnable implements Runnable, ProcessCallback {
      * @throws InterruptedException
      */
     private void fetchWithMultipleConnectionFromResume(final int connectionCount, final List<ConnectionModel> connectionModelList) throws InterruptedException {
-        if (connectionCount <= 1 || connectionModelList.size() != connectionCount)
-            throw new IllegalArgumentException();
+        if (connectionCount <= 0) throw new IllegalArgumentException();
 
-        fetchWithMultipleConnection(connectionModelList, model.getTotal());
+        final int id = model.getId();
+        final long totalLength = model.getTotal();
+        // rebuild the downloaded ranges from the connection table, or from the single connection,
+        // and then plan the remaining ranges for the current connection count.
+        final DownloadedRangeSet rangeSet = model.getConnectionCount() > 1
+                ? DownloadedRangeSet.fromConnections(connectionModelList)
+                : DownloadedRangeSet.fromPrefix(model.getSoFar());
+        final List<ConnectionModel> plannedModelList = rangeSet.plan(id, totalLength,
+                connectionCount, MIN_SPLIT_REGION_BYTES);
+
+        database.runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                database.removeConnections(id);
+                for (ConnectionModel connectionModel : plannedModelList) {
+                    database.insertConnectionModel(connectionModel);
+                }
+                database.updateConnectionCount(id, plannedModelList.size());
+            }
+        });
+        model.setConnectionCount(plannedModelList.size());
+
+        if (FileDownloadLog.NEED_LOG) {
+            FileDownloadLog.d(this, "resume task[%d] from %d rows to %d rows with %d connections",
+                    id, connectionModelList.size(), plannedModelList.size(), connectionCount);
+        }
+
+        fetchWithMultipleConnection(plannedModelList, totalLength, connectionCount, null);
     }
 
     /**
      * 从开始进行多线程下载
      * @param totalLength
      * @param connectionCount
+     * @param firstConnection the first connection which requires from the beginning, it is reused
+     *                        for the first range.
      * @throws InterruptedException
      */
-    private void fetchWithMultipleConnectionFromBeginning(final long totalLength, final int connectionCount) throws InterruptedException {
+    private void fetchWithMultipleConnectionFromBeginning(final long totalLength, final int connectionCount,
+                                                          final FileDownloadConnection firstConnection) throws InterruptedException {
         long startOffset = 0;
         final long eachRegion = totalLength / connectionCount;
         final int id = model.getId();
@@ -640,7 +874,8 @@ public class DownloadLaunchRunnable implements Runnable, ProcessCallback {
         model.setConnectionCount(connectionCount);
         database.updateConnectionCount(id, connectionCount);
 
-        fetchWithMultipleConnection(connectionModelList, totalLength);
+        fetchWithMultipleConnection(connectionModelList, totalLength, connectionCount,
+                firstConnection);
     }
 
 
@@ -648,13 +883,17 @@ public class DownloadLaunchRunnable implements Runnable, ProcessCallback {
      * 多任务下载
      * @param connectionModelList
      * @param totalLength
+     * @param connectionCount the count of the connections launched at first, the other ranges are
+     *                        downloaded when any connection is completed.
+     * @param firstConnection the connection responded from the beginning to the end of the file,
+     *                        it is reused for the range from the beginning, or ended if there
+     *                        isn't such range launched at first.
      * @throws InterruptedException
      */
-    private void fetchWithMultipleConnection(final List<ConnectionModel> connectionModelList, final long totalLength) throws InterruptedException {
+    private void fetchWithMultipleConnection(final List<ConnectionModel> connectionModelList, final long totalLength,
+                                             final int connectionCount,
+                                             FileDownloadConnection firstConnection) throws InterruptedException {
         final int id = model.getId();
-        final String etag = model.getETag();
-        final String url = redirectedUrl != null ? redirectedUrl : model.getUrl();
-        final String path = model.getTempFilePath();
 
         if (FileDownloadLog.NEED_LOG) {
             FileDownloadLog.d(this, "fetch data with multiple connection(count: [%d]) for task[%d] totalLength[%d]",
@@ -663,9 +902,6 @@ public class DownloadLaunchRunnable implements Runnable, ProcessCallback {
 
         long totalOffset = 0;
 
-        // why not with etag when not resume from the database? because do this can avoid
-        // precondition failed on separate downloading.
-        final boolean withEtag = isResumeAvailableOnDB;
         for (ConnectionModel connectionModel : connectionModelList) {
             final long contentLength;
             if (connectionModel.getEndOffset() == 0) {
@@ -687,62 +923,577 @@ public class DownloadLaunchRunnable implements Runnable, ProcessCallback {
                 continue;
             }
 
-            final DownloadRunnable.Builder builder = new DownloadRunnable.Builder();
+            synchronized (downloadRunnableList) {
+                if (downloadRunnableList.size() >= connectionCount
+                        || !ConnectionBudget.getImpl().tryAcquire(this)) {
+                    // launched when any connection is completed or the budget is available.
+                    pendingRangeList.add(connectionModel);
+                    continue;
+                }
+            }
 
             final ConnectionProfile connectionProfile = new ConnectionProfile(
                     connectionModel.getStartOffset(), connectionModel.getCurrentOffset(),
                     connectionModel.getEndOffset(), contentLength);
 
-            final DownloadRunnable runnable = builder
-                    .setId(id)
-                    .setConnectionIndex(connectionModel.getIndex())
-                    .setCallback(this)
-                    .setUrl(url)
-                    .setEtag(withEtag ? etag : null)
-                    .setHeader(userRequestHeader)
-                    .setWifiRequired(isWifiRequired)
-                    .setConnectionModel(connectionProfile)
-                    .setPath(path)
-                    .build();
+            final FileDownloadConnection rangeConnection;
+            if (firstConnection != null && connectionModel.getCurrentOffset() == 0) {
+                // the first connection has been responded from the beginning, so the range from
+                // the beginning is fetched on it without connecting again.
+                rangeConnection = firstConnection;
+                firstConnection = null;
+            } else {
+                rangeConnection = null;
+            }
+
+            final DownloadRunnable runnable = buildDownloadRunnable(connectionModel.getIndex(),
+                    connectionProfile, null, rangeConnection);
 
             if (FileDownloadLog.NEED_LOG) {
-                FileDownloadLog.d(this, "enable multiple connection: %s", connectionModel);
+                FileDownloadLog.d(this, "enable multiple connection: %s reuse the first[%B]",
+                        connectionModel, rangeConnection != null);
             }
 
-            if (runnable == null)
-                throw new IllegalArgumentException("the download runnable must not be null!");
-
-            downloadRunnableList.add(runnable);
+            synchronized (downloadRunnableList) {
+                downloadRunnableList.add(runnable);
+            }
         }
 
+        // the range from the beginning isn't launched at first.
+        if (firstConnection != null) firstConnection.ending();
+
         if (totalOffset != model.getSoFar()) {
             FileDownloadLog.w(this, "correct the sofar[%d] from connection table[%d]",
                     model.getSoFar(), totalOffset);
             model.setSoFar(totalOffset);
         }
 
-        List<Callable<Object>> subTasks = new ArrayList<>(downloadRunnableList.size());
+        final List<DownloadRunnable> subTasks = new ArrayList<>(downloadRunnableList.size());
         for (DownloadRunnable runnable : downloadRunnableList) {
             if (paused) {
                 runnable.pause();
+                runnable.releaseFirstConnection();
+                ConnectionBudget.getImpl().release(this);
                 continue;
             }
-            subTasks.add(Executors.callable(runnable));
+            subTasks.add(runnable);
         }
         if (paused) {
             model.setStatus(FileDownloadStatus.paused);
             return;
         }
 
-        List<Future<Object>> subTaskFutures = DOWNLOAD_EXECUTOR.invokeAll(subTasks);
+        adaptiveAdapter = CustomComponentHolder.getImpl().getAdaptiveConnectionCountAdapter();
+        lastAdjustSoFar = model.getSoFar();
+        lastAdjustTimestamp = SystemClock.elapsedRealtime();
+
+        targetConnectionCount = connectionCount;
+        for (DownloadRunnable runnable : subTasks) {
+            submitSubTask(runnable);
+        }
+
+        // the connections not acquired from the budget are launched as it frees up.
+        synchronized (downloadRunnableList) {
+            fillConnections();
+        }
+
+        // never wait for the sub-tasks here, so the network thread is released, and the task is
+        // finished when the last sub-task is done.
         if (FileDownloadLog.NEED_LOG) {
-            for (Future<Object> future : subTaskFutures) {
-                FileDownloadLog.d(this, "finish sub-task for [%d] %B %B",
-                        id, future.isDone(), future.isCancelled());
+            FileDownloadLog.d(this, "dispatch %d sub-tasks for [%d]", subTasks.size(), id);
+        }
+    }
+
+    /**
+     * Each sub-task holds the task active until it is done, the sub-task for the split range is
+     * submitted when any sub-task is completed, what is before the completed one is released, so
+     * the count never reaches zero until all ranges are done.
+     */
+    private void submitSubTask(final DownloadRunnable runnable) {
+        activeHolderCount.incrementAndGet();
+        try {
+            runnable.execute(new SubTask(runnable), subTaskExecutor);
+        } catch (RuntimeException e) {
+            ConnectionBudget.getImpl().release(this);
+            releaseActiveHolder();
+            throw e;
+        }
+    }
+
+    /**
+     * The sub-task runs one connection of this task, it is executed at once with the connection
+     * acquired from the budget.
+     */
+    private class SubTask implements Runnable {
+        private final DownloadRunnable runnable;
+
+        SubTask(DownloadRunnable runnable) {
+            this.runnable = runnable;
+        }
+
+        @Override
+        public void run() {
+            try {
+                runnable.run();
+            } catch (RuntimeException e) {
+                FileDownloadLog.e(DownloadLaunchRunnable.this, e,
+                        "the sub-task for [%d] is failed", model.getId());
+                onError(e);
+            } finally {
+                onSubTaskFinished(runnable);
             }
         }
     }
 
+    /**
+     * The connection of the sub-task is released to the budget first, and then the other ranges
+     * are launched with the budget available, before the sub-task releases the task.
+     */
+    private void onSubTaskFinished(DownloadRunnable runnable) {
+        ConnectionBudget.getImpl().release(this);
+
+        final boolean isWaitingUseless;
+        synchronized (downloadRunnableList) {
+            downloadRunnableList.remove(runnable);
+            pendTakenBackRange(runnable);
+            if (!paused && !error) fillConnections();
+            isWaitingUseless = isWaitingBudget && (paused || error || !hasRangeToLaunch());
+        }
+        // nothing would be launched with the budget, so the waiting mustn't hold the task active.
+        if (isWaitingUseless) cancelWaitingBudget();
+
+        releaseActiveHolder();
+    }
+
+    /**
+     * Pend the range left by the runnable which is taken back as a whole, its offset is on the
+     * connection table already, must hold the lock of the download runnable list.
+     */
+    private void pendTakenBackRange(DownloadRunnable runnable) {
+        final ConnectionProfile profile = runnable.getTakenBackProfile(model.getTotal());
+        if (profile == null) return;
+
+        final ConnectionModel takenBackModel = new ConnectionModel();
+        takenBackModel.setId(model.getId());
+        takenBackModel.setIndex(runnable.connectionIndex);
+        takenBackModel.setStartOffset(profile.startOffset);
+        takenBackModel.setCurrentOffset(profile.currentOffset);
+        takenBackModel.setEndOffset(profile.endOffset);
+        pendingRangeList.add(takenBackModel);
+    }
+
+    public void setOnFinishedListener(OnFinishedListener listener) {
+        this.onFinishedListener = listener;
+    }
+
+    @Override
+    public String getHost() {
+        if (host == null) {
+            String parsedHost;
+            try {
+                parsedHost = new URL(model.getUrl()).getHost();
+            } catch (MalformedURLException e) {
+                parsedHost = "";
+            }
+            host = parsedHost;
+        }
+        return host;
+    }
+
+    @Override
+    public void onBudgetAcquired() {
+        boolean isBudgetUnused = true;
+        synchronized (downloadRunnableList) {
+            isWaitingBudget = false;
+            if (!paused && !error && downloadRunnableList.size() < targetConnectionCount
+                    && launchNextRange()) {
+                isBudgetUnused = false;
+                fillConnections();
+            }
+        }
+
+        if (isBudgetUnused) ConnectionBudget.getImpl().release(this);
+        // release the hold for waiting.
+        releaseActiveHolder();
+    }
+
+    /**
+     * Wait for the budget, the task is held active until it is acquired or the waiting is canceled,
+     * must hold the lock of the download runnable list.
+     */
+    private void waitForBudget() {
+        if (isWaitingBudget || paused || error) return;
+
+        isWaitingBudget = true;
+        activeHolderCount.incrementAndGet();
+        ConnectionBudget.getImpl().waitFor(this);
+    }
+
+    private void cancelWaitingBudget() {
+        if (!ConnectionBudget.getImpl().removeWaiting(this)) return;
+
+        synchronized (downloadRunnableList) {
+            isWaitingBudget = false;
+        }
+        releaseActiveHolder();
+    }
+
+    /**
+     * Sample the throughput on the progress callback of the sub-tasks, and adjust the connection
+     * count through the adaptive adapter every {@link #ADJUST_CONNECTION_COUNT_INTERVAL_MILLIS}.
+     */
+    private void sampleThroughput() {
+        final FileDownloadHelper.AdaptiveConnectionCountAdapter adapter = adaptiveAdapter;
+        if (adapter == null) return;
+
+        final long now = SystemClock.elapsedRealtime();
+        if (now - lastAdjustTimestamp < ADJUST_CONNECTION_COUNT_INTERVAL_MILLIS) return;
+
+        final long bytesPerSecond;
+        synchronized (throughputLock) {
+            if (now - lastAdjustTimestamp < ADJUST_CONNECTION_COUNT_INTERVAL_MILLIS) return;
+
+            final long soFar = model.getSoFar();
+            bytesPerSecond = (soFar - lastAdjustSoFar) * 1000 / (now - lastAdjustTimestamp);
+            lastAdjustSoFar = soFar;
+            lastAdjustTimestamp = now;
+        }
+
+        if (!paused && !error) adjustConnectionCount(adapter, bytesPerSecond);
+    }
+
+    private DownloadRunnable buildDownloadRunnable(int connectionIndex,
+                                                   ConnectionProfile connectionProfile) {
+        return buildDownloadRunnable(connectionIndex, connectionProfile, null);
+    }
+
+    private DownloadRunnable buildDownloadRunnable(int connectionIndex,
+                                                   ConnectionProfile connectionProfile,
+                                                   TailRace hedgeRace) {
+        return buildDownloadRunnable(connectionIndex, connectionProfile, hedgeRace, null);
+    }
+
+    private DownloadRunnable buildDownloadRunnable(int connectionIndex,
+                                                   ConnectionProfile connectionProfile,
+                                                   TailRace hedgeRace,
+                                                   FileDownloadConnection firstConnection) {
+        final String url = redirectedUrl != null ? redirectedUrl : model.getUrl();
+        // why not with etag when not resume from the database? because do this can avoid
+        // precondition failed on separate downloading.
+        final String etag = isResumeAvailableOnDB ? model.getETag() : null;
+
+        final DownloadRunnable runnable = new DownloadRunnable.Builder()
+                .setId(model.getId())
+                .setConnectionIndex(connectionIndex)
+                .setCallback(this)
+                .setUrl(url)
+                .setEtag(etag)
+                .setHeader(userRequestHeader)
+                .setWifiRequired(isWifiRequired)
+                .setConnectionModel(connectionProfile)
+                .setPath(model.getTempFilePath())
+                .setHedgeRace(hedgeRace)
+                .setFirstConnection(firstConnection)
+                .build();
+
+        if (runnable == null)
+            throw new IllegalArgumentException("the download runnable must not be null!");
+
+        return runnable;
+    }
+
+    /**
+     * Work stealing: split the tail half of the largest remaining range out to a new connection,
+     * so all connections finish at almost the same time rather than waiting on the slowest one.
+     * <p>
+     * The split is persisted on the connection table, so it is still valid when resuming from the
+     * breakpoint.
+     */
+    private boolean splitLargestRemainingRange() {
+        final long totalLength = model.getTotal();
+
+        DownloadRunnable largestRunnable = null;
+        long largestRemainingBytes = 0;
+        for (DownloadRunnable runnable : downloadRunnableList) {
+            final long remainingBytes = runnable.getRemainingBytes(totalLength);
+            if (remainingBytes > largestRemainingBytes) {
+                largestRemainingBytes = remainingBytes;
+                largestRunnable = runnable;
+            }
+        }
+
+        if (largestRunnable == null) return false;
+
+        final ConnectionProfile tailProfile = largestRunnable.splitTail(totalLength,
+                MIN_SPLIT_REGION_BYTES);
+        if (tailProfile == null) return false;
+
+        final ConnectionModel tailModel = persistSplitRange(largestRunnable, tailProfile);
+        if (FileDownloadLog.NEED_LOG) {
+            FileDownloadLog.d(this, "split the range of connection[%d] to the new one: %s",
+                    largestRunnable.connectionIndex, tailModel);
+        }
+
+        launchRange(tailModel.getIndex(), tailProfile);
+        return true;
+    }
+
+    /**
+     * Make the count of running connections match the {@link #targetConnectionCount}, must hold
+     * the lock of the download runnable list.
+     */
+    private void fillConnections() {
+        while (downloadRunnableList.size() < targetConnectionCount && hasRangeToLaunch()) {
+            if (!ConnectionBudget.getImpl().tryAcquire(this)) {
+                waitForBudget();
+                break;
+            }
+
+            if (!launchNextRange()) {
+                ConnectionBudget.getImpl().release(this);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Launch the pending range first, otherwise split the largest remaining range, the connection
+     * must have been acquired from the budget, must hold the lock of the download runnable list.
+     */
+    private boolean launchNextRange() {
+        if (!pendingRangeList.isEmpty()) {
+            final ConnectionModel pendingModel = pendingRangeList.remove(0);
+            final long contentLength = pendingModel.getEndOffset() == 0
+                    ? model.getTotal() - pendingModel.getCurrentOffset()
+                    : pendingModel.getEndOffset() - pendingModel.getCurrentOffset() + 1;
+            launchRange(pendingModel.getIndex(), new ConnectionProfile(
+                    pendingModel.getStartOffset(), pendingModel.getCurrentOffset(),
+                    pendingModel.getEndOffset(), contentLength));
+            return true;
+        }
+
+        return splitLargestRemainingRange();
+    }
+
+    private boolean hasRangeToLaunch() {
+        if (!pendingRangeList.isEmpty()) return true;
+
+        final long totalLength = model.getTotal();
+        for (DownloadRunnable runnable : downloadRunnableList) {
+            if (runnable.getRemainingBytes(totalLength) >= MIN_SPLIT_REGION_BYTES * 2) return true;
+        }
+        return false;
+    }
+
+    private void adjustConnectionCount(FileDownloadHelper.AdaptiveConnectionCountAdapter adapter,
+                                       long totalBytesPerSecond) {
+        synchronized (downloadRunnableList) {
+            final int runningCount = downloadRunnableList.size();
+            if (runningCount <= 0) return;
+
+            final int count = adapter.adjustConnectionCount(model.getId(), runningCount,
+                    totalBytesPerSecond);
+            if (count <= 0) {
+                FileDownloadLog.w(this, "invalid connection count %d for task[%d], the " +
+                        "connection count must be larger than 0", count, model.getId());
+                return;
+            }
+
+            targetConnectionCount = count;
+            if (count > runningCount) {
+                fillConnections();
+                return;
+            }
+
+            while (downloadRunnableList.size() > count) {
+                if (!takeBackSmallestRemainingRange()) break;
+            }
+        }
+    }
+
+    /**
+     * Take back the remaining range from the connection which is closest to finish, the range will
+     * be downloaded when any other connection is completed, must hold the lock of the download
+     * runnable list.
+     */
+    private boolean takeBackSmallestRemainingRange() {
+        final long totalLength = model.getTotal();
+
+        DownloadRunnable smallestRunnable = null;
+        long smallestRemainingBytes = Long.MAX_VALUE;
+        for (DownloadRunnable runnable : downloadRunnableList) {
+            final long remainingBytes = runnable.getRemainingBytes(totalLength);
+            if (remainingBytes > 0 && remainingBytes < smallestRemainingBytes) {
+                smallestRemainingBytes = remainingBytes;
+                smallestRunnable = runnable;
+            }
+        }
+
+        if (smallestRunnable == null) return false;
+
+        final ConnectionProfile remainingProfile = smallestRunnable.detachRemaining(totalLength);
+        if (remainingProfile == null) {
+            // nothing has been fetched, so the whole range is taken back by pausing the runnable,
+            // and it is pended when the runnable is finished.
+            if (!smallestRunnable.takeBackUnfetched()) return false;
+
+            if (FileDownloadLog.NEED_LOG) {
+                FileDownloadLog.d(this, "take back the whole range of connection[%d]",
+                        smallestRunnable.connectionIndex);
+            }
+            downloadRunnableList.remove(smallestRunnable);
+            return true;
+        }
+
+        final ConnectionModel remainingModel = persistSplitRange(smallestRunnable,
+                remainingProfile);
+        if (FileDownloadLog.NEED_LOG) {
+            FileDownloadLog.d(this, "take back the remaining range of connection[%d]: %s",
+                    smallestRunnable.connectionIndex, remainingModel);
+        }
+
+        // it completes after the current read, and it isn't counted as running any more.
+        downloadRunnableList.remove(smallestRunnable);
+        pendingRangeList.add(remainingModel);
+        return true;
+    }
+
+    /**
+     * Check whether to hedge the tail of the slowest range when there isn't any range to be split
+     * or launched, the hedging doesn't wait for the budget.
+     */
+    private void checkTailHedging() {
+        final long now = SystemClock.elapsedRealtime();
+        if (now - lastHedgeCheckTimestamp < HEDGE_CHECK_INTERVAL_MILLIS) return;
+        lastHedgeCheckTimestamp = now;
+
+        synchronized (downloadRunnableList) {
+            if (paused || error || isWaitingBudget) return;
+            if (downloadRunnableList.size() >= targetConnectionCount || hasRangeToLaunch()) return;
+
+            if (!ConnectionBudget.getImpl().tryAcquire(this)) return;
+            if (!hedgeSlowestTail()) ConnectionBudget.getImpl().release(this);
+        }
+    }
+
+    /**
+     * Request the tail of the range projected to finish last on a new connection, when the
+     * download reaches its tail or the range is far behind the others.
+     *
+     * @return {@code true} if the hedged connection is launched.
+     * @see TailRace
+     */
+    private boolean hedgeSlowestTail() {
+        final long totalLength = model.getTotal();
+
+        long totalRemainingBytes = 0;
+        DownloadRunnable slowestRunnable = null;
+        long slowestMillis = -1;
+        final List<Long> projectedMillisList = new ArrayList<>();
+        for (DownloadRunnable runnable : downloadRunnableList) {
+            totalRemainingBytes += runnable.getRemainingBytes(totalLength);
+
+            final long projectedMillis = runnable.getHedgeableRemainingMillis(totalLength);
+            if (projectedMillis < 0) continue;
+
+            projectedMillisList.add(projectedMillis);
+            if (projectedMillis > slowestMillis
+                    && runnable.getRemainingBytes(totalLength) >= MIN_HEDGE_REGION_BYTES * 2) {
+                slowestMillis = projectedMillis;
+                slowestRunnable = runnable;
+            }
+        }
+
+        if (slowestRunnable == null) return false;
+
+        final boolean isTail = totalRemainingBytes < HEDGE_REMAINING_BYTES;
+        boolean isLagging = false;
+        if (!isTail && projectedMillisList.size() > 1) {
+            projectedMillisList.remove(Long.valueOf(slowestMillis));
+            Collections.sort(projectedMillisList);
+            final long medianMillis = projectedMillisList.get(projectedMillisList.size() / 2);
+            isLagging = slowestMillis / HEDGE_LAG_FACTOR > medianMillis;
+        }
+        if (!isTail && !isLagging) return false;
+
+        final TailRace race = slowestRunnable.hedgeTail(totalLength, MIN_HEDGE_REGION_BYTES * 2);
+        if (race == null) return false;
+
+        final ConnectionModel hedgeModel = persistHedgeRange(race.tailProfile);
+        if (FileDownloadLog.NEED_LOG) {
+            FileDownloadLog.d(this, "hedge the tail of connection[%d] on the new one: %s," +
+                            " projected %dms, remaining %d bytes",
+                    slowestRunnable.connectionIndex, hedgeModel, slowestMillis,
+                    totalRemainingBytes);
+        }
+
+        launchRange(hedgeModel.getIndex(), race.tailProfile, race);
+        return true;
+    }
+
+    /**
+     * The row of the original range is kept, the tail is downloaded on only one of them, and the
+     * downloaded ranges are merged when resuming.
+     */
+    private ConnectionModel persistHedgeRange(ConnectionProfile hedgeProfile) {
+        final int id = model.getId();
+        final int hedgeConnectionIndex = model.getConnectionCount();
+        final ConnectionModel hedgeModel = new ConnectionModel();
+        hedgeModel.setId(id);
+        hedgeModel.setIndex(hedgeConnectionIndex);
+        hedgeModel.setStartOffset(hedgeProfile.startOffset);
+        hedgeModel.setCurrentOffset(hedgeProfile.currentOffset);
+        hedgeModel.setEndOffset(hedgeProfile.endOffset);
+
+        database.runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                database.insertConnectionModel(hedgeModel);
+                database.updateConnectionCount(id, hedgeConnectionIndex + 1);
+            }
+        });
+        model.setConnectionCount(hedgeConnectionIndex + 1);
+        return hedgeModel;
+    }
+
+    private ConnectionModel persistSplitRange(DownloadRunnable fromRunnable,
+                                              ConnectionProfile splitProfile) {
+        final int id = model.getId();
+        // the connection index on the connection table is always [0, connectionCount).
+        final int splitConnectionIndex = model.getConnectionCount();
+        final ConnectionModel splitModel = new ConnectionModel();
+        splitModel.setId(id);
+        splitModel.setIndex(splitConnectionIndex);
+        splitModel.setStartOffset(splitProfile.startOffset);
+        splitModel.setCurrentOffset(splitProfile.currentOffset);
+        splitModel.setEndOffset(splitProfile.endOffset);
+
+        database.splitConnectionModel(id, fromRunnable.connectionIndex, splitModel,
+                splitConnectionIndex + 1);
+        model.setConnectionCount(splitConnectionIndex + 1);
+        return splitModel;
+    }
+
+    private void launchRange(int connectionIndex, ConnectionProfile profile) {
+        launchRange(connectionIndex, profile, null);
+    }
+
+    /**
+     * @param hedgeRace the race for the tail if the range is requested as the hedged connection.
+     */
+    private void launchRange(int connectionIndex, ConnectionProfile profile, TailRace hedgeRace) {
+        final DownloadRunnable runnable = buildDownloadRunnable(connectionIndex, profile,
+                hedgeRace);
+        if (hedgeRace != null) hedgeRace.setHedge(runnable);
+        downloadRunnableList.add(runnable);
+        if (paused || error) {
+            runnable.pause();
+            ConnectionBudget.getImpl().release(this);
+            return;
+        }
+        submitSubTask(runnable);
+    }
+
     /**
      * 预申请空间
      * @param contentLength
@@ -789,6 +1540,10 @@ public class DownloadLaunchRunnable implements Runnable, ProcessCallback {
         if (paused) return;
 
         statusCallback.onProgress(increaseBytes);
+        if (!isSingleConnection) {
+            sampleThroughput();
+            if (isTailHedging) checkTailHedging();
+        }
     }
 
     @Override
@@ -813,6 +1568,7 @@ public class DownloadLaunchRunnable implements Runnable, ProcessCallback {
                         "for task(%d)", startOffset, endOffset, model.getTotal(), model.getId());
             }
         } else {
+            // the other ranges are launched when its connection is released to the budget.
             synchronized (downloadRunnableList) {
                 downloadRunnableList.remove(doneRunnable);
             }
@@ -842,6 +1598,7 @@ public class DownloadLaunchRunnable implements Runnable, ProcessCallback {
     public void onError(Exception exception) {
         error = true;
         errorException = exception;
+        cancelWaitingBudget();
 
         if (paused) {
             if (FileDownloadLog.NEED_LOG) {
@@ -852,8 +1609,11 @@ public class DownloadLaunchRunnable implements Runnable, ProcessCallback {
         }
 
         // discard all
-        @SuppressWarnings("unchecked") ArrayList<DownloadRunnable> discardList =
-                (ArrayList<DownloadRunnable>) downloadRunnableList.clone();
+        final ArrayList<DownloadRunnable> discardList;
+        synchronized (downloadRunnableList) {
+            //noinspection unchecked
+            discardList = (ArrayList<DownloadRunnable>) downloadRunnableList.clone();
+        }
         for (DownloadRunnable runnable : discardList) {
             if (runnable != null) {
                 runnable.discard();
@@ -1002,6 +1762,10 @@ public class DownloadLaunchRunnable implements Runnable, ProcessCallback {
         return alive.get() || this.statusCallback.isAlive();
     }
 
+    public long getSoFar() {
+        return model.getSoFar();
+    }
+
     public String getTempFilePath() {
         return model.getTempFilePath();
     }
@@ -1016,11 +1780,13 @@ public class DownloadLaunchRunnable implements Runnable, ProcessCallback {
         private FileDownloadModel model;
         private FileDownloadHeader header;
         private IThreadPoolMonitor threadPoolMonitor;
+        private Executor subTaskExecutor;
         private Integer minIntervalMillis;
         private Integer callbackProgressMaxCount;
         private Boolean isForceReDownload;
         private Boolean isWifiRequired;
         private Integer maxRetryTimes;
+        private int priority;
 
         public Builder setModel(FileDownloadModel model) {
             this.model = model;
@@ -1037,6 +1803,16 @@ public class DownloadLaunchRunnable implements Runnable, ProcessCallback {
             return this;
         }
 
+        /**
+         * Optional, the sub-tasks are executed on the unbounded download-executor if it isn't
+         * provided. The executor must never queue the sub-tasks, since each of them holds its
+         * connection acquired from the {@link ConnectionBudget}.
+         */
+        public Builder setSubTaskExecutor(Executor subTaskExecutor) {
+            this.subTaskExecutor = subTaskExecutor;
+            return this;
+        }
+
         public Builder setMinIntervalMillis(Integer minIntervalMillis) {
             this.minIntervalMillis = minIntervalMillis;
             return this;
@@ -1062,15 +1838,23 @@ public class DownloadLaunchRunnable implements Runnable, ProcessCallback {
             return this;
         }
 
+        /**
+         * Optional, default {@code 0}.
+         */
+        public Builder setPriority(int priority) {
+            this.priority = priority;
+            return this;
+        }
+
         public DownloadLaunchRunnable build() {
             if (model == null || threadPoolMonitor == null ||
                     minIntervalMillis == null || callbackProgressMaxCount == null ||
                     isForceReDownload == null || isWifiRequired == null || maxRetryTimes == null)
                 throw new IllegalArgumentException();
 
-            return new DownloadLaunchRunnable(model, header, threadPoolMonitor,
+            return new DownloadLaunchRunnable(model, header, threadPoolMonitor, subTaskExecutor,
                     minIntervalMillis, callbackProgressMaxCount,
-                    isForceReDownload, isWifiRequired, maxRetryTimes);
+                    isForceReDownload, isWifiRequired, maxRetryTimes, priority);
         }
     }
 }
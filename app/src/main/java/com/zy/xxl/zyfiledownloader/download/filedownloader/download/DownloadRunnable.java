@@ -27,6 +27,7 @@ import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadUtil
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.SocketException;
+import java.util.concurrent.Executor;
 
 /**
  * 已完成
@@ -39,14 +40,28 @@ public class DownloadRunnable implements Runnable {
     private final String path;
     private final boolean isWifiRequired;
 
-    private FetchDataTask fetchDataTask;
+    private volatile FetchDataTask fetchDataTask;
 
     private volatile boolean paused;
+    // the whole range is taken back by pausing this runnable.
+    private volatile boolean takenBack;
     private final int downloadId;
     final int connectionIndex;
+    // the race for the tail when this runnable is the hedged connection.
+    private final TailRace hedgeRace;
+    // the connection which has been connected for the range, used by the first fetching.
+    private FileDownloadConnection firstConnection;
+
+    /**
+     * The connection stalled without any progress is reconnected without consuming the retry
+     * times for at most this times in a row, then it is retried as the other failures.
+     */
+    private final static int MAX_STALL_RECONNECT_TIMES = 3;
 
     private DownloadRunnable(int id, int connectionIndex, ConnectTask connectTask,
-                             ProcessCallback callback, boolean isWifiRequired, String path) {
+                             ProcessCallback callback, boolean isWifiRequired, String path,
+                             TailRace hedgeRace) {
+        this.hedgeRace = hedgeRace;
         this.downloadId = id;
         this.connectionIndex = connectionIndex;
         this.paused = false;
@@ -62,6 +77,120 @@ public class DownloadRunnable implements Runnable {
     }
 
 
+    /**
+     * Execute the {@code task} which runs this runnable on the {@code executor}, once the first
+     * request of this runnable is allowed by the {@link HostRequestRateLimiter}, so it never waits
+     * for the request on the thread of the executor.
+     */
+    void execute(Runnable task, Executor executor) {
+        if (firstConnection != null) {
+            // the first fetching is on the connection which has been connected.
+            executor.execute(task);
+            return;
+        }
+
+        connectTask.markRequestReserved();
+        HostRequestRateLimiter.getImpl().execute(connectTask.url, task, executor);
+    }
+
+    /**
+     * Split the tail half of the range this runnable is fetching out.
+     *
+     * @return the profile of the tail, or {@code null} if it can't be split now.
+     * @see FetchDataTask#splitTail(long, long)
+     */
+    ConnectionProfile splitTail(long totalLength, long minRegionBytes) {
+        final FetchDataTask fetchDataTask = this.fetchDataTask;
+        if (paused || fetchDataTask == null) return null;
+
+        return fetchDataTask.splitTail(totalLength, minRegionBytes);
+    }
+
+    /**
+     * @see FetchDataTask#detachRemaining(long)
+     */
+    ConnectionProfile detachRemaining(long totalLength) {
+        final FetchDataTask fetchDataTask = this.fetchDataTask;
+        if (paused || fetchDataTask == null) return null;
+
+        return fetchDataTask.detachRemaining(totalLength);
+    }
+
+    /**
+     * Pause this runnable to take its whole range back, used when nothing has been fetched on it
+     * yet, so the remaining range can't be detached from it.
+     *
+     * @return {@code true} if this runnable is paused for taking back.
+     * @see FetchDataTask#isNothingFetched()
+     */
+    boolean takeBackUnfetched() {
+        final FetchDataTask fetchDataTask = this.fetchDataTask;
+        if (paused || hedgeRace != null || fetchDataTask == null
+                || !fetchDataTask.isNothingFetched()) {
+            return false;
+        }
+
+        takenBack = true;
+        pause();
+        return true;
+    }
+
+    /**
+     * The range left after this runnable has been taken back, it is only valid after this runnable
+     * has finished, because a read may be in flight when it is paused.
+     *
+     * @return the profile of the range left, or {@code null} if this runnable isn't taken back or
+     * there isn't any range left.
+     */
+    ConnectionProfile getTakenBackProfile(long totalLength) {
+        if (!takenBack) return null;
+
+        final ConnectionProfile profile = connectTask.getProfile();
+        final FetchDataTask fetchDataTask = this.fetchDataTask;
+        final long currentOffset = fetchDataTask != null
+                ? fetchDataTask.currentOffset : profile.currentOffset;
+        final long lastOffset = profile.endOffset == 0 ? totalLength - 1 : profile.endOffset;
+        if (currentOffset > lastOffset) return null;
+
+        return new ConnectionProfile(profile.startOffset, currentOffset, profile.endOffset,
+                lastOffset + 1 - currentOffset);
+    }
+
+    /**
+     * @see FetchDataTask#hedgeTail(long, long)
+     */
+    TailRace hedgeTail(long totalLength, long minRegionBytes) {
+        final FetchDataTask fetchDataTask = this.fetchDataTask;
+        if (paused || fetchDataTask == null) return null;
+
+        return fetchDataTask.hedgeTail(totalLength, minRegionBytes);
+    }
+
+    /**
+     * @see FetchDataTask#getHedgeableRemainingMillis(long)
+     */
+    long getHedgeableRemainingMillis(long totalLength) {
+        final FetchDataTask fetchDataTask = this.fetchDataTask;
+        if (paused || fetchDataTask == null) return -1;
+
+        return fetchDataTask.getHedgeableRemainingMillis(totalLength);
+    }
+
+    long getRemainingBytes(long totalLength) {
+        final FetchDataTask fetchDataTask = this.fetchDataTask;
+        if (paused || fetchDataTask == null) return 0;
+
+        return fetchDataTask.getRemainingBytes(totalLength);
+    }
+
+    /**
+     * Invoked by the {@link FetchDataTask} when the tail of its range has been split out, ensure
+     * the retry only require the range to the new {@code endOffset}.
+     */
+    void onRangeSplit(long endOffset) {
+        connectTask.updateEndOffset(endOffset);
+    }
+
     /**
      * discard（抛弃；放弃；丢弃）
      */
@@ -74,8 +203,9 @@ public class DownloadRunnable implements Runnable {
         Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
 
         FileDownloadConnection connection = null;
-        final long beginOffset = connectTask.getProfile().currentOffset;
+        long beginOffset = connectTask.getProfile().currentOffset;
         boolean isConnected = false;
+        int stallReconnectTimes = 0;
         do {
 
             try {
@@ -84,7 +214,13 @@ public class DownloadRunnable implements Runnable {
                 }
 
                 isConnected = false;
-                connection = connectTask.connect();
+                final boolean isFirstConnection = firstConnection != null;
+                if (isFirstConnection) {
+                    connection = firstConnection;
+                    firstConnection = null;
+                } else {
+                    connection = connectTask.connect();
+                }
                 final int code = connection.getResponseCode();
 
                 if (FileDownloadLog.NEED_LOG) {
@@ -111,10 +247,19 @@ public class DownloadRunnable implements Runnable {
                         .setHost(this)
                         .setWifiRequired(isWifiRequired)
                         .setConnection(connection)
-                        .setConnectionProfile(this.connectTask.getProfile())
+                        .setConnectionProfile(isFirstConnection
+                                ? getFirstConnectionProfile(connection)
+                                : this.connectTask.getProfile())
                         .setPath(path)
+                        .setHedgeRace(hedgeRace)
                         .build();
 
+                final long endOffset = connectTask.getProfile().endOffset;
+                if (isFirstConnection && endOffset != 0) {
+                    // the first connection responds to the end of the file.
+                    fetchDataTask.trimEndOffset(endOffset);
+                }
+
 
                 fetchDataTask.run();
                 if (paused){
@@ -122,6 +267,34 @@ public class DownloadRunnable implements Runnable {
                 }
                 break;
             } catch (IllegalAccessException | IOException | FileDownloadGiveUpRetryException | IllegalArgumentException e) {
+                if (hedgeRace != null && hedgeRace.giveUpHedge()) {
+                    // the tail is still fetched on the original connection.
+                    if (FileDownloadLog.NEED_LOG) {
+                        FileDownloadLog.d(this, "give up the hedged connection[%d] for %d: %s",
+                                connectionIndex, downloadId, e);
+                    }
+                    break;
+                }
+
+                final FetchDataTask stalledTask = fetchDataTask;
+                if (!paused && stalledTask != null && stalledTask.isStalled()
+                        && isRemaining(stalledTask.currentOffset)) {
+                    final long fetchedOffset = stalledTask.currentOffset;
+                    if (fetchedOffset > beginOffset) stallReconnectTimes = 0;
+
+                    if (stallReconnectTimes++ < MAX_STALL_RECONNECT_TIMES) {
+                        // the bytes fetched are kept, reconnect for the rest of the range.
+                        if (FileDownloadLog.NEED_LOG) {
+                            FileDownloadLog.d(this, "reconnect the stalled connection[%d] for %d" +
+                                    " from %d: %s", connectionIndex, downloadId, fetchedOffset, e);
+                        }
+                        connectTask.updateCurrentOffset(fetchedOffset);
+                        beginOffset = fetchedOffset;
+                        fetchDataTask = null;
+                        continue;
+                    }
+                }
+
                 if (callback.isRetry(e)) {
                     if (!isConnected) {
                         callback.onRetry(e, 0);
@@ -149,12 +322,39 @@ public class DownloadRunnable implements Runnable {
 
     }
 
+    /**
+     * The first connection requires the range to the end of the file, so its profile is the
+     * response one and the fetch data task is trimmed to the range of this runnable.
+     */
+    private ConnectionProfile getFirstConnectionProfile(FileDownloadConnection connection) {
+        final ConnectionProfile profile = connectTask.getProfile();
+        return new ConnectionProfile(profile.startOffset, profile.currentOffset, 0,
+                FileDownloadUtils.findContentLength(downloadId, connection));
+    }
+
+    /**
+     * End the first connection if this runnable is never run.
+     */
+    void releaseFirstConnection() {
+        final FileDownloadConnection connection = firstConnection;
+        firstConnection = null;
+        if (connection != null) connection.ending();
+    }
+
+    private boolean isRemaining(long fetchedOffset) {
+        final ConnectionProfile profile = connectTask.getProfile();
+        return profile.contentLength <= 0
+                || fetchedOffset < profile.currentOffset + profile.contentLength;
+    }
+
     public static class Builder {
         private final ConnectTask.Builder connectTaskBuilder = new ConnectTask.Builder();
         private ProcessCallback callback;
         private String path;
         private Boolean isWifiRequired;
         private Integer connectionIndex;
+        private TailRace hedgeRace;
+        private FileDownloadConnection firstConnection;
 
 
         public Builder setCallback(ProcessCallback callback) {
@@ -202,19 +402,38 @@ public class DownloadRunnable implements Runnable {
             return this;
         }
 
+        /**
+         * Optional, the race for the tail which the runnable requests as the hedged connection.
+         */
+        Builder setHedgeRace(TailRace hedgeRace) {
+            this.hedgeRace = hedgeRace;
+            return this;
+        }
+
+        /**
+         * Optional, the connection which has been connected from the current offset of the range
+         * to the end of the file, it is used instead of connecting again for the first fetching.
+         */
+        Builder setFirstConnection(FileDownloadConnection firstConnection) {
+            this.firstConnection = firstConnection;
+            return this;
+        }
+
         public DownloadRunnable build() {
             if (callback == null || path == null || isWifiRequired == null || connectionIndex == null)
                 throw new IllegalArgumentException(FileDownloadUtils.formatString("%s %s %B"
                         , callback, path, isWifiRequired));
 
             final ConnectTask connectTask = connectTaskBuilder.build();
-            return new DownloadRunnable(connectTask.downloadId, connectionIndex, connectTask,
-                    callback, isWifiRequired, path);
+            final DownloadRunnable runnable = new DownloadRunnable(connectTask.downloadId,
+                    connectionIndex, connectTask, callback, isWifiRequired, path, hedgeRace);
+            runnable.firstConnection = firstConnection;
+            return runnable;
         }
 
         DownloadRunnable buildForTest(ConnectTask connectTask) {
             return new DownloadRunnable(connectTask.downloadId, 0, connectTask,
-                    callback, false, "");
+                    callback, false, "", null);
         }
 
     }
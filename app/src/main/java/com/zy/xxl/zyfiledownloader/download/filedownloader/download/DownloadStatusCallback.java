@@ -31,6 +31,7 @@ import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadMod
 import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadStatus;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.services.FileDownloadBroadcastHandler;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.services.FileDownloadDatabase;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadBufferPool;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadLog;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadProperties;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadUtils;
@@ -41,7 +42,6 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.LockSupport;
 
-import static com.zy.xxl.zyfiledownloader.download.filedownloader.download.FetchDataTask.BUFFER_SIZE;
 import static com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadModel
         .TOTAL_VALUE_IN_CHUNKED_RESOURCE;
 
@@ -195,6 +195,15 @@ public class DownloadStatusCallback implements Handler.Callback {
         handlePaused();
     }
 
+    /**
+     * Persist the breakpoint of the task preempted for the higher priority one, without the paused
+     * status, because it is resumed on the service at once.
+     */
+    void onPreemptedDirectly() {
+        model.setStatus(FileDownloadStatus.progress);
+        database.updateProgress(model.getId(), model.getSoFar());
+    }
+
     void onErrorDirectly(Exception exception) {
         handleError(exception);
     }
@@ -273,7 +282,8 @@ public class DownloadStatusCallback implements Handler.Callback {
                 new File(tempPath).exists()) {
             // chunked
             final long freeSpaceBytes = FileDownloadUtils.getFreeSpaceBytes(tempPath);
-            if (freeSpaceBytes <= BUFFER_SIZE) {
+            final int bufferSize = FileDownloadBufferPool.getImpl().getBufferSize();
+            if (freeSpaceBytes <= bufferSize) {
                 // free space is not enough.
                 long downloadedSize = 0;
                 final File file = new File(tempPath);
@@ -285,10 +295,10 @@ public class DownloadStatusCallback implements Handler.Callback {
                 }
 
                 if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
-                    ex = new FileDownloadOutOfSpaceException(freeSpaceBytes, BUFFER_SIZE,
+                    ex = new FileDownloadOutOfSpaceException(freeSpaceBytes, bufferSize,
                             downloadedSize, ex);
                 } else {
-                    ex = new FileDownloadOutOfSpaceException(freeSpaceBytes, BUFFER_SIZE,
+                    ex = new FileDownloadOutOfSpaceException(freeSpaceBytes, bufferSize,
                             downloadedSize);
                 }
 
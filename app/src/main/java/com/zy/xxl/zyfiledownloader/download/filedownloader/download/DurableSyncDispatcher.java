@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.download;
+
+import android.os.SystemClock;
+
+import com.zy.xxl.zyfiledownloader.download.filedownloader.services.FileDownloadDatabase;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.stream.FileDownloadAsyncSyncable;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadExecutors;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadLog;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * 批量同步
+ * Gather the sync requests from all connections of all tasks, and commit them in batch on the sync
+ * thread: one sync for each file, then one database transaction for all offsets which have been
+ * persisted on the physical media, so the downloading thread never blocks on the sync.
+ * <p/>
+ * The requests from the same connection are coalesced, only the latest offset is committed.
+ */
+class DurableSyncDispatcher implements Runnable {
+
+    private final static ThreadPoolExecutor SYNC_EXECUTOR = FileDownloadExecutors
+            .newDefaultThreadPool(1, "download-sync");
+
+    private final Object lock = new Object();
+    // guarded by the lock.
+    private Map<Long, Request> pendingRequestMap = new LinkedHashMap<>();
+    private boolean scheduled;
+    private long nextBatchSeq = 1;
+    private long committedBatchSeq;
+
+    public static class HolderClass {
+        private final static DurableSyncDispatcher INSTANCE = new DurableSyncDispatcher();
+    }
+
+    public static DurableSyncDispatcher getImpl() {
+        return HolderClass.INSTANCE;
+    }
+
+    /**
+     * Request to sync the data flushed and then persist the {@code offset} to the database, it
+     * never blocks.
+     *
+     * @param handle                  the handle acquired for this request, it is owned by this
+     *                                dispatcher.
+     * @param isBelongMultiConnection whether the {@code offset} is persisted to the connection table
+     *                                rather than the filedownloader table.
+     */
+    void requestSync(FileDownloadAsyncSyncable.SyncHandle handle, int id, int connectionIndex,
+                     boolean isBelongMultiConnection, long offset) {
+        enqueue(new Request(handle, id, connectionIndex, isBelongMultiConnection, offset));
+    }
+
+    /**
+     * The same to {@link #requestSync(FileDownloadAsyncSyncable.SyncHandle, int, int, boolean, long)}
+     * but wait until it is committed, it is used as the barrier when the connection is finished, so
+     * no request committed later would overwrite the offset.
+     *
+     * @return {@code true} if the {@code offset} has been persisted.
+     */
+    boolean syncAndWait(FileDownloadAsyncSyncable.SyncHandle handle, int id, int connectionIndex,
+                        boolean isBelongMultiConnection, long offset) {
+        final Request request = new Request(handle, id, connectionIndex, isBelongMultiConnection,
+                offset);
+        final long batchSeq = enqueue(request);
+
+        boolean interrupted = false;
+        synchronized (lock) {
+            while (committedBatchSeq < batchSeq) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+
+        return request.durable;
+    }
+
+    private long enqueue(Request request) {
+        final Request replacedRequest;
+        final long batchSeq;
+        synchronized (lock) {
+            replacedRequest = pendingRequestMap.put(request.key, request);
+            batchSeq = nextBatchSeq;
+            if (!scheduled) {
+                scheduled = true;
+                SYNC_EXECUTOR.execute(this);
+            }
+        }
+
+        if (replacedRequest != null) release(replacedRequest.handle);
+        return batchSeq;
+    }
+
+    @Override
+    public void run() {
+        final Collection<Request> requests;
+        final long batchSeq;
+        synchronized (lock) {
+            requests = pendingRequestMap.values();
+            pendingRequestMap = new LinkedHashMap<>();
+            batchSeq = nextBatchSeq++;
+            scheduled = false;
+        }
+
+        try {
+            commit(requests);
+        } finally {
+            synchronized (lock) {
+                committedBatchSeq = batchSeq;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private void commit(Collection<Request> requests) {
+        final long startTimestamp = SystemClock.uptimeMillis();
+
+        // 1. sync once for each file.
+        final Set<FileDownloadAsyncSyncable.SyncHandle> syncedHandleSet = new HashSet<>();
+        final Set<FileDownloadAsyncSyncable.SyncHandle> failedHandleSet = new HashSet<>();
+        final List<Request> durableRequestList = new ArrayList<>(requests.size());
+        for (Request request : requests) {
+            if (failedHandleSet.contains(request.handle)) continue;
+
+            if (!syncedHandleSet.contains(request.handle)) {
+                try {
+                    request.handle.sync();
+                    syncedHandleSet.add(request.handle);
+                } catch (IOException e) {
+                    failedHandleSet.add(request.handle);
+                    if (FileDownloadLog.NEED_LOG) {
+                        FileDownloadLog.d(this, "Because of the system cannot guarantee that all " +
+                                "the buffers have been synchronized with physical media, we just " +
+                                "not persist the offset of task[%d] to database %s", request.id, e);
+                    }
+                    continue;
+                }
+            }
+
+            durableRequestList.add(request);
+        }
+
+        // 2. persist all offsets synced in one transaction.
+        try {
+            if (!durableRequestList.isEmpty()) {
+                final FileDownloadDatabase database = CustomComponentHolder.getImpl()
+                        .getDatabaseInstance();
+                final Runnable persistOperations = new Runnable() {
+                    @Override
+                    public void run() {
+                        for (Request request : durableRequestList) {
+                            if (request.isBelongMultiConnection) {
+                                // only need update the connection table.
+                                database.updateConnectionModel(request.id, request.connectionIndex,
+                                        request.offset);
+                            } else {
+                                // only need update the filedownloader table.
+                                database.updateProgress(request.id, request.offset);
+                            }
+                        }
+                    }
+                };
+                // the offsets must have been committed rather than deferred on the memory.
+                if (database instanceof FileDownloadDatabase.WriteBehind) {
+                    ((FileDownloadDatabase.WriteBehind) database)
+                            .runInDurableTransaction(persistOperations);
+                } else {
+                    database.runInTransaction(persistOperations);
+                }
+
+                for (Request request : durableRequestList) {
+                    request.durable = true;
+                }
+            }
+
+            if (FileDownloadLog.NEED_LOG) {
+                FileDownloadLog.d(this, "commit %d sync requests on %d files, consume[%d]",
+                        durableRequestList.size(), syncedHandleSet.size(),
+                        SystemClock.uptimeMillis() - startTimestamp);
+            }
+        } catch (RuntimeException e) {
+            FileDownloadLog.e(this, e, "failed to persist the offsets synced");
+        } finally {
+            for (Request request : requests) {
+                release(request.handle);
+            }
+        }
+    }
+
+    private void release(FileDownloadAsyncSyncable.SyncHandle handle) {
+        try {
+            handle.release();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static class Request {
+        final FileDownloadAsyncSyncable.SyncHandle handle;
+        final Long key;
+        final int id;
+        final int connectionIndex;
+        final boolean isBelongMultiConnection;
+        final long offset;
+        volatile boolean durable;
+
+        Request(FileDownloadAsyncSyncable.SyncHandle handle, int id, int connectionIndex,
+                boolean isBelongMultiConnection, long offset) {
+            this.handle = handle;
+            this.key = ((long) id << 32) | (connectionIndex & 0xFFFFFFFFL);
+            this.id = id;
+            this.connectionIndex = connectionIndex;
+            this.isBelongMultiConnection = isBelongMultiConnection;
+            this.offset = offset;
+        }
+    }
+}
@@ -22,8 +22,11 @@ import com.zy.xxl.zyfiledownloader.download.filedownloader.connection.FileDownlo
 import com.zy.xxl.zyfiledownloader.download.filedownloader.exception.FileDownloadGiveUpRetryException;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.exception.FileDownloadNetworkPolicyException;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.services.FileDownloadDatabase;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.stream.FileDownloadAsyncSyncable;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.stream.FileDownloadOutputStream;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadBufferPool;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadLog;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadProperties;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadUtils;
 
 import java.io.IOException;
@@ -40,7 +43,6 @@ import static com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDown
  */
 public class FetchDataTask {
 
-    static final int BUFFER_SIZE = 1024 * 4;
     private final ProcessCallback callback;
 
     private final int downloadId;
@@ -50,23 +52,50 @@ public class FetchDataTask {
     private final boolean isWifiRequired;
 
     private final long startOffset;
-    private final long endOffset;
+    private long endOffset;
     private final long contentLength;
     private final String path;
 
     long currentOffset;
     private FileDownloadOutputStream outputStream;
 
+    private final boolean isPipelined;
+    // only touched by the writer until it is finished.
+    private long writtenOffset;
+
     private volatile boolean paused;
 
+    /**
+     * Guard the {@link #endOffset} and {@link #currentOffset} between the fetching thread and the
+     * one who wants to split the range through {@link #splitTail(long, long)}.
+     */
+    private final Object rangeLock = new Object();
+    private boolean fetching;
+    private boolean isSplit;
+
+    // the race for the tail of this range, when its tail is hedged by another connection.
+    private TailRace tailRace;
+    private boolean isHedged;
+    // the race this task joins as the hedged connection.
+    private final TailRace hedgeRace;
+    private long fetchingBeginOffset;
+    private long fetchingBeginTimestamp;
+
+    // the timestamp the blocking read begins, 0 if this task isn't blocked on reading.
+    private volatile long readBeginTimestamp;
+    private volatile InputStream fetchingInputStream;
+    private volatile boolean stalled;
+
     public void pause() {
         paused = true;
     }
 
     private FetchDataTask(FileDownloadConnection connection, ConnectionProfile connectionProfile,
                           DownloadRunnable host, int id, int connectionIndex,
-                          boolean isWifiRequired, ProcessCallback callback, String path) {
+                          boolean isWifiRequired, ProcessCallback callback, String path,
+                          TailRace hedgeRace) {
         this.callback = callback;
+        this.hedgeRace = hedgeRace;
         this.path = path;
         this.connection = connection;
         this.isWifiRequired = isWifiRequired;
@@ -74,6 +103,7 @@ public class FetchDataTask {
         this.connectionIndex = connectionIndex;
         this.downloadId = id;
         this.database = CustomComponentHolder.getImpl().getDatabaseInstance();
+        this.isPipelined = FileDownloadProperties.getImpl().DOWNLOAD_PIPELINED_WRITE;
 
         startOffset = connectionProfile.startOffset;
         endOffset = connectionProfile.endOffset;
@@ -110,6 +140,8 @@ public class FetchDataTask {
         // start fetch
         InputStream inputStream = null;
         FileDownloadOutputStream outputStream = null;
+        byte[] buff = null;
+        PipelinedWriter writer = null;
 
         try {
             final boolean isSupportSeek = CustomComponentHolder.getImpl().isSupportSeek();
@@ -129,24 +161,89 @@ public class FetchDataTask {
 
             inputStream = connection.getInputStream();
 
-            byte[] buff = new byte[BUFFER_SIZE];
+            if (isPipelined) {
+                writtenOffset = currentOffset;
+                writer = new PipelinedWriter(outputStream, new PipelinedWriter.Callback() {
+                    @Override
+                    public void onWritten(int byteCount) {
+                        writtenOffset += byteCount;
+                        // the progress only follows the data which has been written.
+                        callback.onProgress(byteCount);
+                        checkAndSync(writtenOffset);
+                    }
+                });
+            }
 
             if (paused) return;
 
+            synchronized (rangeLock) {
+                fetching = true;
+                fetchingBeginOffset = currentOffset;
+                fetchingBeginTimestamp = SystemClock.elapsedRealtime();
+            }
+
+            if (hostRunnable != null) {
+                fetchingInputStream = inputStream;
+                StallWatchdog.getImpl().watch(this);
+            }
+
+            boolean isHedgeClaimed = false;
+
             do {
+                if (buff == null) buff = FileDownloadBufferPool.getImpl().acquire();
+
+                readBeginTimestamp = SystemClock.elapsedRealtime();
                 int byteCount = inputStream.read(buff);
+                readBeginTimestamp = 0;
                 if (byteCount == -1) {
                     break;
                 }
 
-                outputStream.write(buff, 0, byteCount);
+                if (hedgeRace != null && !isHedgeClaimed) {
+                    // the original connection has won the tail, this one has been canceled.
+                    if (!hedgeRace.claimByHedge()) return;
+                    isHedgeClaimed = true;
+                }
+
+                final boolean isReachSplitEnd;
+                synchronized (rangeLock) {
+                    if (tailRace != null && currentOffset + byteCount > tailRace.offset) {
+                        // the first byte of the hedged tail is delivered on this connection.
+                        final TailRace race = tailRace;
+                        tailRace = null;
+                        race.claimByOriginal();
+                    }
+
+                    if (isSplit) {
+                        // the tail of the range has been taken over by the other connection.
+                        final long remainBytes = endOffset + 1 - currentOffset;
+                        isReachSplitEnd = byteCount >= remainBytes;
+                        if (isReachSplitEnd) byteCount = (int) remainBytes;
+                    } else {
+                        isReachSplitEnd = false;
+                    }
+
+                    if (!isPipelined) outputStream.write(buff, 0, byteCount);
+
+                    currentOffset += byteCount;
+                }
 
-                currentOffset += byteCount;
+                if (isPipelined) {
+                    // the buffer is owned by the writer now.
+                    final byte[] data = buff;
+                    buff = null;
+                    writer.enqueue(data, byteCount);
+                } else {
+                    // callback progress
+                    callback.onProgress(byteCount);
 
-                // callback progress
-                callback.onProgress(byteCount);
+                    checkAndSync(currentOffset);
+                }
+
+                // block until the bandwidth of this task pays off what has been read.
+                BandwidthManager.getImpl().consume(downloadId, byteCount);
 
-                checkAndSync();
+                if (isReachSplitEnd) break;
 
                 // check status
                 if (paused) return;
@@ -159,6 +256,28 @@ public class FetchDataTask {
 
         } finally {
 
+            readBeginTimestamp = 0;
+            fetchingInputStream = null;
+            if (hostRunnable != null) StallWatchdog.getImpl().unwatch(this);
+
+            final TailRace unsettledRace;
+            synchronized (rangeLock) {
+                fetching = false;
+                unsettledRace = tailRace;
+            }
+            // the retry is on a new fetch task, so the unsettled tail is left to the hedged one.
+            if (unsettledRace != null) unsettledRace.yieldToHedge();
+
+            FileDownloadBufferPool.getImpl().release(buff);
+
+            if (writer != null) {
+                // all data read must be on the output stream before sync it.
+                writer.finish();
+                synchronized (rangeLock) {
+                    currentOffset = writtenOffset;
+                }
+            }
+
             if (inputStream != null)
                 try {
                     inputStream.close();
@@ -168,7 +287,7 @@ public class FetchDataTask {
 
             try {
                 if (outputStream != null)
-                    sync();
+                    sync(currentOffset, true);
             } finally {
                 if (outputStream != null)
                     try {
@@ -180,12 +299,15 @@ public class FetchDataTask {
 
         }
 
+        if (writer != null) writer.checkError();
+
         final long fetchedLength = currentOffset - fetchBeginOffset;
-        if (contentLength != TOTAL_VALUE_IN_CHUNKED_RESOURCE && contentLength != fetchedLength) {
+        final long requireLength = isSplit ? endOffset + 1 - fetchBeginOffset : contentLength;
+        if (requireLength != TOTAL_VALUE_IN_CHUNKED_RESOURCE && requireLength != fetchedLength) {
             throw new FileDownloadGiveUpRetryException(
                     FileDownloadUtils.formatString("fetched length[%d] != content length[%d]," +
                                     " range[%d, %d) offset[%d] fetch begin offset",
-                            fetchedLength, contentLength,
+                            fetchedLength, requireLength,
                             startOffset, endOffset, currentOffset, fetchBeginOffset));
         }
 
@@ -193,24 +315,230 @@ public class FetchDataTask {
         callback.onCompleted(hostRunnable, startOffset, endOffset);
     }
 
+    /**
+     * Split the tail half of the remaining range out, then this task only fetches to the new end
+     * offset and the tail can be fetched on another connection.
+     *
+     * @param totalLength    the total length of the file, used when this task fetches to the end.
+     * @param minRegionBytes the remaining range must be larger than this value to be split.
+     * @return the profile of the tail which has been split out, or {@code null} if this task isn't
+     * fetching or the remaining range is too small to split.
+     */
+    ConnectionProfile splitTail(long totalLength, long minRegionBytes) {
+        synchronized (rangeLock) {
+            if (!fetching || paused || tailRace != null) return null;
+
+            final long remainBytes = getLastOffset(totalLength) + 1 - currentOffset;
+            if (remainBytes < minRegionBytes) return null;
+
+            return splitAt(totalLength, currentOffset + remainBytes / 2);
+        }
+    }
+
+    /**
+     * Detach all the remaining range from this task, then this task would complete after the
+     * current read and its connection is released.
+     *
+     * @return the profile of the remaining range, or {@code null} if this task isn't fetching.
+     */
+    ConnectionProfile detachRemaining(long totalLength) {
+        synchronized (rangeLock) {
+            if (!fetching || paused || tailRace != null) return null;
+
+            return splitAt(totalLength, currentOffset);
+        }
+    }
+
+    /**
+     * @return {@code true} if this task is fetching but hasn't fetched any byte of its range, so
+     * the range can't be detached and it can only be taken back as a whole.
+     */
+    boolean isNothingFetched() {
+        synchronized (rangeLock) {
+            return fetching && !paused && tailRace == null && currentOffset <= startOffset;
+        }
+    }
+
+    // must hold the range lock.
+    private ConnectionProfile splitAt(long totalLength, long splitOffset) {
+        final long lastOffset = getLastOffset(totalLength);
+        // the end offset 0 means fetching to the end of the file, so it can't be the new one.
+        // nothing before the split offset has been fetched, so there isn't any range left to this.
+        if (splitOffset > lastOffset || splitOffset <= startOffset || splitOffset == 1) return null;
+
+        final ConnectionProfile tailProfile = new ConnectionProfile(splitOffset, splitOffset,
+                endOffset, lastOffset + 1 - splitOffset);
+
+        endOffset = splitOffset - 1;
+        isSplit = true;
+        if (hostRunnable != null) hostRunnable.onRangeSplit(endOffset);
+
+        if (FileDownloadLog.NEED_LOG) {
+            FileDownloadLog.d(this, "split the tail of %d-%d out, current offset[%d] %s",
+                    downloadId, connectionIndex, currentOffset, tailProfile);
+        }
+        return tailProfile;
+    }
+
+    /**
+     * Request the tail half of the remaining range again on another connection, this task keeps
+     * fetching the whole range until the hedged connection delivers the first byte of the tail.
+     *
+     * @return the race for the tail, or {@code null} if this task isn't fetching, has been hedged,
+     * is a hedged one itself, or the remaining range is smaller than {@code minRegionBytes}.
+     */
+    TailRace hedgeTail(long totalLength, long minRegionBytes) {
+        synchronized (rangeLock) {
+            if (!fetching || paused || isHedged || hedgeRace != null) return null;
+
+            final long lastOffset = getLastOffset(totalLength);
+            final long remainBytes = lastOffset + 1 - currentOffset;
+            if (remainBytes < minRegionBytes) return null;
+
+            final long hedgeOffset = currentOffset + remainBytes / 2;
+            // the end offset 0 means fetching to the end of the file, so it can't be lost to.
+            if (hedgeOffset == 1) return null;
+
+            tailRace = new TailRace(this, new ConnectionProfile(hedgeOffset, hedgeOffset,
+                    endOffset, lastOffset + 1 - hedgeOffset), totalLength);
+            isHedged = true;
+
+            if (FileDownloadLog.NEED_LOG) {
+                FileDownloadLog.d(this, "hedge the tail of %d-%d from %d, current offset[%d]",
+                        downloadId, connectionIndex, hedgeOffset, currentOffset);
+            }
+            return tailRace;
+        }
+    }
+
+    /**
+     * Trim the range to {@code endOffset} before fetching, used when the connection responds more
+     * than the range, such as the first connection reused for the first range.
+     */
+    void trimEndOffset(long endOffset) {
+        synchronized (rangeLock) {
+            this.endOffset = endOffset;
+            isSplit = true;
+        }
+    }
+
+    /**
+     * Invoked when the hedged connection wins the tail from {@code offset}, this task only fetches
+     * to the byte before it.
+     */
+    void loseTail(long offset, long totalLength) {
+        synchronized (rangeLock) {
+            tailRace = null;
+            if (offset - 1 >= getLastOffset(totalLength)) return;
+
+            endOffset = offset - 1;
+            isSplit = true;
+            if (hostRunnable != null) hostRunnable.onRangeSplit(endOffset);
+
+            if (FileDownloadLog.NEED_LOG) {
+                FileDownloadLog.d(this, "lose the tail of %d-%d from %d, current offset[%d]",
+                        downloadId, connectionIndex, offset, currentOffset);
+            }
+        }
+    }
+
+    /**
+     * @return the projected milliseconds to fetch the remaining range with the speed so far, or
+     * {@code -1} if this task isn't fetching or can't be hedged.
+     */
+    long getHedgeableRemainingMillis(long totalLength) {
+        synchronized (rangeLock) {
+            if (!fetching || paused || isHedged || hedgeRace != null) return -1;
+
+            final long fetchedBytes = currentOffset - fetchingBeginOffset;
+            final long elapsedMillis = SystemClock.elapsedRealtime() - fetchingBeginTimestamp;
+            if (fetchedBytes <= 0) return Long.MAX_VALUE;
+
+            return (getLastOffset(totalLength) + 1 - currentOffset) * Math.max(1, elapsedMillis)
+                    / fetchedBytes;
+        }
+    }
+
+    /**
+     * Invoked by the {@link StallWatchdog}, if this task has been blocked on reading for longer
+     * than {@code stallTimeoutMillis}, its input stream is closed to interrupt the read, then the
+     * host runnable reconnects from {@link #currentOffset}.
+     */
+    void checkStalled(long now, long stallTimeoutMillis) {
+        final long readBeginTimestamp = this.readBeginTimestamp;
+        if (readBeginTimestamp == 0 || paused || stalled) return;
+        if (now - readBeginTimestamp < stallTimeoutMillis) return;
+
+        stalled = true;
+        if (FileDownloadLog.NEED_LOG) {
+            FileDownloadLog.d(this, "the connection %d-%d is stalled for %dms, current offset[%d]",
+                    downloadId, connectionIndex, now - readBeginTimestamp, currentOffset);
+        }
+
+        final InputStream inputStream = fetchingInputStream;
+        if (inputStream != null)
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+    }
+
+    /**
+     * @return {@code true} if the connection of this task has been closed by the
+     * {@link StallWatchdog}.
+     */
+    boolean isStalled() {
+        return stalled;
+    }
+
+    private long getLastOffset(long totalLength) {
+        return endOffset == 0 ? totalLength - 1 : endOffset;
+    }
+
+    /**
+     * @return the bytes haven't been fetched on the range of this task, or {@code 0} if this task
+     * isn't fetching.
+     */
+    long getRemainingBytes(long totalLength) {
+        synchronized (rangeLock) {
+            if (!fetching) return 0;
+
+            // the hedged tail may be lost, so it isn't counted.
+            final long lastOffset = tailRace != null ? tailRace.offset - 1 : getLastOffset(totalLength);
+            return Math.max(0, lastOffset + 1 - currentOffset);
+        }
+    }
+
     private final FileDownloadDatabase database;
     private volatile long lastSyncBytes = 0;
     private volatile long lastSyncTimestamp = 0;
 
-    private void checkAndSync() {
+    private void checkAndSync(long offset) {
         final long now = SystemClock.elapsedRealtime();
-        final long bytesDelta = currentOffset - lastSyncBytes;
+        final long bytesDelta = offset - lastSyncBytes;
         final long timestampDelta = now - lastSyncTimestamp;
 
         if (FileDownloadUtils.isNeedSync(bytesDelta, timestampDelta)) {
-            sync();
+            sync(offset, false);
 
-            lastSyncBytes = currentOffset;
+            lastSyncBytes = offset;
             lastSyncTimestamp = now;
         }
     }
 
-    private void sync() {
+    /**
+     * @param offset         the offset which all data before it has been written to the output
+     *                       stream.
+     * @param waitForDurable whether wait until the {@code offset} is persisted, it is required
+     *                       when this task is finished.
+     */
+    private void sync(long offset, boolean waitForDurable) {
+        if (outputStream instanceof FileDownloadAsyncSyncable) {
+            syncAsync((FileDownloadAsyncSyncable) outputStream, offset, waitForDurable);
+            return;
+        }
+
         final long startTimestamp = SystemClock.uptimeMillis();
 
         boolean bufferPersistToDevice;
@@ -234,7 +562,7 @@ public class FetchDataTask {
             final boolean isBelongMultiConnection = hostRunnable != null;
             if (isBelongMultiConnection) {
                 // only need update the connection table.
-                database.updateConnectionModel(downloadId, connectionIndex, currentOffset);
+                database.updateConnectionModel(downloadId, connectionIndex, offset);
             } else {
                 // only need update the filedownloader table.
                 callback.syncProgressFromCache();
@@ -242,11 +570,43 @@ public class FetchDataTask {
 
             if (FileDownloadLog.NEED_LOG) {
                 FileDownloadLog.d(this, "require flushAndSync id[%d] index[%d] offset[%d], consume[%d]",
-                        downloadId, connectionIndex, currentOffset, SystemClock.uptimeMillis() - startTimestamp);
+                        downloadId, connectionIndex, offset, SystemClock.uptimeMillis() - startTimestamp);
             }
         }
     }
 
+    /**
+     * Flush on the current thread, and commit the sync and the offset through the
+     * {@link DurableSyncDispatcher} in batch with the other connections.
+     */
+    private void syncAsync(FileDownloadAsyncSyncable syncable, long offset,
+                           boolean waitForDurable) {
+        final FileDownloadAsyncSyncable.SyncHandle handle;
+        try {
+            syncable.flush();
+            handle = syncable.acquireSyncHandle();
+        } catch (IOException e) {
+            if (FileDownloadLog.NEED_LOG) {
+                FileDownloadLog.d(this, "Because of write to file failed, we just not " +
+                        "flushAndSync process to database too %s", e);
+            }
+            return;
+        }
+
+        final boolean isBelongMultiConnection = hostRunnable != null;
+        if (waitForDurable) {
+            final boolean durable = DurableSyncDispatcher.getImpl().syncAndWait(handle,
+                    downloadId, connectionIndex, isBelongMultiConnection, offset);
+            if (FileDownloadLog.NEED_LOG) {
+                FileDownloadLog.d(this, "require flushAndSync id[%d] index[%d] offset[%d] " +
+                        "durable[%B]", downloadId, connectionIndex, offset, durable);
+            }
+        } else {
+            DurableSyncDispatcher.getImpl().requestSync(handle, downloadId, connectionIndex,
+                    isBelongMultiConnection, offset);
+        }
+    }
+
     public static class Builder {
         DownloadRunnable downloadRunnable;
         FileDownloadConnection connection;
@@ -256,6 +616,7 @@ public class FetchDataTask {
         Boolean isWifiRequired;
         Integer connectionIndex;
         Integer downloadId;
+        TailRace hedgeRace;
 
         public Builder setConnection(FileDownloadConnection connection) {
             this.connection = connection;
@@ -297,6 +658,14 @@ public class FetchDataTask {
             return this;
         }
 
+        /**
+         * Optional, the race for the tail which the task fetches as the hedged connection.
+         */
+        Builder setHedgeRace(TailRace hedgeRace) {
+            this.hedgeRace = hedgeRace;
+            return this;
+        }
+
         public FetchDataTask build() throws IllegalArgumentException {
             if (isWifiRequired == null || connection == null || connectionProfile == null
                     || callback == null || path == null || downloadId == null || connectionIndex == null)
@@ -304,7 +673,7 @@ public class FetchDataTask {
 
             return new FetchDataTask(connection, connectionProfile, downloadRunnable,
                     downloadId, connectionIndex,
-                    isWifiRequired, callback, path);
+                    isWifiRequired, callback, path, hedgeRace);
         }
 
     }
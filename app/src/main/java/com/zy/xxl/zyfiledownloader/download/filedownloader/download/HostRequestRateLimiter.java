@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.download;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadProperties;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * 按主机限制请求频率
+ * The token bucket for each host, which limits the rate of the requests sent to the same host, the
+ * bucket is full at first, so the burst up to the rate per second is allowed.
+ * <p>
+ * The limiter never blocks any thread: the runnable which sends the request is executed through
+ * {@link #execute(String, Runnable, Executor)} after the token for its first request is reserved,
+ * and it is posted again with the delay if the token isn't available yet. The other requests on the
+ * runnable, such as the retries, take their tokens through {@link #acquireWithoutWait(String)},
+ * and the runnables executed after them wait for the tokens instead.
+ *
+ * @see FileDownloadProperties#DOWNLOAD_MAX_REQUESTS_PER_SECOND_PER_HOST
+ */
+class HostRequestRateLimiter {
+
+    private final static int MAX_IDLE_BUCKET_COUNT = 64;
+
+    private final int maxRequestsPerSecond;
+    // guarded by this.
+    private final Map<String, Bucket> bucketMap = new HashMap<>();
+    // guarded by this, the handler to execute the runnables throttled after the delay.
+    private Handler delayHandler;
+
+    public static class HolderClass {
+        private final static HostRequestRateLimiter INSTANCE = new HostRequestRateLimiter();
+    }
+
+    public static HostRequestRateLimiter getImpl() {
+        return HolderClass.INSTANCE;
+    }
+
+    private HostRequestRateLimiter() {
+        maxRequestsPerSecond = FileDownloadProperties.getImpl()
+                .DOWNLOAD_MAX_REQUESTS_PER_SECOND_PER_HOST;
+    }
+
+    /**
+     * Execute the {@code runnable} on the {@code executor} when the request to the host of the
+     * {@code url} is allowed, the token is reserved for the first request sent on the
+     * {@code runnable}, so that request must not acquire again.
+     */
+    void execute(String url, final Runnable runnable, final Executor executor) {
+        final String host = getHost(url);
+        final long waitMillis = host == null ? 0 : reserve(host);
+        if (waitMillis <= 0) {
+            executor.execute(runnable);
+            return;
+        }
+
+        getDelayHandler().postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                executor.execute(runnable);
+            }
+        }, waitMillis);
+    }
+
+    /**
+     * Take the token for the request to the host of the {@code url} at once, even though it isn't
+     * available, the runnables executed after it wait for the tokens taken.
+     */
+    void acquireWithoutWait(String url) {
+        final String host = getHost(url);
+        if (host != null) reserve(host);
+    }
+
+    /**
+     * @return the host of the {@code url}, or {@code null} if the requests to it aren't limited.
+     */
+    private String getHost(String url) {
+        if (maxRequestsPerSecond <= 0) return null;
+
+        try {
+            return new URL(url).getHost();
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    private synchronized Handler getDelayHandler() {
+        if (delayHandler == null) {
+            final HandlerThread thread = new HandlerThread("HostRequestRateLimiter");
+            thread.start();
+            delayHandler = new Handler(thread.getLooper());
+        }
+        return delayHandler;
+    }
+
+    /**
+     * @return the milliseconds to wait for the token reserved.
+     */
+    private synchronized long reserve(String host) {
+        final long now = SystemClock.elapsedRealtime();
+
+        Bucket bucket = bucketMap.get(host);
+        if (bucket == null) {
+            if (bucketMap.size() >= MAX_IDLE_BUCKET_COUNT) removeFullBuckets(now);
+            bucket = new Bucket(maxRequestsPerSecond, now);
+            bucketMap.put(host, bucket);
+        }
+
+        bucket.refill(now, maxRequestsPerSecond);
+        // the negative tokens are the ones reserved by the waiting requests.
+        bucket.tokens -= 1;
+        if (bucket.tokens >= 0) return 0;
+
+        return (long) Math.ceil(-bucket.tokens * 1000 / maxRequestsPerSecond);
+    }
+
+    private void removeFullBuckets(long now) {
+        final Iterator<Bucket> iterator = bucketMap.values().iterator();
+        while (iterator.hasNext()) {
+            final Bucket bucket = iterator.next();
+            bucket.refill(now, maxRequestsPerSecond);
+            if (bucket.tokens >= maxRequestsPerSecond) iterator.remove();
+        }
+    }
+
+    private static class Bucket {
+        double tokens;
+        long lastRefillTimestamp;
+
+        Bucket(double tokens, long now) {
+            this.tokens = tokens;
+            this.lastRefillTimestamp = now;
+        }
+
+        void refill(long now, int ratePerSecond) {
+            tokens = Math.min(ratePerSecond,
+                    tokens + (now - lastRefillTimestamp) * ratePerSecond / 1000.0);
+            lastRefillTimestamp = now;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.download;
+
+import com.zy.xxl.zyfiledownloader.download.filedownloader.stream.FileDownloadOutputStream;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadBufferPool;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadExecutors;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadProperties;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 读写分离
+ * Drain the data read from the connection to the output stream on a separate thread, so the slow
+ * writing or sync never stalls the reading on the network thread unless the ring is full.
+ * <p/>
+ * The buffers enqueued are acquired from {@link FileDownloadBufferPool}, and they are released
+ * after written. The ring of each writer is sized to share the pool between all the connections
+ * of {@link FileDownloadProperties#DOWNLOAD_MAX_CONNECTION_COUNT}.
+ * <p/>
+ * The writer never holds a thread while its ring is empty, it is scheduled on the shared writer
+ * pool when any data is enqueued, and it drains all the data queued each time.
+ */
+class PipelinedWriter implements Runnable {
+
+    private static final int MIN_RING_CAPACITY = 2;
+    private static final int MAX_RING_CAPACITY = 8;
+    private static final long ENQUEUE_CHECK_INTERVAL_MILLIS = 100;
+    // writing to the storage doesn't scale with threads, the writers are drained in turn on them.
+    private static final int WRITER_THREAD_COUNT = 3;
+
+    private final static ThreadPoolExecutor WRITER_EXECUTOR = FileDownloadExecutors
+            .newDefaultThreadPool(WRITER_THREAD_COUNT, "download-writer");
+
+    private final static int RING_CAPACITY = calculateRingCapacity();
+
+    private final static Chunk END = new Chunk(null, 0);
+
+    private final ArrayBlockingQueue<Chunk> ring = new ArrayBlockingQueue<>(RING_CAPACITY);
+    private final List<Chunk> drainingList = new ArrayList<>(RING_CAPACITY);
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final CountDownLatch finishLatch = new CountDownLatch(1);
+    private final FileDownloadOutputStream outputStream;
+    private final Callback callback;
+    private volatile IOException error;
+
+    PipelinedWriter(FileDownloadOutputStream outputStream, Callback callback) {
+        this.outputStream = outputStream;
+        this.callback = callback;
+    }
+
+    /**
+     * Each connection holds one buffer for reading besides its ring, so the rings of all the
+     * connections never drain the pool.
+     */
+    private static int calculateRingCapacity() {
+        final FileDownloadProperties properties = FileDownloadProperties.getImpl();
+        final long pooledBufferCount = properties.DOWNLOAD_BUFFER_POOL_MAX_SIZE
+                / properties.DOWNLOAD_BUFFER_SIZE;
+        final long capacity = pooledBufferCount / properties.DOWNLOAD_MAX_CONNECTION_COUNT - 1;
+        return (int) Math.max(MIN_RING_CAPACITY, Math.min(MAX_RING_CAPACITY, capacity));
+    }
+
+    /**
+     * Enqueue the data to write, it blocks only when the ring is full.
+     *
+     * @param buffer the buffer acquired from {@link FileDownloadBufferPool}, it is owned by this
+     *               writer since this method is invoked, even if it is failed.
+     */
+    void enqueue(byte[] buffer, int length) throws IOException {
+        final Chunk chunk = new Chunk(buffer, length);
+        boolean enqueued = false;
+        try {
+            while (!(enqueued = ring.offer(chunk, ENQUEUE_CHECK_INTERVAL_MILLIS,
+                    TimeUnit.MILLISECONDS))) {
+                checkError();
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted when enqueue the data to write");
+        } finally {
+            if (!enqueued) FileDownloadBufferPool.getImpl().release(buffer);
+        }
+
+        schedule();
+        checkError();
+    }
+
+    /**
+     * Wait until all data enqueued is written or the writer is failed.
+     */
+    void finish() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                while (!ring.offer(END, ENQUEUE_CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+                }
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        schedule();
+
+        while (true) {
+            try {
+                finishLatch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    void checkError() throws IOException {
+        final IOException error = this.error;
+        if (error != null) throw error;
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) WRITER_EXECUTOR.execute(this);
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            ring.drainTo(drainingList);
+            if (drainingList.isEmpty()) {
+                scheduled.set(false);
+                // the data enqueued after draining and before the flag is reset is drained here.
+                if (ring.isEmpty() || !scheduled.compareAndSet(false, true)) return;
+                continue;
+            }
+
+            write(drainingList);
+            drainingList.clear();
+        }
+    }
+
+    /**
+     * Write all the chunks drained, and the progress is called back once for them.
+     */
+    private void write(List<Chunk> chunkList) {
+        int writtenCount = 0;
+        boolean isEnd = false;
+        for (Chunk chunk : chunkList) {
+            if (chunk == END) {
+                isEnd = true;
+                continue;
+            }
+
+            try {
+                // keep draining after failed, so the reading side is never blocked.
+                if (error == null) {
+                    outputStream.write(chunk.buffer, 0, chunk.length);
+                    writtenCount += chunk.length;
+                }
+            } catch (IOException e) {
+                error = e;
+            } catch (RuntimeException e) {
+                error = new IOException(e);
+            } finally {
+                FileDownloadBufferPool.getImpl().release(chunk.buffer);
+            }
+        }
+
+        try {
+            if (writtenCount > 0) callback.onWritten(writtenCount);
+        } catch (RuntimeException e) {
+            if (error == null) error = new IOException(e);
+        } finally {
+            if (isEnd) finishLatch.countDown();
+        }
+    }
+
+    interface Callback {
+        /**
+         * Invoked on the writer thread when the data has been written to the output stream.
+         */
+        void onWritten(int byteCount);
+    }
+
+    private static class Chunk {
+        final byte[] buffer;
+        final int length;
+
+        Chunk(byte[] buffer, int length) {
+            this.buffer = buffer;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.download;
+
+import android.os.SystemClock;
+
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadExecutors;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadProperties;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * 卡顿检测
+ * The watchdog for the connections of the multi-connection tasks, the connection which is blocked
+ * on reading without delivering any byte for the stall timeout is closed, then its runnable
+ * reconnects from the offset it has fetched.
+ * <p/>
+ * The watchdog thread only runs when there is any connection fetching.
+ *
+ * @see FileDownloadProperties#DOWNLOAD_STALL_TIMEOUT
+ */
+class StallWatchdog {
+
+    private final static ThreadPoolExecutor WATCHDOG_EXECUTOR = FileDownloadExecutors
+            .newDefaultThreadPool(1, "stall-watchdog");
+
+    private final long stallTimeoutMillis;
+    private final long checkIntervalMillis;
+
+    // guarded by this.
+    private final Set<FetchDataTask> taskSet = new HashSet<>();
+    private boolean isWatching;
+
+    public static class HolderClass {
+        private final static StallWatchdog INSTANCE = new StallWatchdog();
+    }
+
+    public static StallWatchdog getImpl() {
+        return HolderClass.INSTANCE;
+    }
+
+    private StallWatchdog() {
+        stallTimeoutMillis = FileDownloadProperties.getImpl().DOWNLOAD_STALL_TIMEOUT;
+        checkIntervalMillis = Math.max(100, Math.min(1000, stallTimeoutMillis / 4));
+    }
+
+    void watch(FetchDataTask task) {
+        if (stallTimeoutMillis <= 0) return;
+
+        synchronized (this) {
+            taskSet.add(task);
+            if (isWatching) return;
+            isWatching = true;
+        }
+
+        WATCHDOG_EXECUTOR.execute(watchRunnable);
+    }
+
+    synchronized void unwatch(FetchDataTask task) {
+        taskSet.remove(task);
+    }
+
+    private final Runnable watchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            do {
+                try {
+                    Thread.sleep(checkIntervalMillis);
+                } catch (InterruptedException e) {
+                    synchronized (StallWatchdog.this) {
+                        isWatching = false;
+                    }
+                    return;
+                }
+
+                final List<FetchDataTask> taskList;
+                synchronized (StallWatchdog.this) {
+                    if (taskSet.isEmpty()) {
+                        isWatching = false;
+                        return;
+                    }
+                    taskList = new ArrayList<>(taskSet);
+                }
+
+                final long now = SystemClock.elapsedRealtime();
+                for (FetchDataTask task : taskList) {
+                    task.checkStalled(now, stallTimeoutMillis);
+                }
+            } while (true);
+        }
+    };
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.download;
+
+/**
+ * 尾部对冲竞争
+ * The race for the tail [offset, end] of one range, between the original connection which is
+ * fetching the range and the hedged connection which requests the tail again.
+ * <p/>
+ * The one which delivers the first byte of the tail wins the whole tail: if the original one wins,
+ * the hedged one is canceled; otherwise the range of the original one ends before the tail, as it
+ * is split. So each byte is written and called back by only one of them.
+ */
+class TailRace {
+
+    private final static int NONE = 0;
+    private final static int ORIGINAL = 1;
+    private final static int HEDGE = 2;
+
+    final long offset;
+    // the profile for the hedged connection to request the tail.
+    final ConnectionProfile tailProfile;
+    private final long totalLength;
+    private final FetchDataTask original;
+    private DownloadRunnable hedge;
+    // guarded by this.
+    private int winner = NONE;
+
+    TailRace(FetchDataTask original, ConnectionProfile tailProfile, long totalLength) {
+        this.original = original;
+        this.tailProfile = tailProfile;
+        this.offset = tailProfile.startOffset;
+        this.totalLength = totalLength;
+    }
+
+    /**
+     * Set the runnable of the hedged connection, it is canceled at once if the original one has
+     * won.
+     */
+    void setHedge(DownloadRunnable hedge) {
+        final boolean isLost;
+        synchronized (this) {
+            this.hedge = hedge;
+            isLost = winner == ORIGINAL;
+        }
+        if (isLost) hedge.pause();
+    }
+
+    /**
+     * @return {@code true} if the original one wins the tail, then the hedged one is canceled.
+     */
+    boolean claimByOriginal() {
+        final boolean isWon;
+        final DownloadRunnable canceledHedge;
+        synchronized (this) {
+            if (winner == NONE) winner = ORIGINAL;
+            isWon = winner == ORIGINAL;
+            canceledHedge = isWon ? hedge : null;
+        }
+
+        if (canceledHedge != null) canceledHedge.pause();
+        // the range of the original one may not have been ended yet.
+        if (!isWon) original.loseTail(offset, totalLength);
+        return isWon;
+    }
+
+    /**
+     * Leave the tail to the hedged connection because the original one stops before the tail, such
+     * as it is going to retry on a new connection.
+     */
+    void yieldToHedge() {
+        final boolean isLost;
+        synchronized (this) {
+            if (winner == NONE) winner = HEDGE;
+            isLost = winner == HEDGE;
+        }
+
+        if (isLost) original.loseTail(offset, totalLength);
+    }
+
+    /**
+     * @return {@code true} if the hedged one wins the tail, then the range of the original one
+     * ends before the tail.
+     */
+    boolean claimByHedge() {
+        synchronized (this) {
+            if (winner == NONE) winner = HEDGE;
+            if (winner != HEDGE) return false;
+        }
+
+        original.loseTail(offset, totalLength);
+        return true;
+    }
+
+    /**
+     * Give up the hedged connection because it fails before delivering any byte of the tail, then
+     * the tail is left to the original one.
+     *
+     * @return {@code false} if the hedged one has won the tail, so it can't give up.
+     */
+    boolean giveUpHedge() {
+        synchronized (this) {
+            if (winner == NONE) winner = ORIGINAL;
+            return winner == ORIGINAL;
+        }
+    }
+}
@@ -94,12 +94,11 @@ public class ConnectionModel {
         return values;
     }
 
+    /**
+     * @return the bytes downloaded on all connections, the overlapped ranges are only counted once.
+     */
     public static long getTotalOffset(List<ConnectionModel> modelList) {
-        long totalOffset = 0;
-        for (ConnectionModel model : modelList) {
-            totalOffset += (model.getCurrentOffset() - model.getStartOffset());
-        }
-        return totalOffset;
+        return DownloadedRangeSet.fromConnections(modelList).getDownloadedBytes();
     }
 
     @Override
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 已下载区间集合
+ * The set of the downloaded ranges of one task, the ranges are sorted and never overlap.
+ * <p>
+ * Each connection model persists the downloaded range [startOffset, currentOffset), so the set can
+ * be rebuilt from any rows on the connection table, no matter how many connections they were
+ * downloaded with, and then the remaining ranges can be planned again for any connection count
+ * through {@link #plan(int, long, int, long)}.
+ */
+public class DownloadedRangeSet {
+
+    // [start, end) pairs.
+    private final List<long[]> rangeList = new ArrayList<>();
+
+    public static DownloadedRangeSet fromConnections(List<ConnectionModel> connectionModelList) {
+        final DownloadedRangeSet rangeSet = new DownloadedRangeSet();
+        if (connectionModelList == null) return rangeSet;
+
+        for (ConnectionModel connectionModel : connectionModelList) {
+            rangeSet.add(connectionModel.getStartOffset(), connectionModel.getCurrentOffset());
+        }
+        return rangeSet;
+    }
+
+    /**
+     * @param sofar the bytes downloaded from the beginning with the single connection.
+     */
+    public static DownloadedRangeSet fromPrefix(long sofar) {
+        final DownloadedRangeSet rangeSet = new DownloadedRangeSet();
+        rangeSet.add(0, sofar);
+        return rangeSet;
+    }
+
+    /**
+     * Add the downloaded range [start, end), and merge it with the overlapped or adjacent ones.
+     */
+    public void add(long start, long end) {
+        if (start < 0 || end <= start) return;
+
+        int i = 0;
+        while (i < rangeList.size() && rangeList.get(i)[1] < start) i++;
+
+        long mergedStart = start;
+        long mergedEnd = end;
+        while (i < rangeList.size() && rangeList.get(i)[0] <= mergedEnd) {
+            final long[] range = rangeList.remove(i);
+            mergedStart = Math.min(mergedStart, range[0]);
+            mergedEnd = Math.max(mergedEnd, range[1]);
+        }
+        rangeList.add(i, new long[]{mergedStart, mergedEnd});
+    }
+
+    public long getDownloadedBytes() {
+        long downloadedBytes = 0;
+        for (long[] range : rangeList) {
+            downloadedBytes += range[1] - range[0];
+        }
+        return downloadedBytes;
+    }
+
+    /**
+     * Plan the connection models to download all the remaining ranges.
+     * <p>
+     * The largest remaining range is split until there are {@code connectionCount} ranges or it is
+     * smaller than twice {@code minSplitBytes}. Each model covers the downloaded range in front of
+     * its remaining range as [startOffset, currentOffset), so no downloaded byte is discarded, and
+     * the models which are downloaded completely are kept too.
+     *
+     * @return the connection models indexed in [0, size), the count of the models which still have
+     * remaining range may be larger or less than {@code connectionCount}.
+     */
+    public List<ConnectionModel> plan(int id, long totalLength, int connectionCount,
+                                      long minSplitBytes) {
+        // the remaining ranges: [start, end] pairs.
+        final List<long[]> remainingList = new ArrayList<>();
+        long cursor = 0;
+        for (long[] range : rangeList) {
+            if (range[0] >= totalLength) break;
+            if (range[0] > cursor) remainingList.add(new long[]{cursor, range[0] - 1});
+            cursor = Math.max(cursor, range[1]);
+        }
+        if (cursor < totalLength) remainingList.add(new long[]{cursor, totalLength - 1});
+
+        while (!remainingList.isEmpty() && remainingList.size() < connectionCount) {
+            int largestIndex = 0;
+            for (int i = 1; i < remainingList.size(); i++) {
+                if (length(remainingList.get(i)) > length(remainingList.get(largestIndex))) {
+                    largestIndex = i;
+                }
+            }
+
+            final long[] largest = remainingList.get(largestIndex);
+            final long largestLength = length(largest);
+            if (largestLength < minSplitBytes * 2) break;
+
+            final long splitStart = largest[0] + largestLength / 2;
+            remainingList.add(largestIndex + 1, new long[]{splitStart, largest[1]});
+            largest[1] = splitStart - 1;
+        }
+
+        final List<ConnectionModel> connectionModelList = new ArrayList<>();
+        long startOffset = 0;
+        for (long[] remaining : remainingList) {
+            long endOffset = remaining[1];
+            if (endOffset == totalLength - 1) {
+                endOffset = 0;
+            } else if (endOffset == 0) {
+                // the end offset 0 means to the end, so download the next byte once more.
+                endOffset = 1;
+            }
+
+            connectionModelList.add(createConnectionModel(id, connectionModelList.size(),
+                    startOffset, remaining[0], endOffset));
+            startOffset = endOffset == 0 ? totalLength : endOffset + 1;
+        }
+
+        if (startOffset < totalLength) {
+            // the tail downloaded completely.
+            connectionModelList.add(createConnectionModel(id, connectionModelList.size(),
+                    startOffset, totalLength, totalLength - 1));
+        }
+
+        return connectionModelList;
+    }
+
+    private static long length(long[] remaining) {
+        return remaining[1] - remaining[0] + 1;
+    }
+
+    private static ConnectionModel createConnectionModel(int id, int index, long startOffset,
+                                                         long currentOffset, long endOffset) {
+        final ConnectionModel connectionModel = new ConnectionModel();
+        connectionModel.setId(id);
+        connectionModel.setIndex(index);
+        connectionModel.setStartOffset(startOffset);
+        connectionModel.setCurrentOffset(currentOffset);
+        connectionModel.setEndOffset(endOffset);
+        return connectionModel;
+    }
+}
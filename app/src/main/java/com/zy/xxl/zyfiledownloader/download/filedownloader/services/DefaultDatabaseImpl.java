@@ -18,26 +18,36 @@ package com.zy.xxl.zyfiledownloader.download.filedownloader.services;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.text.TextUtils;
 import android.util.SparseArray;
 
+import com.zy.xxl.zyfiledownloader.download.filedownloader.download.CustomComponentHolder;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.model.ConnectionModel;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadModel;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadStatus;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadHelper;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadLog;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadUtils;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.IntObjectMap;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 /**
  * 已完成
  * 默认数据库 关于方法有不懂的看接口注释
  * For storing and updating the {@link FileDownloadModel} to the filedownloader database, and also
  * maintain（ 维持；继续；维修；主张；供养） the database when FileDownloader-Process is launching automatically.
+ * <p/>
+ * The maintaining is run on the background, before it is finished, the model is loaded, maintained
+ * and re-keyed through the id generator on {@link #find(int)}, the maintainer never touches the
+ * models on the memory, and never restores the ones removed or cleared after it reads them.
  */
 class DefaultDatabaseImpl implements FileDownloadDatabase {
 
@@ -46,17 +56,218 @@ class DefaultDatabaseImpl implements FileDownloadDatabase {
     public final static String TABLE_NAME = "filedownloader";
     public final static String CONNECTION_TABLE_NAME = "filedownloaderConnection";
 
-    private final SparseArray<FileDownloadModel> downloaderModelMap = new SparseArray<>();
+    // guarded by itself.
+    private final IntObjectMap<FileDownloadModel> downloaderModelMap = new IntObjectMap<>();
+    private volatile boolean isMaintained;
+
+    // the ids removed before the maintaining is finished, the maintainer never restores them;
+    // guarded by the downloader model map.
+    private final Set<Integer> removedIdSet = new HashSet<>();
+    // increased on clearing, the maintainer created before it never restores anything; guarded by
+    // the downloader model map.
+    private int clearGeneration;
+    // the new id -> the old id of the rows which are re-keyed by the id generator, loaded on the
+    // first missing find before the maintaining is finished; guarded by the downloader model map.
+    private IntObjectMap<Integer> oldIdMap;
+
+    /**
+     * The compiled statements for the hot writes, so the SQL isn't parsed again and there isn't
+     * any {@link ContentValues} for each write. Each statement is locked on binding and executing.
+     * <p/>
+     * The connection table is looked up through the automatic index of its primary key
+     * ({@link ConnectionModel#ID}, {@link ConnectionModel#INDEX}).
+     */
+    private final SQLiteStatement updateConnectionStatement;
+    private final SQLiteStatement insertConnectionStatement;
+    private final SQLiteStatement removeConnectionsStatement;
+    private final SQLiteStatement updateConnectionCountStatement;
+    private final SQLiteStatement updateProgressStatement;
 
     public DefaultDatabaseImpl() {
         DefaultDatabaseOpenHelper openHelper = new DefaultDatabaseOpenHelper(FileDownloadHelper.getAppContext());
 
         db = openHelper.getWritableDatabase();
+
+        updateConnectionStatement = db.compileStatement("UPDATE " + CONNECTION_TABLE_NAME +
+                " SET " + ConnectionModel.CURRENT_OFFSET + " = ? WHERE " +
+                ConnectionModel.ID + " = ? AND " + ConnectionModel.INDEX + " = ?");
+        insertConnectionStatement = db.compileStatement("INSERT INTO " + CONNECTION_TABLE_NAME +
+                " (" + ConnectionModel.ID + ", " + ConnectionModel.INDEX + ", " +
+                ConnectionModel.START_OFFSET + ", " + ConnectionModel.CURRENT_OFFSET + ", " +
+                ConnectionModel.END_OFFSET + ") VALUES (?, ?, ?, ?, ?)");
+        removeConnectionsStatement = db.compileStatement("DELETE FROM " + CONNECTION_TABLE_NAME +
+                " WHERE " + ConnectionModel.ID + " = ?");
+        updateConnectionCountStatement = db.compileStatement("UPDATE " + TABLE_NAME +
+                " SET " + FileDownloadModel.CONNECTION_COUNT + " = ? WHERE " +
+                FileDownloadModel.ID + " = ?");
+        updateProgressStatement = db.compileStatement("UPDATE " + TABLE_NAME +
+                " SET " + FileDownloadModel.STATUS + " = ?, " + FileDownloadModel.SOFAR +
+                " = ? WHERE " + FileDownloadModel.ID + " = ?");
     }
 
     @Override
     public FileDownloadModel find(final int id) {
-        return downloaderModelMap.get(id);
+        synchronized (downloaderModelMap) {
+            final FileDownloadModel model = downloaderModelMap.get(id);
+            if (model != null || isMaintained) return model;
+
+            return loadAndMaintain(id);
+        }
+    }
+
+    // must hold the downloader model map.
+    private FileDownloadModel loadAndMaintain(final int id) {
+        FileDownloadModel model = queryModel(id);
+        if (model == null && isIdReKeyable()) {
+            // the row may be stored with the old id, and is re-keyed to this id.
+            final Integer oldId = getOldIdMap().get(id);
+            if (oldId != null) model = queryModel(oldId);
+        }
+
+        if (model == null) return null;
+
+        final int storedId = model.getId();
+        if (!CustomComponentHolder.maintainModel(model)) {
+            // remove it at once, otherwise the new model with the same id can't be inserted.
+            if (FileDownloadLog.NEED_LOG) {
+                FileDownloadLog.d(this, "remove the invalid model %d on finding", storedId);
+            }
+            db.delete(TABLE_NAME, FileDownloadModel.ID + " = ?",
+                    new String[]{String.valueOf(storedId)});
+            removeConnections(storedId);
+            return null;
+        }
+
+        final int refreshedId = CustomComponentHolder.getRefreshedId(model);
+        if (refreshedId != storedId) {
+            // re-key it at once, the same as the maintainer does on finishing.
+            if (FileDownloadLog.NEED_LOG) {
+                FileDownloadLog.d(this, "the id is changed on finding: old[%d] -> new[%d]",
+                        storedId, refreshedId);
+            }
+            model.setId(refreshedId);
+            if (downloaderModelMap.get(refreshedId) == null) {
+                downloaderModelMap.put(refreshedId, model);
+            }
+            changeId(storedId, model);
+            if (oldIdMap != null) oldIdMap.remove(refreshedId);
+            return downloaderModelMap.get(id);
+        }
+
+        // the old id map is loaded before the id is refreshed by another one.
+        if (storedId != id) return null;
+
+        downloaderModelMap.put(id, model);
+        return model;
+    }
+
+    private FileDownloadModel queryModel(int id) {
+        Cursor c = null;
+        try {
+            c = db.rawQuery(FileDownloadUtils.formatString("SELECT * FROM %s WHERE %s = ?",
+                    TABLE_NAME, FileDownloadModel.ID), new String[]{Integer.toString(id)});
+            return c.moveToNext() ? createModel(c) : null;
+        } finally {
+            if (c != null)
+                c.close();
+        }
+    }
+
+    /**
+     * The {@link DefaultIdGenerator} generates the id from the url and the path, which are never
+     * changed on the row, so it never re-keys the rows generated by itself, and the table isn't
+     * scanned for the old ids on the finding thread.
+     */
+    private static boolean isIdReKeyable() {
+        return CustomComponentHolder.getImpl().getIdGeneratorInstance().getClass()
+                != DefaultIdGenerator.class;
+    }
+
+    /**
+     * Only the columns for generating the id are read, and it is loaded once until the
+     * maintaining is finished, so the missing find doesn't scan the table each time.
+     */
+    // must hold the downloader model map.
+    private IntObjectMap<Integer> getOldIdMap() {
+        if (oldIdMap != null) return oldIdMap;
+
+        oldIdMap = new IntObjectMap<>();
+        Cursor c = null;
+        try {
+            c = db.rawQuery(FileDownloadUtils.formatString("SELECT %s, %s, %s, %s FROM %s",
+                    FileDownloadModel.ID, FileDownloadModel.URL, FileDownloadModel.PATH,
+                    FileDownloadModel.PATH_AS_DIRECTORY, TABLE_NAME), null);
+            final FileDownloadModel model = new FileDownloadModel();
+            while (c.moveToNext()) {
+                model.setId(c.getInt(c.getColumnIndex(FileDownloadModel.ID)));
+                model.setUrl(c.getString(c.getColumnIndex(FileDownloadModel.URL)));
+                model.setPath(c.getString(c.getColumnIndex(FileDownloadModel.PATH)),
+                        c.getShort(c.getColumnIndex(FileDownloadModel.PATH_AS_DIRECTORY)) == 1);
+
+                final int refreshedId = CustomComponentHolder.getRefreshedId(model);
+                if (refreshedId != model.getId()) oldIdMap.put(refreshedId, model.getId());
+            }
+        } finally {
+            if (c != null)
+                c.close();
+        }
+
+        return oldIdMap;
+    }
+
+    // must hold the downloader model map.
+    private void changeId(int oldId, FileDownloadModel modelWithNewId) {
+        // the old one is found or the new one is replaced after it is refreshed.
+        if (downloaderModelMap.get(oldId) != null) return;
+        final int newId = modelWithNewId.getId();
+        if (removedIdSet.contains(oldId) && downloaderModelMap.get(newId) == modelWithNewId) {
+            // the old one is removed after it is refreshed, so it must not be restored.
+            downloaderModelMap.remove(newId);
+        }
+        final boolean isNewClaimed = downloaderModelMap.get(newId) != modelWithNewId;
+
+        db.beginTransaction();
+        try {
+            List<ConnectionModel> connectionModelList = null;
+            if (!isNewClaimed && modelWithNewId.getConnectionCount() > 1) {
+                connectionModelList = findConnectionModel(oldId);
+            }
+
+            db.delete(TABLE_NAME, FileDownloadModel.ID + " = ?", new String[]{String.valueOf(oldId)});
+            db.delete(CONNECTION_TABLE_NAME, ConnectionModel.ID + " = ?", new String[]{String.valueOf(oldId)});
+
+            // the new one is used by the task started with the new id, or it is removed, so the
+            // old one is only removed.
+            if (!isNewClaimed) {
+                db.insert(TABLE_NAME, null, modelWithNewId.toContentValues());
+                if (connectionModelList != null) {
+                    for (ConnectionModel connectionModel : connectionModelList) {
+                        connectionModel.setId(newId);
+                        db.insert(CONNECTION_TABLE_NAME, null, connectionModel.toContentValues());
+                    }
+                }
+            }
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static FileDownloadModel createModel(Cursor c) {
+        final FileDownloadModel model = new FileDownloadModel();
+        model.setId(c.getInt(c.getColumnIndex(FileDownloadModel.ID)));
+        model.setUrl(c.getString(c.getColumnIndex(FileDownloadModel.URL)));
+        model.setPath(c.getString(c.getColumnIndex(FileDownloadModel.PATH)),
+                c.getShort(c.getColumnIndex(FileDownloadModel.PATH_AS_DIRECTORY)) == 1);
+        model.setStatus((byte) c.getShort(c.getColumnIndex(FileDownloadModel.STATUS)));
+        model.setSoFar(c.getLong(c.getColumnIndex(FileDownloadModel.SOFAR)));
+        model.setTotal(c.getLong(c.getColumnIndex(FileDownloadModel.TOTAL)));
+        model.setErrMsg(c.getString(c.getColumnIndex(FileDownloadModel.ERR_MSG)));
+        model.setETag(c.getString(c.getColumnIndex(FileDownloadModel.ETAG)));
+        model.setFilename(c.getString(c.getColumnIndex(FileDownloadModel.FILENAME)));
+        model.setConnectionCount(c.getInt(c.getColumnIndex(FileDownloadModel.CONNECTION_COUNT)));
+        return model;
     }
 
     @Override
@@ -88,35 +299,83 @@ class DefaultDatabaseImpl implements FileDownloadDatabase {
 
     @Override
     public void removeConnections(int id) {
-        db.execSQL("DELETE FROM " + CONNECTION_TABLE_NAME + " WHERE " +
-                ConnectionModel.ID + " = " + id);
+        synchronized (removeConnectionsStatement) {
+            removeConnectionsStatement.bindLong(1, id);
+            removeConnectionsStatement.executeUpdateDelete();
+        }
     }
 
     @Override
     public void insertConnectionModel(ConnectionModel model) {
-        db.insert(CONNECTION_TABLE_NAME, null, model.toContentValues());
+        synchronized (insertConnectionStatement) {
+            insertConnectionStatement.bindLong(1, model.getId());
+            insertConnectionStatement.bindLong(2, model.getIndex());
+            insertConnectionStatement.bindLong(3, model.getStartOffset());
+            insertConnectionStatement.bindLong(4, model.getCurrentOffset());
+            insertConnectionStatement.bindLong(5, model.getEndOffset());
+            try {
+                insertConnectionStatement.executeInsert();
+            } catch (SQLException e) {
+                // keep the same as the SQLiteDatabase#insert, which only logs the failure.
+                FileDownloadLog.w(this, "insert connection model %s failed: %s", model, e);
+            }
+        }
     }
 
     @Override
     public void updateConnectionModel(int id, int index, long currentOffset) {
-        final ContentValues values = new ContentValues();
-        values.put(ConnectionModel.CURRENT_OFFSET, currentOffset);
-        db.update(CONNECTION_TABLE_NAME, values
-                , ConnectionModel.ID + " = ? AND " + ConnectionModel.INDEX + " = ?"
-                , new String[]{Integer.toString(id), Integer.toString(index)});
+        synchronized (updateConnectionStatement) {
+            updateConnectionStatement.bindLong(1, currentOffset);
+            updateConnectionStatement.bindLong(2, id);
+            updateConnectionStatement.bindLong(3, index);
+            updateConnectionStatement.executeUpdateDelete();
+        }
+    }
+
+    @Override
+    public void splitConnectionModel(int id, int fromIndex, ConnectionModel splitModel,
+                                     int connectionCount) {
+        db.beginTransaction();
+        try {
+            final ContentValues values = new ContentValues();
+            values.put(ConnectionModel.END_OFFSET, splitModel.getStartOffset() - 1);
+            db.update(CONNECTION_TABLE_NAME, values
+                    , ConnectionModel.ID + " = ? AND " + ConnectionModel.INDEX + " = ?"
+                    , new String[]{Integer.toString(id), Integer.toString(fromIndex)});
+            db.insert(CONNECTION_TABLE_NAME, null, splitModel.toContentValues());
+            updateConnectionCount(id, connectionCount);
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public void runInTransaction(Runnable operations) {
+        db.beginTransaction();
+        try {
+            operations.run();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
     }
 
     @Override
     public void updateConnectionCount(int id, int count) {
-        ContentValues values = new ContentValues();
-        values.put(FileDownloadModel.CONNECTION_COUNT, count);
-        db.update(TABLE_NAME, values
-                , FileDownloadModel.ID + " = ? ", new String[]{Integer.toString(id)});
+        synchronized (updateConnectionCountStatement) {
+            updateConnectionCountStatement.bindLong(1, count);
+            updateConnectionCountStatement.bindLong(2, id);
+            updateConnectionCountStatement.executeUpdateDelete();
+        }
     }
 
     @Override
     public void insert(FileDownloadModel downloadModel) {
-        downloaderModelMap.put(downloadModel.getId(), downloadModel);
+        synchronized (downloaderModelMap) {
+            downloaderModelMap.put(downloadModel.getId(), downloadModel);
+        }
 
         // db
         db.insert(TABLE_NAME, null, downloadModel.toContentValues());
@@ -131,8 +390,10 @@ class DefaultDatabaseImpl implements FileDownloadDatabase {
 
         if (find(downloadModel.getId()) != null) {
             // 替换
-            downloaderModelMap.remove(downloadModel.getId());
-            downloaderModelMap.put(downloadModel.getId(), downloadModel);
+            synchronized (downloaderModelMap) {
+                downloaderModelMap.remove(downloadModel.getId());
+                downloaderModelMap.put(downloadModel.getId(), downloadModel);
+            }
 
             // db
             ContentValues cv = downloadModel.toContentValues();
@@ -144,19 +405,28 @@ class DefaultDatabaseImpl implements FileDownloadDatabase {
 
     @Override
     public boolean remove(int id) {
-        downloaderModelMap.remove(id);
+        // under the lock, so it isn't loaded again on finding before it is deleted.
+        synchronized (downloaderModelMap) {
+            downloaderModelMap.remove(id);
+            if (!isMaintained) removedIdSet.add(id);
 
-        // db
-        return db.delete(TABLE_NAME, FileDownloadModel.ID + " = ?", new String[]{String.valueOf(id)})
-                != 0;
+            // db
+            return db.delete(TABLE_NAME, FileDownloadModel.ID + " = ?",
+                    new String[]{String.valueOf(id)}) != 0;
+        }
     }
 
     @Override
     public void clear() {
-        downloaderModelMap.clear();
-
-        db.delete(TABLE_NAME, null, null);
-        db.delete(CONNECTION_TABLE_NAME, null, null);
+        synchronized (downloaderModelMap) {
+            downloaderModelMap.clear();
+            clearGeneration++;
+            removedIdSet.clear();
+            oldIdMap = null;
+
+            db.delete(TABLE_NAME, null, null);
+            db.delete(CONNECTION_TABLE_NAME, null, null);
+        }
     }
 
     @Override
@@ -184,11 +454,12 @@ class DefaultDatabaseImpl implements FileDownloadDatabase {
 
     @Override
     public void updateProgress(int id, long sofarBytes) {
-        ContentValues cv = new ContentValues();
-        cv.put(FileDownloadModel.STATUS, FileDownloadStatus.progress);
-        cv.put(FileDownloadModel.SOFAR, sofarBytes);
-
-        update(id, cv);
+        synchronized (updateProgressStatement) {
+            updateProgressStatement.bindLong(1, FileDownloadStatus.progress);
+            updateProgressStatement.bindLong(2, sofarBytes);
+            updateProgressStatement.bindLong(3, id);
+            updateProgressStatement.executeUpdateDelete();
+        }
     }
 
     @Override
@@ -238,57 +509,67 @@ class DefaultDatabaseImpl implements FileDownloadDatabase {
         db.update(TABLE_NAME, cv, FileDownloadModel.ID + " = ? ", new String[]{String.valueOf(id)});
     }
 
-    class Maintainer implements FileDownloadDatabase.Maintainer {
+    class Maintainer implements FileDownloadDatabase.LazyMaintainer {
 
         private final SparseArray<FileDownloadModel> needChangeIdList = new SparseArray<>();
         private MaintainerIterator currentIterator;
+        // the models read before the clearing are never restored.
+        private final int generation;
+
+        Maintainer() {
+            synchronized (downloaderModelMap) {
+                generation = clearGeneration;
+            }
+        }
+
+        // must hold the downloader model map.
+        private boolean isCleared() {
+            return generation != clearGeneration;
+        }
 
         @Override
         public Iterator<FileDownloadModel> iterator() {
-            return currentIterator = new MaintainerIterator();
+            return currentIterator = new MaintainerIterator(this);
         }
 
         @Override
         public void onFinishMaintain() {
-            if (currentIterator != null) currentIterator.onFinishMaintain();
-
-            final int length = needChangeIdList.size();
-            if (length < 0) return;
-
-            db.beginTransaction();
             try {
+                if (currentIterator != null) currentIterator.onFinishMaintain();
+
+                final int length = needChangeIdList.size();
                 for (int i = 0; i < length; i++) {
                     final int oldId = needChangeIdList.keyAt(i);
                     final FileDownloadModel modelWithNewId = needChangeIdList.get(oldId);
-                    db.delete(TABLE_NAME, FileDownloadModel.ID + " = ?", new String[]{String.valueOf(oldId)});
-                    db.insert(TABLE_NAME, null, modelWithNewId.toContentValues());
-
-                    if (modelWithNewId.getConnectionCount() > 1) {
-                        List<ConnectionModel> connectionModelList = findConnectionModel(oldId);
-                        if (connectionModelList.size() <= 0) continue;
-
-                        db.delete(CONNECTION_TABLE_NAME, ConnectionModel.ID + " = ?", new String[]{String.valueOf(oldId)});
-                        for (ConnectionModel connectionModel : connectionModelList) {
-                            connectionModel.setId(modelWithNewId.getId());
-                            db.insert(CONNECTION_TABLE_NAME, null, connectionModel.toContentValues());
-                        }
+                    synchronized (downloaderModelMap) {
+                        if (!isCleared()) changeId(oldId, modelWithNewId);
                     }
                 }
-
-                db.setTransactionSuccessful();
             } finally {
-                db.endTransaction();
+                synchronized (downloaderModelMap) {
+                    isMaintained = true;
+                    removedIdSet.clear();
+                    oldIdMap = null;
+                }
             }
-
         }
 
         @Override
         public void onRemovedInvalidData(FileDownloadModel model) {
+            if (currentIterator != null) currentIterator.needRemoveId.add(model.getId());
         }
 
         @Override
         public void onRefreshedValidData(FileDownloadModel model) {
-            downloaderModelMap.put(model.getId(), model);
+            synchronized (downloaderModelMap) {
+                // removed or cleared since it is read, so it must not be restored.
+                if (isCleared() || removedIdSet.contains(model.getId())) return;
+
+                // the one on the memory has been found or written since the maintaining begins.
+                if (downloaderModelMap.get(model.getId()) == null) {
+                    downloaderModelMap.put(model.getId(), model);
+                }
+            }
         }
 
         @Override
@@ -298,12 +579,16 @@ class DefaultDatabaseImpl implements FileDownloadDatabase {
 
     }
 
+    private final static int REMOVE_CHUNK_SIZE = 500;
+
     class MaintainerIterator implements Iterator<FileDownloadModel> {
         private final Cursor c;
         private final List<Integer> needRemoveId = new ArrayList<>();
+        private final Maintainer maintainer;
         private int currentId;
 
-        MaintainerIterator() {
+        MaintainerIterator(Maintainer maintainer) {
+            this.maintainer = maintainer;
             c = db.rawQuery("SELECT * FROM " + TABLE_NAME, null);
         }
 
@@ -314,19 +599,7 @@ class DefaultDatabaseImpl implements FileDownloadDatabase {
 
         @Override
         public FileDownloadModel next() {
-            final FileDownloadModel model = new FileDownloadModel();
-            model.setId(c.getInt(c.getColumnIndex(FileDownloadModel.ID)));
-            model.setUrl(c.getString(c.getColumnIndex(FileDownloadModel.URL)));
-            model.setPath(c.getString(c.getColumnIndex(FileDownloadModel.PATH)),
-                    c.getShort(c.getColumnIndex(FileDownloadModel.PATH_AS_DIRECTORY)) == 1);
-            model.setStatus((byte) c.getShort(c.getColumnIndex(FileDownloadModel.STATUS)));
-            model.setSoFar(c.getLong(c.getColumnIndex(FileDownloadModel.SOFAR)));
-            model.setTotal(c.getLong(c.getColumnIndex(FileDownloadModel.TOTAL)));
-            model.setErrMsg(c.getString(c.getColumnIndex(FileDownloadModel.ERR_MSG)));
-            model.setETag(c.getString(c.getColumnIndex(FileDownloadModel.ETAG)));
-            model.setFilename(c.getString(c.getColumnIndex(FileDownloadModel.FILENAME)));
-            model.setConnectionCount(c.getInt(c.getColumnIndex(FileDownloadModel.CONNECTION_COUNT)));
-
+            final FileDownloadModel model = createModel(c);
             currentId = model.getId();
 
             return model;
@@ -337,19 +610,46 @@ class DefaultDatabaseImpl implements FileDownloadDatabase {
             needRemoveId.add(currentId);
         }
 
+        /**
+         * Remove the invalid ones in chunks, so the finding is never blocked for long, and the
+         * ones on the memory are kept.
+         */
         void onFinishMaintain() {
             c.close();
 
-            if (!needRemoveId.isEmpty()) {
-                String args = TextUtils.join(", ", needRemoveId);
-                if (FileDownloadLog.NEED_LOG) {
-                    FileDownloadLog.d(this, "delete %s", args);
+            final int size = needRemoveId.size();
+            for (int from = 0; from < size; from += REMOVE_CHUNK_SIZE) {
+                final List<Integer> chunk = needRemoveId.subList(from,
+                        Math.min(size, from + REMOVE_CHUNK_SIZE));
+                synchronized (downloaderModelMap) {
+                    // the rows inserted after the clearing aren't the ones read.
+                    if (!maintainer.isCleared()) removeChunk(chunk);
                 }
-                //noinspection ThrowFromFinallyBlock
+            }
+        }
+
+        // must hold the downloader model map.
+        private void removeChunk(List<Integer> chunk) {
+            final List<Integer> removeIdList = new ArrayList<>(chunk.size());
+            for (Integer id : chunk) {
+                if (downloaderModelMap.get(id) == null) removeIdList.add(id);
+            }
+            if (removeIdList.isEmpty()) return;
+
+            final String args = TextUtils.join(", ", removeIdList);
+            if (FileDownloadLog.NEED_LOG) {
+                FileDownloadLog.d(this, "delete %s", args);
+            }
+
+            db.beginTransaction();
+            try {
                 db.execSQL(FileDownloadUtils.formatString("DELETE FROM %s WHERE %s IN (%s);",
                         TABLE_NAME, FileDownloadModel.ID, args));
                 db.execSQL(FileDownloadUtils.formatString("DELETE FROM %s WHERE %s IN (%s);",
                         CONNECTION_TABLE_NAME, ConnectionModel.ID, args));
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
             }
         }
 
@@ -18,8 +18,8 @@ package com.zy.xxl.zyfiledownloader.download.filedownloader.services;
 
 
 import com.zy.xxl.zyfiledownloader.download.filedownloader.connection.DefaultConnectionCountAdapter;
-import com.zy.xxl.zyfiledownloader.download.filedownloader.connection.FileDownloadUrlConnection;
-import com.zy.xxl.zyfiledownloader.download.filedownloader.stream.FileDownloadRandomAccessFile;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.connection.FileDownloadKeepAliveConnection;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.stream.FileDownloadChannelOutputStream;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadHelper;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadLog;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadProperties;
@@ -64,6 +64,11 @@ public class DownloadMgrInitialParams {
     }
 
     public FileDownloadDatabase createDatabase() {
+        // the hot updates of the progress are coalesced and written behind.
+        return new WriteBehindDatabase(createDatabaseDelegate());
+    }
+
+    private FileDownloadDatabase createDatabaseDelegate() {
         if (mMaker == null || mMaker.mDatabaseCustomMaker == null) {
             return createDefaultDatabase();
         }
@@ -189,7 +194,7 @@ public class DownloadMgrInitialParams {
     }
 
     private FileDownloadHelper.OutputStreamCreator createDefaultOutputStreamCreator() {
-        return new FileDownloadRandomAccessFile.Creator();
+        return new FileDownloadChannelOutputStream.Creator();
     }
 
     /**
@@ -197,7 +202,7 @@ public class DownloadMgrInitialParams {
      * @return
      */
     private FileDownloadHelper.ConnectionCreator createDefaultConnectionCreator() {
-        return new FileDownloadUrlConnection.Creator();
+        return new FileDownloadKeepAliveConnection.Creator();
     }
 
     /**
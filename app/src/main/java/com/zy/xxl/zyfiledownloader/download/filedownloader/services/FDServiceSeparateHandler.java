@@ -21,6 +21,7 @@ import android.os.IBinder;
 import android.os.RemoteCallbackList;
 import android.os.RemoteException;
 
+import com.zy.xxl.zyfiledownloader.download.filedownloader.download.BandwidthManager;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.message.MessageSnapshot;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.message.MessageSnapshotFlow;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadHeader;
@@ -82,10 +83,11 @@ public class FDServiceSeparateHandler extends IFileDownloadIPCService.Stub
     @Override
     public void start(String url, String path, boolean pathAsDirectory, int callbackProgressTimes,
                       int callbackProgressMinIntervalMillis, int autoRetryTimes, boolean forceReDownload,
-                      FileDownloadHeader header, boolean isWifiRequired) throws RemoteException {
+                      FileDownloadHeader header, boolean isWifiRequired,
+                      int priority) throws RemoteException {
         downloadManager.start(url, path, pathAsDirectory, callbackProgressTimes,
                 callbackProgressMinIntervalMillis, autoRetryTimes, forceReDownload, header,
-                isWifiRequired);
+                isWifiRequired, priority);
     }
 
     @Override
@@ -103,6 +105,26 @@ public class FDServiceSeparateHandler extends IFileDownloadIPCService.Stub
         return downloadManager.setMaxNetworkThreadCount(count);
     }
 
+    @Override
+    public int getMaxNetworkThreadCount() throws RemoteException {
+        return downloadManager.getMaxNetworkThreadCount();
+    }
+
+    @Override
+    public boolean setTaskPriority(int downloadId, int priority) throws RemoteException {
+        return downloadManager.setTaskPriority(downloadId, priority);
+    }
+
+    @Override
+    public void setMaxBandwidth(long bytesPerSecond) throws RemoteException {
+        BandwidthManager.getImpl().setMaxBandwidth(bytesPerSecond);
+    }
+
+    @Override
+    public void setTaskMaxBandwidth(int downloadId, long bytesPerSecond) throws RemoteException {
+        BandwidthManager.getImpl().setTaskMaxBandwidth(downloadId, bytesPerSecond);
+    }
+
     @Override
     public long getSofar(int downloadId) throws RemoteException {
         return downloadManager.getSoFar(downloadId);
@@ -20,6 +20,7 @@ import android.content.Intent;
 import android.os.IBinder;
 
 import com.zy.xxl.zyfiledownloader.download.filedownloader.FileDownloadServiceProxy;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.download.BandwidthManager;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadHeader;
 import com.zy.xxl.zyfiledownloader.i.IFileDownloadIPCCallback;
 import com.zy.xxl.zyfiledownloader.i.IFileDownloadIPCService;
@@ -57,10 +58,11 @@ public class FDServiceSharedHandler extends IFileDownloadIPCService.Stub
     @Override
     public void start(String url, String path, boolean pathAsDirectory, int callbackProgressTimes,
                       int callbackProgressMinIntervalMillis, int autoRetryTimes, boolean forceReDownload,
-                      FileDownloadHeader header, boolean isWifiRequired) {
+                      FileDownloadHeader header, boolean isWifiRequired,
+                      int priority) {
         downloadManager.start(url, path, pathAsDirectory, callbackProgressTimes,
                 callbackProgressMinIntervalMillis, autoRetryTimes, forceReDownload, header,
-                isWifiRequired);
+                isWifiRequired, priority);
     }
 
     @Override
@@ -78,6 +80,26 @@ public class FDServiceSharedHandler extends IFileDownloadIPCService.Stub
         return downloadManager.setMaxNetworkThreadCount(count);
     }
 
+    @Override
+    public int getMaxNetworkThreadCount() {
+        return downloadManager.getMaxNetworkThreadCount();
+    }
+
+    @Override
+    public boolean setTaskPriority(int downloadId, int priority) {
+        return downloadManager.setTaskPriority(downloadId, priority);
+    }
+
+    @Override
+    public void setMaxBandwidth(long bytesPerSecond) {
+        BandwidthManager.getImpl().setMaxBandwidth(bytesPerSecond);
+    }
+
+    @Override
+    public void setTaskMaxBandwidth(int downloadId, long bytesPerSecond) {
+        BandwidthManager.getImpl().setTaskMaxBandwidth(downloadId, bytesPerSecond);
+    }
+
     @Override
     public long getSofar(int downloadId) {
         return downloadManager.getSoFar(downloadId);
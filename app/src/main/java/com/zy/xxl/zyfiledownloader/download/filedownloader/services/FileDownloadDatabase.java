@@ -76,6 +76,30 @@ public interface FileDownloadDatabase {
      */
     void updateConnectionModel(int id, int index, long currentOffset);
 
+    /**
+     * Split the tail of the range which belongs to the connection with {@code fromIndex} out to
+     * the {@code splitModel}: the end offset of the connection with {@code fromIndex} is shrunk to
+     * {@code splitModel.getStartOffset() - 1}, the {@code splitModel} is inserted to the connection
+     * table, and the count of connection is updated to {@code connectionCount}.
+     * <p>
+     * These must be persisted together, otherwise the ranges on the connection table would overlap
+     * or leave a gap when resuming from the breakpoint.
+     *
+     * @param id              the download id.
+     * @param fromIndex       the index of the connection whose range is split.
+     * @param splitModel      the connection model which takes over the tail of the range.
+     * @param connectionCount the new count of connection.
+     */
+    void splitConnectionModel(int id, int fromIndex, ConnectionModel splitModel, int connectionCount);
+
+    /**
+     * Run all operations on this database invoked in the {@code operations} in one transaction, so
+     * they are committed together only once.
+     *
+     * @param operations the operations on this database.
+     */
+    void runInTransaction(Runnable operations);
+
     /**
      * Update the count of connection.
      *
@@ -221,4 +245,31 @@ public interface FileDownloadDatabase {
          */
         void changeFileDownloadModelId(int oldId, FileDownloadModel modelWithNewId);
     }
+
+    /**
+     * The maintainer which is run on the background rather than blocking the database to be used.
+     * <p>
+     * The database loads and maintains the model on {@link #find(int)} by itself before the
+     * maintaining is finished, and the maintainer never touches the models have been found or
+     * written since then.
+     * <p>
+     * The invalid models are removed through {@link #onRemovedInvalidData(FileDownloadModel)}
+     * rather than {@link java.util.Iterator#remove()}, so the models can be checked in batch.
+     */
+    interface LazyMaintainer extends Maintainer {
+    }
+
+    /**
+     * The database which defers the hot updates({@link #updateConnectionModel(int, int, long)} and
+     * {@link #updateProgress(int, long)}) on the memory rather than committing them at once.
+     */
+    interface WriteBehind {
+        /**
+         * The same to {@link #runInTransaction(Runnable)}, but the hot updates invoked in the
+         * {@code operations} are never deferred, so they have been committed when it returns.
+         *
+         * @param operations the operations on this database.
+         */
+        void runInDurableTransaction(Runnable operations);
+    }
 }
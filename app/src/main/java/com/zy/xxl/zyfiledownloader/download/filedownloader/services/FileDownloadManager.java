@@ -59,7 +59,8 @@ class FileDownloadManager implements IThreadPoolMonitor {
                                    final int callbackProgressTimes,
                                    final int callbackProgressMinIntervalMillis,
                                    final int autoRetryTimes, final boolean forceReDownload,
-                                   final FileDownloadHeader header, final boolean isWifiRequired) {
+                                   final FileDownloadHeader header, final boolean isWifiRequired,
+                                   final int priority) {
         if (FileDownloadLog.NEED_LOG) {
             FileDownloadLog.d(this, "request start the task with url(%s) path(%s) isDirectory(%B)",
                     url, path, pathAsDirectory);
@@ -184,6 +185,7 @@ class FileDownloadManager implements IThreadPoolMonitor {
                         .setForceReDownload(forceReDownload)
                         .setWifiRequired(isWifiRequired)
                         .setMaxRetryTimes(autoRetryTimes)
+                        .setPriority(priority)
                         .build();
 
         // - execute
@@ -231,6 +233,10 @@ class FileDownloadManager implements IThreadPoolMonitor {
 
 
     public long getSoFar(final int id) {
+        // the running task counts the progress on the memory.
+        final long runningSoFar = mThreadPool.getRunningSoFar(id);
+        if (runningSoFar >= 0) return runningSoFar;
+
         final FileDownloadModel model = mDatabase.find(id);
         if (model == null) {
             return 0;
@@ -240,12 +246,9 @@ class FileDownloadManager implements IThreadPoolMonitor {
         if (connectionCount <= 1) {
             return model.getSoFar();
         } else {
+            // the downloaded ranges are valid even though the rows don't match the connection count.
             final List<ConnectionModel> modelList = mDatabase.findConnectionModel(id);
-            if (modelList == null || modelList.size() != connectionCount) {
-                return 0;
-            } else {
-                return ConnectionModel.getTotalOffset(modelList);
-            }
+            return ConnectionModel.getTotalOffset(modelList);
         }
     }
 
@@ -285,6 +288,18 @@ class FileDownloadManager implements IThreadPoolMonitor {
         return mThreadPool.setMaxNetworkThreadCount(count);
     }
 
+    public int getMaxNetworkThreadCount() {
+        return mThreadPool.getMaxNetworkThreadCount();
+    }
+
+    /**
+     * 修改任务的优先级
+     * @return {@code true} if the task is in the network thread pool.
+     */
+    public boolean setTaskPriority(int id, int priority) {
+        return mThreadPool.setTaskPriority(id, priority);
+    }
+
     /**
      * 是否正在下载
      * @param model
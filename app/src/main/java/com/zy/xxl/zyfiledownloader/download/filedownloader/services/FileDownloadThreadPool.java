@@ -16,33 +16,89 @@
 
 package com.zy.xxl.zyfiledownloader.download.filedownloader.services;
 
-import android.util.SparseArray;
-
 import com.zy.xxl.zyfiledownloader.download.filedownloader.download.DownloadLaunchRunnable;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadExecutors;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadLog;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadProperties;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.IntObjectMap;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 已完成
  * The thread pool for driving the downloading runnable, which real access（进入；使用权；通路） the network.
+ * <p>
+ * The runnables waiting for the network threads are ordered by the priority of their tasks, and
+ * in the order they are executed for the same priority.
  */
 class FileDownloadThreadPool {
 
-    private SparseArray<DownloadLaunchRunnable> runnablePool = new SparseArray<>();
+    private final IntObjectMap<DownloadLaunchRunnable> runnablePool = new IntObjectMap<>();
 
-    private ThreadPoolExecutor mThreadPool;
+    private final ThreadPoolExecutor mThreadPool;
+
+    /**
+     * Execute the launch runnables admitted for their hosts on the network threads, ordered by
+     * their priority.
+     * <p>
+     * The max network thread count only limits the launch runnables, the connections of the
+     * multi-connection tasks run outside of this pool and they are only limited by the
+     * {@link com.zy.xxl.zyfiledownloader.download.filedownloader.download.ConnectionBudget}, so a
+     * connection never holds its budget while waiting for a network thread.
+     */
+    private final Executor launchExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            if (command instanceof DownloadLaunchRunnable) {
+                // queued for the network threads once the request to its host is allowed.
+                ((DownloadLaunchRunnable) command).executeWhenRequestAllowed(priorityExecutor);
+            } else {
+                priorityExecutor.execute(command);
+            }
+        }
+    };
+
+    private final Executor priorityExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mThreadPool.execute(new PriorityRunnable(command, getPriority(command),
+                    sequenceGenerator.getAndIncrement()));
+        }
+    };
+
+    private final AtomicLong sequenceGenerator = new AtomicLong();
+
+    // the launch runnables running on the network threads, the multi-connection task leaves it
+    // once its sub-tasks are dispatched.
+    private final Set<DownloadLaunchRunnable> runningOnThreadSet = new HashSet<>();
+
+    private final DownloadLaunchRunnable.OnFinishedListener onFinishedListener =
+            new DownloadLaunchRunnable.OnFinishedListener() {
+                @Override
+                public void onFinished(DownloadLaunchRunnable runnable) {
+                    admissionScheduler.onFinished(runnable);
+                    resumePreempted(runnable);
+                }
+            };
 
     private final String THREAD_PREFIX = "Network";
     private int mMaxThreadCount;
+    private final HostAdmissionScheduler admissionScheduler;
+    private final boolean isPreemptionEnabled;
 
     FileDownloadThreadPool(final int maxNetworkThreadCount) {
-        mThreadPool = FileDownloadExecutors.newDefaultThreadPool(maxNetworkThreadCount, THREAD_PREFIX);
+        mThreadPool = newThreadPool(maxNetworkThreadCount);
         mMaxThreadCount = maxNetworkThreadCount;
+        isPreemptionEnabled = FileDownloadProperties.getImpl().DOWNLOAD_PRIORITY_PREEMPTION;
+        admissionScheduler = new HostAdmissionScheduler(launchExecutor,
+                FileDownloadProperties.getImpl().DOWNLOAD_MAX_TASK_COUNT_PER_HOST);
     }
 
     /**
@@ -51,35 +107,102 @@ class FileDownloadThreadPool {
      * @return
      */
     public synchronized boolean setMaxNetworkThreadCount(int count) {
-        if (exactSize() > 0) {
-            FileDownloadLog.w(this, "Can't change the max network thread count, because the " +
-                    " network thread pool isn't in IDLE, please try again after all running" +
-                    " tasks are completed or invoking FileDownloader#pauseAll directly.");
-            return false;
-        }
-
         final int validCount = FileDownloadProperties.getValidNetworkThreadCount(count);
+        if (validCount == mMaxThreadCount) return true;
 
         if (FileDownloadLog.NEED_LOG) {
             FileDownloadLog.d(this, "change the max network thread count, from %d to %d",
                     mMaxThreadCount, validCount);
         }
 
-        final List<Runnable> taskQueue = mThreadPool.shutdownNow();
-        mThreadPool = FileDownloadExecutors.newDefaultThreadPool(validCount, THREAD_PREFIX);
-
-        if (taskQueue.size() > 0) {
-            /**
-             * discard ( 抛弃；放弃；丢弃)
-             */
-            FileDownloadLog.w(this, "recreate the network thread pool and discard %d tasks",
-                    taskQueue.size());
+        // resize in place, the core size must never be larger than the maximum size.
+        if (validCount > mMaxThreadCount) {
+            mThreadPool.setMaximumPoolSize(validCount);
+            // the new threads are started for the queued runnables at once.
+            mThreadPool.setCorePoolSize(validCount);
+        } else {
+            // the excess threads are terminated when their runnables are done.
+            mThreadPool.setCorePoolSize(validCount);
+            mThreadPool.setMaximumPoolSize(validCount);
         }
 
         mMaxThreadCount = validCount;
+
+        if (isPreemptionEnabled) preemptExcess();
         return true;
     }
 
+    /**
+     * @return the effective max count of the network threads, the threads more than it are
+     * terminated after their runnables are done.
+     */
+    public synchronized int getMaxNetworkThreadCount() {
+        return mMaxThreadCount;
+    }
+
+    /**
+     * Pause the tasks running on the network threads more than the max count with the lowest
+     * priority, they are queued again and resumed from the breakpoint when the network threads are
+     * available.
+     */
+    private void preemptExcess() {
+        final List<DownloadLaunchRunnable> runningList = getRunningOnThreadList();
+
+        // the preempted ones have been excluded, they release their threads soon.
+        int excessCount = runningList.size() - mMaxThreadCount;
+        while (excessCount-- > 0) {
+            DownloadLaunchRunnable lowest = null;
+            for (DownloadLaunchRunnable runnable : runningList) {
+                if (lowest == null || runnable.getPriority() < lowest.getPriority()) {
+                    lowest = runnable;
+                }
+            }
+
+            runningList.remove(lowest);
+            if (FileDownloadLog.NEED_LOG) {
+                FileDownloadLog.d(this, "preempt the task[%d] for shrinking the network threads",
+                        lowest.getId());
+            }
+            lowest.preempt();
+        }
+    }
+
+
+    private ThreadPoolExecutor newThreadPool(int count) {
+        return FileDownloadExecutors.newDefaultThreadPool(count,
+                new PriorityBlockingQueue<Runnable>(), THREAD_PREFIX);
+    }
+
+    /**
+     * 修改任务的优先级
+     * Change the priority of the task, its runnables waiting for the network threads are reordered
+     * at once.
+     *
+     * @return {@code true} if the task is in the pool.
+     */
+    public synchronized boolean setTaskPriority(int id, int priority) {
+        final DownloadLaunchRunnable runnable = runnablePool.get(id);
+        if (runnable == null || !runnable.isAlive()) return false;
+
+        runnable.setPriority(priority);
+        for (Runnable queued : mThreadPool.getQueue().toArray(new Runnable[0])) {
+            final PriorityRunnable priorityRunnable = (PriorityRunnable) queued;
+            if (priorityRunnable.priority == getPriority(priorityRunnable.runnable)) continue;
+
+            // the order in the priority queue is decided on inserting, so insert it again.
+            if (mThreadPool.remove(priorityRunnable)) {
+                mThreadPool.execute(new PriorityRunnable(priorityRunnable.runnable,
+                        getPriority(priorityRunnable.runnable), priorityRunnable.sequence));
+            }
+        }
+
+        if (FileDownloadLog.NEED_LOG) {
+            FileDownloadLog.d(this, "change the priority of the task[%d] to %d", id, priority);
+        }
+
+        preemptFor(runnable);
+        return true;
+    }
 
     /**
      * 执行
@@ -88,10 +211,13 @@ class FileDownloadThreadPool {
      */
     public void execute(DownloadLaunchRunnable launchRunnable) {
         launchRunnable.pending();
+        launchRunnable.setOnFinishedListener(onFinishedListener);
         synchronized (this) {
             runnablePool.put(launchRunnable.getId(), launchRunnable);
         }
-        mThreadPool.execute(launchRunnable);
+        // the task may be queued for its host before it is executed on the network thread.
+        admissionScheduler.admit(launchRunnable);
+        preemptFor(launchRunnable);
 
         /**
          * threshold (. 入口；门槛；开始；极限；临界值)
@@ -115,7 +241,12 @@ class FileDownloadThreadPool {
             DownloadLaunchRunnable r = runnablePool.get(id);
             if (r != null) {
                 r.pause();
-                boolean result = mThreadPool.remove(r);
+                boolean result = admissionScheduler.remove(r);
+                if (!result && removeQueued(r)) {
+                    // it never runs, so it never finishes by itself.
+                    admissionScheduler.onFinished(r);
+                    result = true;
+                }
                 if (FileDownloadLog.NEED_LOG) {
                     // If {@code result} is false, must be: the Runnable has been running before
                     // invoke this method.
@@ -129,18 +260,136 @@ class FileDownloadThreadPool {
 
     private int mIgnoreCheckTimes = 0;
 
+    private synchronized boolean removeQueued(DownloadLaunchRunnable launchRunnable) {
+        for (Runnable queued : mThreadPool.getQueue().toArray(new Runnable[0])) {
+            if (((PriorityRunnable) queued).runnable == launchRunnable) {
+                return mThreadPool.remove(queued);
+            }
+        }
+        return false;
+    }
+
+    private boolean isQueued(DownloadLaunchRunnable launchRunnable) {
+        for (Runnable queued : mThreadPool.getQueue()) {
+            if (((PriorityRunnable) queued).runnable == launchRunnable) return true;
+        }
+        return false;
+    }
+
+    /**
+     * If the {@code launchRunnable} is waiting for the network threads, pause the running task with
+     * the lowest priority which is lower than it, the paused one is executed again when it is
+     * finished, through {@link #resumePreempted(DownloadLaunchRunnable)}.
+     */
+    private synchronized void preemptFor(DownloadLaunchRunnable launchRunnable) {
+        if (!isPreemptionEnabled || !isQueued(launchRunnable)) return;
+
+        DownloadLaunchRunnable lowest = null;
+        // only the one on the network thread can release the thread for it.
+        for (DownloadLaunchRunnable runnable : getRunningOnThreadList()) {
+            if (runnable.getPriority() >= launchRunnable.getPriority()) continue;
+            if (lowest == null || runnable.getPriority() < lowest.getPriority()) lowest = runnable;
+        }
+
+        if (lowest == null) return;
+
+        if (FileDownloadLog.NEED_LOG) {
+            FileDownloadLog.d(this, "the task[%d] with priority %d preempts the task[%d] with" +
+                            " priority %d", launchRunnable.getId(), launchRunnable.getPriority(),
+                    lowest.getId(), lowest.getPriority());
+        }
+        lowest.preempt();
+    }
+
+    /**
+     * The preempted task is queued again to resume from the breakpoint, unless it has been paused
+     * by the user. The preempted one never sends any over status, so the task is downloading on
+     * the client all along, and the pending, started and connected status of the resumed one are
+     * dropped there by {@link
+     * com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadStatus#isKeepFlow(int, int)}.
+     * <p>
+     * The user pause is through {@link #cancel(int)} which holds the same lock, so it is either
+     * before this, and the paused status is persisted instead, or on the resumed one.
+     */
+    private synchronized void resumePreempted(DownloadLaunchRunnable runnable) {
+        if (!runnable.isFinishedForPreemption()
+                || runnablePool.get(runnable.getId()) != runnable) {
+            return;
+        }
+
+        if (FileDownloadLog.NEED_LOG) {
+            FileDownloadLog.d(this, "requeue the preempted task[%d]", runnable.getId());
+        }
+        execute(runnable.copyForResume());
+    }
+
+    /**
+     * @return the tasks running on the network threads which haven't been preempted.
+     */
+    private List<DownloadLaunchRunnable> getRunningOnThreadList() {
+        final List<DownloadLaunchRunnable> runningList = new ArrayList<>();
+        synchronized (runningOnThreadSet) {
+            for (DownloadLaunchRunnable runnable : runningOnThreadSet) {
+                if (runnable.isAlive() && !runnable.isPreempted()) runningList.add(runnable);
+            }
+        }
+        return runningList;
+    }
+
+    private static int getPriority(Runnable runnable) {
+        if (runnable instanceof DownloadLaunchRunnable) {
+            return ((DownloadLaunchRunnable) runnable).getPriority();
+        }
+        return 0;
+    }
+
+    private class PriorityRunnable implements Runnable, Comparable<PriorityRunnable> {
+        final Runnable runnable;
+        final int priority;
+        final long sequence;
+
+        PriorityRunnable(Runnable runnable, int priority, long sequence) {
+            this.runnable = runnable;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            final DownloadLaunchRunnable launchRunnable = runnable instanceof DownloadLaunchRunnable
+                    ? (DownloadLaunchRunnable) runnable : null;
+            if (launchRunnable != null) {
+                synchronized (runningOnThreadSet) {
+                    runningOnThreadSet.add(launchRunnable);
+                }
+            }
+
+            try {
+                runnable.run();
+            } finally {
+                if (launchRunnable != null) {
+                    synchronized (runningOnThreadSet) {
+                        runningOnThreadSet.remove(launchRunnable);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(PriorityRunnable another) {
+            if (priority != another.priority) return priority > another.priority ? -1 : 1;
+            return sequence < another.sequence ? -1 : (sequence == another.sequence ? 0 : 1);
+        }
+    }
+
 
     private synchronized void filterOutNoExist() {
-        SparseArray<DownloadLaunchRunnable> correctedRunnablePool = new SparseArray<>();
-        final int size = runnablePool.size();
-        for (int i = 0; i < size; i++) {
-            final int key = runnablePool.keyAt(i);
+        for (int key : runnablePool.keys()) {
             final DownloadLaunchRunnable runnable = runnablePool.get(key);
-            if (runnable.isAlive()) {
-                correctedRunnablePool.put(key, runnable);
+            if (runnable != null && !runnable.isAlive()) {
+                runnablePool.remove(key);
             }
         }
-        runnablePool = correctedRunnablePool;
     }
 
     public boolean isInThreadPool(final int downloadId) {
@@ -148,6 +397,15 @@ class FileDownloadThreadPool {
         return runnable != null && runnable.isAlive();
     }
 
+    /**
+     * @return the so far bytes counted by the running task, or {@code -1} if the task isn't
+     * running.
+     */
+    public long getRunningSoFar(final int downloadId) {
+        final DownloadLaunchRunnable runnable = runnablePool.get(downloadId);
+        return runnable != null && runnable.isAlive() ? runnable.getSoFar() : -1;
+    }
+
     /**
      * 找到相同缓存路径下的任务
      * @param tempFilePath
@@ -159,18 +417,7 @@ class FileDownloadThreadPool {
             return 0;
         }
 
-        final int size = runnablePool.size();
-        for (int i = 0; i < size; i++) {
-            final DownloadLaunchRunnable runnable = runnablePool.valueAt(i);
-            // why not clone, no out-of-bounds exception? -- yes, we dig into SparseArray and find out
-            // there are only two ways can change mValues: GrowingArrayUtils#insert and GrowingArrayUtils#append
-            // they all only grow size, and valueAt only get value on mValues.
-            if (runnable == null) {
-                // why it is possible to occur null on here, because the value on  runnablePool can
-                // be remove on #cancel method.
-                continue;
-            }
-
+        for (DownloadLaunchRunnable runnable : runnablePool.values()) {
             if (runnable.isAlive() && runnable.getId() != excludeId &&
                     tempFilePath.equals(runnable.getTempFilePath())) {
                 return runnable.getId();
@@ -197,8 +444,8 @@ class FileDownloadThreadPool {
         filterOutNoExist();
 
         List<Integer> list = new ArrayList<>();
-        for (int i = 0; i < runnablePool.size(); i++) {
-            list.add(runnablePool.get(runnablePool.keyAt(i)).getId());
+        for (DownloadLaunchRunnable runnable : runnablePool.values()) {
+            list.add(runnable.getId());
         }
 
         return list;
@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.services;
+
+import com.zy.xxl.zyfiledownloader.download.filedownloader.download.DownloadLaunchRunnable;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadLog;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * 按主机准入
+ * The admission in front of the network thread pool: at most {@code maxTaskCountPerHost} tasks
+ * for the same host are executed at the same time, the excess tasks are queued for their host
+ * without occupying any thread, so the tasks for the other hosts still proceed. The queued task
+ * with the highest priority is admitted first.
+ *
+ * @see com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadProperties#DOWNLOAD_MAX_TASK_COUNT_PER_HOST
+ */
+class HostAdmissionScheduler implements DownloadLaunchRunnable.OnFinishedListener {
+
+    private final Executor executor;
+    private final int maxTaskCountPerHost;
+
+    // guarded by this.
+    private final Map<String, Integer> runningCountMap = new HashMap<>();
+    private final Map<String, LinkedList<DownloadLaunchRunnable>> queueMap = new HashMap<>();
+
+    /**
+     * @param maxTaskCountPerHost {@code 0} means no limit.
+     */
+    HostAdmissionScheduler(Executor executor, int maxTaskCountPerHost) {
+        this.executor = executor;
+        this.maxTaskCountPerHost = maxTaskCountPerHost;
+    }
+
+    /**
+     * The {@link #onFinished(DownloadLaunchRunnable)} must be invoked when the admitted
+     * {@code runnable} is finished.
+     */
+    void admit(DownloadLaunchRunnable runnable) {
+        final String host = runnable.getHost();
+
+        synchronized (this) {
+            final int runningCount = getRunningCount(host);
+            if (maxTaskCountPerHost > 0 && runningCount >= maxTaskCountPerHost) {
+                LinkedList<DownloadLaunchRunnable> queue = queueMap.get(host);
+                if (queue == null) {
+                    queue = new LinkedList<>();
+                    queueMap.put(host, queue);
+                }
+                queue.add(runnable);
+
+                if (FileDownloadLog.NEED_LOG) {
+                    FileDownloadLog.d(this, "queue the task[%d] for host %s, %d running, %d queued",
+                            runnable.getId(), host, runningCount, queue.size());
+                }
+                return;
+            }
+
+            runningCountMap.put(host, runningCount + 1);
+        }
+
+        executor.execute(runnable);
+    }
+
+    /**
+     * @return {@code true} if the {@code runnable} is still queued for its host and removed.
+     */
+    synchronized boolean remove(DownloadLaunchRunnable runnable) {
+        final LinkedList<DownloadLaunchRunnable> queue = queueMap.get(runnable.getHost());
+        if (queue == null || !queue.remove(runnable)) return false;
+
+        if (queue.isEmpty()) queueMap.remove(runnable.getHost());
+        return true;
+    }
+
+    /**
+     * Invoked when the admitted {@code runnable} is finished, or removed from the executor before
+     * it runs, then the next one queued for the same host is admitted.
+     */
+    @Override
+    public void onFinished(DownloadLaunchRunnable runnable) {
+        final String host = runnable.getHost();
+        final DownloadLaunchRunnable next;
+        synchronized (this) {
+            final LinkedList<DownloadLaunchRunnable> queue = queueMap.get(host);
+            next = queue == null ? null : pollHighestPriority(queue);
+            if (next != null) {
+                if (queue.isEmpty()) queueMap.remove(host);
+                // the running count is kept for the next one.
+            } else {
+                final int runningCount = getRunningCount(host);
+                if (runningCount <= 1) {
+                    runningCountMap.remove(host);
+                } else {
+                    runningCountMap.put(host, runningCount - 1);
+                }
+            }
+        }
+
+        if (next != null) executor.execute(next);
+    }
+
+    // the first one for the same priority.
+    private static DownloadLaunchRunnable pollHighestPriority(
+            LinkedList<DownloadLaunchRunnable> queue) {
+        DownloadLaunchRunnable highest = null;
+        for (DownloadLaunchRunnable runnable : queue) {
+            if (highest == null || runnable.getPriority() > highest.getPriority()) {
+                highest = runnable;
+            }
+        }
+        if (highest != null) queue.remove(highest);
+        return highest;
+    }
+
+    private int getRunningCount(String host) {
+        final Integer count = runningCountMap.get(host);
+        return count == null ? 0 : count;
+    }
+}
@@ -0,0 +1,885 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.services;
+
+import com.zy.xxl.zyfiledownloader.download.filedownloader.model.ConnectionModel;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadModel;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadStatus;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadHelper;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadLog;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.IntObjectMap;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 日志型数据库
+ * The database implementation without SQLite: all changes are appended to a checksummed binary
+ * journal, and the journal is compacted into a snapshot file periodically. When the process is
+ * launched, the state is rebuilt through replaying the snapshot and then the journal.
+ * <p>
+ * Each record is framed as: type(1 byte) + payload length(4 bytes) + payload + CRC32(4 bytes), the
+ * records for the hot updates(the offset of the connection, the progress of the task) have the
+ * fixed-size payload. The replay stops at the first damaged record, which can only be the torn
+ * tail when the process is killed on writing, and the journal is truncated there.
+ * <p>
+ * The records are flushed and synced once for each operation, or once for all operations in
+ * {@link #runInTransaction(Runnable)}. Since there isn't rollback, the operations applied before
+ * an exception in the transaction are still committed.
+ * <p>
+ * You can valid this database implementation through:
+ * <p>
+ * class MyApplication extends Application {
+ *     ...
+ *     public void onCreate() {
+ *          ...
+ *          FileDownloader.setupOnApplicationOnCreate(this)
+ *              .database(JournalDatabaseImpl.createMaker())
+ *              ...
+ *              .commit();
+ *          ...
+ *     }
+ *     ...
+ * }
+ */
+public class JournalDatabaseImpl implements FileDownloadDatabase {
+
+    private final static int MAGIC = 0x46444A4C; // FDJL
+    private final static int VERSION = 1;
+    // magic + version + generation
+    private final static int HEADER_LENGTH = 4 + 4 + 8;
+    // type + payload length + crc
+    private final static int FRAME_OVERHEAD = 1 + 4 + 4;
+    private final static int MAX_PAYLOAD_LENGTH = 256 * 1024;
+    private final static long COMPACT_THRESHOLD_BYTES = 512 * 1024;
+
+    private final static String DIR_NAME = "filedownloader-journal";
+    private final static String JOURNAL_NAME = "journal";
+    private final static String SNAPSHOT_NAME = "snapshot";
+    private final static String SNAPSHOT_TEMP_NAME = "snapshot.tmp";
+
+    private final static byte RECORD_MODEL_PUT = 1;
+    private final static byte RECORD_MODEL_REMOVE = 2;
+    // fixed-size: id, status, sofar
+    private final static byte RECORD_MODEL_PROGRESS = 3;
+    // fixed-size: id, index, start offset, current offset, end offset
+    private final static byte RECORD_CONNECTION_PUT = 4;
+    // fixed-size: id, index, current offset
+    private final static byte RECORD_CONNECTION_OFFSET = 5;
+    private final static byte RECORD_CONNECTIONS_REMOVE = 6;
+    // fixed-size: id, from index, split index, start offset, current offset, end offset, count
+    private final static byte RECORD_CONNECTION_SPLIT = 7;
+    private final static byte RECORD_CLEAR = 8;
+
+    private final File journalFile;
+    private final File snapshotFile;
+    private final File snapshotTempFile;
+
+    // the models used on this process, same to the DefaultDatabaseImpl.
+    private final IntObjectMap<FileDownloadModel> downloaderModelMap = new IntObjectMap<>();
+    // the state persisted on the journal.
+    private final IntObjectMap<FileDownloadModel> persistedModelMap = new IntObjectMap<>();
+    private final IntObjectMap<List<ConnectionModel>> connectionModelListMap =
+            new IntObjectMap<>();
+
+    private final ByteArrayOutputStream pendingRecords = new ByteArrayOutputStream();
+    private final CRC32 crc32 = new CRC32();
+    private FileOutputStream journalOutput;
+    private long journalLength;
+    private long generation;
+    private int transactionDepth;
+
+    protected JournalDatabaseImpl() {
+        this(new File(FileDownloadHelper.getAppContext().getFilesDir(), DIR_NAME));
+    }
+
+    /**
+     * @param dir the directory of the journal and the snapshot.
+     */
+    JournalDatabaseImpl(File dir) {
+        if (!dir.exists() && !dir.mkdirs()) {
+            FileDownloadLog.w(this, "create the journal directory %s failed", dir);
+        }
+
+        journalFile = new File(dir, JOURNAL_NAME);
+        snapshotFile = new File(dir, SNAPSHOT_NAME);
+        snapshotTempFile = new File(dir, SNAPSHOT_TEMP_NAME);
+
+        final long startTimestamp = System.currentTimeMillis();
+        try {
+            load();
+        } catch (IOException e) {
+            FileDownloadLog.e(this, e, "load the journal database failed");
+        }
+
+        if (FileDownloadLog.NEED_LOG) {
+            FileDownloadLog.d(this, "load %d models from the journal database, consume %d ms",
+                    persistedModelMap.size(), System.currentTimeMillis() - startTimestamp);
+        }
+    }
+
+    public static Maker createMaker() {
+        return new Maker();
+    }
+
+    @Override
+    public synchronized FileDownloadModel find(final int id) {
+        return downloaderModelMap.get(id);
+    }
+
+    @Override
+    public synchronized List<ConnectionModel> findConnectionModel(int id) {
+        final List<ConnectionModel> resultList = new ArrayList<>();
+        final List<ConnectionModel> processList = connectionModelListMap.get(id);
+        if (processList == null) return resultList;
+
+        for (ConnectionModel connectionModel : processList) {
+            resultList.add(copyConnectionModel(connectionModel));
+        }
+        return resultList;
+    }
+
+    @Override
+    public synchronized void removeConnections(int id) {
+        final Payload payload = new Payload();
+        payload.writeInt(id);
+        commit(RECORD_CONNECTIONS_REMOVE, payload);
+    }
+
+    @Override
+    public synchronized void insertConnectionModel(ConnectionModel model) {
+        if (findConnection(model.getId(), model.getIndex()) != null) {
+            // keep the same as the primary key of the connection table on the DefaultDatabaseImpl.
+            FileDownloadLog.w(this, "insert connection model %s failed: it exists", model);
+            return;
+        }
+
+        final Payload payload = new Payload();
+        writeConnectionModel(payload, model);
+        commit(RECORD_CONNECTION_PUT, payload);
+    }
+
+    @Override
+    public synchronized void updateConnectionModel(int id, int index, long currentOffset) {
+        final Payload payload = new Payload();
+        payload.writeInt(id);
+        payload.writeInt(index);
+        payload.writeLong(currentOffset);
+        commit(RECORD_CONNECTION_OFFSET, payload);
+    }
+
+    @Override
+    public synchronized void splitConnectionModel(int id, int fromIndex,
+                                                  ConnectionModel splitModel,
+                                                  int connectionCount) {
+        final Payload payload = new Payload();
+        payload.writeInt(id);
+        payload.writeInt(fromIndex);
+        payload.writeInt(splitModel.getIndex());
+        payload.writeLong(splitModel.getStartOffset());
+        payload.writeLong(splitModel.getCurrentOffset());
+        payload.writeLong(splitModel.getEndOffset());
+        payload.writeInt(connectionCount);
+        commit(RECORD_CONNECTION_SPLIT, payload);
+    }
+
+    @Override
+    public synchronized void runInTransaction(Runnable operations) {
+        transactionDepth++;
+        try {
+            operations.run();
+        } finally {
+            transactionDepth--;
+            if (transactionDepth == 0) flushRecords();
+        }
+    }
+
+    @Override
+    public synchronized void updateConnectionCount(int id, int count) {
+        final FileDownloadModel model = copyPersistedModel(id);
+        if (model == null) return;
+
+        model.setConnectionCount(count);
+        putPersistedModel(model);
+    }
+
+    @Override
+    public synchronized void insert(FileDownloadModel downloadModel) {
+        downloaderModelMap.put(downloadModel.getId(), downloadModel);
+
+        putPersistedModel(downloadModel);
+    }
+
+    @Override
+    public synchronized void update(FileDownloadModel downloadModel) {
+        if (downloadModel == null) {
+            FileDownloadLog.w(this, "update but model == null!");
+            return;
+        }
+
+        if (find(downloadModel.getId()) != null) {
+            // 替换
+            downloaderModelMap.remove(downloadModel.getId());
+            downloaderModelMap.put(downloadModel.getId(), downloadModel);
+
+            putPersistedModel(downloadModel);
+        } else {
+            insert(downloadModel);
+        }
+    }
+
+    @Override
+    public synchronized boolean remove(int id) {
+        downloaderModelMap.remove(id);
+
+        final boolean exist = persistedModelMap.get(id) != null;
+        final Payload payload = new Payload();
+        payload.writeInt(id);
+        commit(RECORD_MODEL_REMOVE, payload);
+        return exist;
+    }
+
+    @Override
+    public synchronized void clear() {
+        downloaderModelMap.clear();
+
+        commit(RECORD_CLEAR, new Payload());
+    }
+
+    @Override
+    public synchronized void updateOldEtagOverdue(int id, String newEtag, long sofar, long total,
+                                                  int connectionCount) {
+        final FileDownloadModel model = copyPersistedModel(id);
+        if (model == null) return;
+
+        model.setSoFar(sofar);
+        model.setTotal(total);
+        model.setETag(newEtag);
+        model.setConnectionCount(connectionCount);
+        putPersistedModel(model);
+    }
+
+    @Override
+    public synchronized void updateConnected(int id, long total, String etag, String filename) {
+        final FileDownloadModel model = copyPersistedModel(id);
+        if (model == null) return;
+
+        model.setStatus(FileDownloadStatus.connected);
+        model.setTotal(total);
+        model.setETag(etag);
+        model.setFilename(filename);
+        putPersistedModel(model);
+    }
+
+    @Override
+    public synchronized void updateProgress(int id, long sofarBytes) {
+        updateStatusAndSofar(id, FileDownloadStatus.progress, sofarBytes);
+    }
+
+    @Override
+    public synchronized void updateError(int id, Throwable throwable, long sofar) {
+        final FileDownloadModel model = copyPersistedModel(id);
+        if (model == null) return;
+
+        model.setErrMsg(throwable.toString());
+        model.setStatus(FileDownloadStatus.error);
+        model.setSoFar(sofar);
+        putPersistedModel(model);
+    }
+
+    @Override
+    public synchronized void updateRetry(int id, Throwable throwable) {
+        final FileDownloadModel model = copyPersistedModel(id);
+        if (model == null) return;
+
+        model.setErrMsg(throwable.toString());
+        model.setStatus(FileDownloadStatus.retry);
+        putPersistedModel(model);
+    }
+
+    @Override
+    public synchronized void updateCompleted(int id, final long total) {
+        remove(id);
+    }
+
+    @Override
+    public synchronized void updatePause(int id, long sofar) {
+        updateStatusAndSofar(id, FileDownloadStatus.paused, sofar);
+    }
+
+    @Override
+    public void updatePending(int id) {
+        // No need to persist pending status.
+    }
+
+    @Override
+    public synchronized FileDownloadDatabase.Maintainer maintainer() {
+        return new Maintainer();
+    }
+
+    private void updateStatusAndSofar(int id, byte status, long sofar) {
+        final Payload payload = new Payload();
+        payload.writeInt(id);
+        payload.writeByte(status);
+        payload.writeLong(sofar);
+        commit(RECORD_MODEL_PROGRESS, payload);
+    }
+
+    private void putPersistedModel(FileDownloadModel model) {
+        final Payload payload = new Payload();
+        writeModel(payload, model);
+        commit(RECORD_MODEL_PUT, payload);
+    }
+
+    private FileDownloadModel copyPersistedModel(int id) {
+        final FileDownloadModel model = persistedModelMap.get(id);
+        if (model == null) return null;
+
+        return readModel(toInput(toBytes(model)));
+    }
+
+    /**
+     * Apply the record to the state on the memory, and append it to the journal.
+     */
+    private void commit(byte type, Payload payload) {
+        final byte[] payloadBytes = payload.toByteArray();
+        try {
+            apply(type, toInput(payloadBytes));
+            writeFrame(pendingRecords, type, payloadBytes);
+        } catch (IOException e) {
+            // never happen on the memory.
+            FileDownloadLog.e(this, e, "apply the record %d failed", type);
+            return;
+        }
+
+        if (transactionDepth == 0) flushRecords();
+    }
+
+    private void flushRecords() {
+        if (pendingRecords.size() == 0) return;
+
+        try {
+            pendingRecords.writeTo(journalOutput);
+            journalOutput.getFD().sync();
+            journalLength += pendingRecords.size();
+        } catch (IOException e) {
+            FileDownloadLog.e(this, e, "append the records to the journal failed");
+        } finally {
+            pendingRecords.reset();
+        }
+
+        if (journalLength >= COMPACT_THRESHOLD_BYTES) {
+            try {
+                compact();
+            } catch (IOException e) {
+                FileDownloadLog.e(this, e, "compact the journal failed");
+            }
+        }
+    }
+
+    private void load() throws IOException {
+        generation = 0;
+        if (snapshotFile.exists()) {
+            final DataInputStream in = openInput(snapshotFile);
+            try {
+                final long snapshotGeneration = readHeader(in);
+                if (snapshotGeneration >= 0) {
+                    generation = snapshotGeneration;
+                    replay(in);
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        long validLength = -1;
+        if (journalFile.exists()) {
+            final DataInputStream in = openInput(journalFile);
+            try {
+                // the journal with the older generation has been compacted into the snapshot.
+                if (readHeader(in) == generation) validLength = HEADER_LENGTH + replay(in);
+            } finally {
+                in.close();
+            }
+        }
+
+        if (validLength < 0) {
+            resetJournal();
+            return;
+        }
+
+        if (validLength < journalFile.length()) {
+            FileDownloadLog.w(this, "truncate the damaged tail of the journal from %d to %d",
+                    journalFile.length(), validLength);
+            final RandomAccessFile randomAccess = new RandomAccessFile(journalFile, "rw");
+            try {
+                randomAccess.setLength(validLength);
+            } finally {
+                randomAccess.close();
+            }
+        }
+
+        journalOutput = new FileOutputStream(journalFile, true);
+        journalLength = validLength;
+    }
+
+    /**
+     * @return the length of all valid records replayed.
+     */
+    private long replay(DataInputStream in) {
+        long validLength = 0;
+        try {
+            while (true) {
+                final int type = in.read();
+                if (type == -1) break;
+
+                final int length = in.readInt();
+                if (length < 0 || length > MAX_PAYLOAD_LENGTH) break;
+
+                final byte[] payload = new byte[length];
+                in.readFully(payload);
+                if (in.readInt() != checksum((byte) type, payload)) break;
+
+                apply((byte) type, toInput(payload));
+                validLength += FRAME_OVERHEAD + length;
+            }
+        } catch (EOFException ignored) {
+            // the torn tail.
+        } catch (IOException e) {
+            FileDownloadLog.e(this, e, "replay the journal failed");
+        }
+
+        return validLength;
+    }
+
+    private void apply(byte type, DataInputStream in) throws IOException {
+        switch (type) {
+            case RECORD_MODEL_PUT: {
+                final FileDownloadModel model = readModel(in);
+                persistedModelMap.put(model.getId(), model);
+                break;
+            }
+            case RECORD_MODEL_REMOVE:
+                persistedModelMap.remove(in.readInt());
+                break;
+            case RECORD_MODEL_PROGRESS: {
+                final FileDownloadModel model = persistedModelMap.get(in.readInt());
+                final byte status = in.readByte();
+                final long sofar = in.readLong();
+                if (model != null) {
+                    model.setStatus(status);
+                    model.setSoFar(sofar);
+                }
+                break;
+            }
+            case RECORD_CONNECTION_PUT:
+                putConnectionModel(readConnectionModel(in));
+                break;
+            case RECORD_CONNECTION_OFFSET: {
+                final ConnectionModel connectionModel = findConnection(in.readInt(),
+                        in.readInt());
+                final long currentOffset = in.readLong();
+                if (connectionModel != null) connectionModel.setCurrentOffset(currentOffset);
+                break;
+            }
+            case RECORD_CONNECTIONS_REMOVE:
+                connectionModelListMap.remove(in.readInt());
+                break;
+            case RECORD_CONNECTION_SPLIT: {
+                final int id = in.readInt();
+                final int fromIndex = in.readInt();
+                final ConnectionModel splitModel = new ConnectionModel();
+                splitModel.setId(id);
+                splitModel.setIndex(in.readInt());
+                splitModel.setStartOffset(in.readLong());
+                splitModel.setCurrentOffset(in.readLong());
+                splitModel.setEndOffset(in.readLong());
+                final int connectionCount = in.readInt();
+
+                final ConnectionModel fromModel = findConnection(id, fromIndex);
+                if (fromModel != null) fromModel.setEndOffset(splitModel.getStartOffset() - 1);
+                putConnectionModel(splitModel);
+
+                final FileDownloadModel model = persistedModelMap.get(id);
+                if (model != null) model.setConnectionCount(connectionCount);
+                break;
+            }
+            case RECORD_CLEAR:
+                persistedModelMap.clear();
+                connectionModelListMap.clear();
+                break;
+            default:
+                FileDownloadLog.w(this, "unknown record type %d", type);
+        }
+    }
+
+    private ConnectionModel findConnection(int id, int index) {
+        final List<ConnectionModel> processList = connectionModelListMap.get(id);
+        if (processList == null) return null;
+
+        for (ConnectionModel connectionModel : processList) {
+            if (connectionModel.getIndex() == index) return connectionModel;
+        }
+        return null;
+    }
+
+    // replace the one with the same index, so the record can be replayed more than once.
+    private void putConnectionModel(ConnectionModel model) {
+        List<ConnectionModel> processList = connectionModelListMap.get(model.getId());
+        if (processList == null) {
+            processList = new ArrayList<>();
+            connectionModelListMap.put(model.getId(), processList);
+        }
+
+        for (int i = 0; i < processList.size(); i++) {
+            if (processList.get(i).getIndex() == model.getIndex()) {
+                processList.set(i, model);
+                return;
+            }
+        }
+        processList.add(model);
+    }
+
+    /**
+     * Write all the state to a new snapshot, and then start a new journal.
+     */
+    private void compact() throws IOException {
+        final long newGeneration = generation + 1;
+        final FileOutputStream output = new FileOutputStream(snapshotTempFile, false);
+        try {
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            writeHeader(buffer, newGeneration);
+            for (FileDownloadModel model : persistedModelMap.values()) {
+                final Payload payload = new Payload();
+                writeModel(payload, model);
+                writeFrame(buffer, RECORD_MODEL_PUT, payload.toByteArray());
+            }
+            for (List<ConnectionModel> connectionModelList : connectionModelListMap.values()) {
+                for (ConnectionModel connectionModel : connectionModelList) {
+                    final Payload payload = new Payload();
+                    writeConnectionModel(payload, connectionModel);
+                    writeFrame(buffer, RECORD_CONNECTION_PUT, payload.toByteArray());
+                }
+            }
+            buffer.writeTo(output);
+            output.getFD().sync();
+        } finally {
+            output.close();
+        }
+
+        if (!snapshotTempFile.renameTo(snapshotFile)) {
+            throw new IOException("rename the snapshot failed: " + snapshotTempFile);
+        }
+
+        if (FileDownloadLog.NEED_LOG) {
+            FileDownloadLog.d(this, "compact the journal(%d bytes) to the snapshot(%d bytes)",
+                    journalLength, snapshotFile.length());
+        }
+
+        generation = newGeneration;
+        resetJournal();
+    }
+
+    private void resetJournal() throws IOException {
+        if (journalOutput != null) {
+            try {
+                journalOutput.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        journalOutput = new FileOutputStream(journalFile, false);
+        final ByteArrayOutputStream header = new ByteArrayOutputStream(HEADER_LENGTH);
+        writeHeader(header, generation);
+        header.writeTo(journalOutput);
+        journalOutput.getFD().sync();
+        journalLength = HEADER_LENGTH;
+    }
+
+    private static DataInputStream openInput(File file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    }
+
+    private static DataInputStream toInput(byte[] bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    private static void writeHeader(OutputStream output, long generation) throws IOException {
+        final DataOutputStream out = new DataOutputStream(output);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(generation);
+        out.flush();
+    }
+
+    /**
+     * @return the generation, or {@code -1} if the header is invalid.
+     */
+    private static long readHeader(DataInputStream in) {
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return -1;
+            return in.readLong();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    private void writeFrame(OutputStream output, byte type, byte[] payload) throws IOException {
+        final DataOutputStream out = new DataOutputStream(output);
+        out.writeByte(type);
+        out.writeInt(payload.length);
+        out.write(payload);
+        out.writeInt(checksum(type, payload));
+        out.flush();
+    }
+
+    private int checksum(byte type, byte[] payload) {
+        crc32.reset();
+        crc32.update(type);
+        crc32.update(payload, 0, payload.length);
+        return (int) crc32.getValue();
+    }
+
+    private static byte[] toBytes(FileDownloadModel model) {
+        final Payload payload = new Payload();
+        writeModel(payload, model);
+        return payload.toByteArray();
+    }
+
+    private static void writeModel(Payload out, FileDownloadModel model) {
+        out.writeInt(model.getId());
+        out.writeString(model.getUrl());
+        out.writeString(model.getPath());
+        out.writeBoolean(model.isPathAsDirectory());
+        out.writeString(model.getFilename());
+        out.writeByte(model.getStatus());
+        out.writeLong(model.getSoFar());
+        out.writeLong(model.getTotal());
+        out.writeString(model.getErrMsg());
+        out.writeString(model.getETag());
+        out.writeInt(model.getConnectionCount());
+    }
+
+    private static FileDownloadModel readModel(DataInputStream in) {
+        final FileDownloadModel model = new FileDownloadModel();
+        try {
+            model.setId(in.readInt());
+            model.setUrl(readString(in));
+            final String path = readString(in);
+            model.setPath(path, in.readBoolean());
+            model.setFilename(readString(in));
+            model.setStatus(in.readByte());
+            model.setSoFar(in.readLong());
+            model.setTotal(in.readLong());
+            model.setErrMsg(readString(in));
+            model.setETag(readString(in));
+            model.setConnectionCount(in.readInt());
+        } catch (IOException e) {
+            // the payload is verified through the checksum.
+            FileDownloadLog.e(JournalDatabaseImpl.class, e, "read the model failed");
+        }
+        return model;
+    }
+
+    private static void writeConnectionModel(Payload out, ConnectionModel model) {
+        out.writeInt(model.getId());
+        out.writeInt(model.getIndex());
+        out.writeLong(model.getStartOffset());
+        out.writeLong(model.getCurrentOffset());
+        out.writeLong(model.getEndOffset());
+    }
+
+    private static ConnectionModel readConnectionModel(DataInputStream in) throws IOException {
+        final ConnectionModel model = new ConnectionModel();
+        model.setId(in.readInt());
+        model.setIndex(in.readInt());
+        model.setStartOffset(in.readLong());
+        model.setCurrentOffset(in.readLong());
+        model.setEndOffset(in.readLong());
+        return model;
+    }
+
+    private static ConnectionModel copyConnectionModel(ConnectionModel model) {
+        final ConnectionModel copy = new ConnectionModel();
+        copy.setId(model.getId());
+        copy.setIndex(model.getIndex());
+        copy.setStartOffset(model.getStartOffset());
+        copy.setCurrentOffset(model.getCurrentOffset());
+        copy.setEndOffset(model.getEndOffset());
+        return copy;
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * The payload of the record on the memory, so it never throws the IOException.
+     */
+    private static class Payload {
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(64);
+        private final DataOutputStream out = new DataOutputStream(buffer);
+
+        void writeInt(int value) {
+            try {
+                out.writeInt(value);
+            } catch (IOException ignored) {
+            }
+        }
+
+        void writeLong(long value) {
+            try {
+                out.writeLong(value);
+            } catch (IOException ignored) {
+            }
+        }
+
+        void writeByte(int value) {
+            try {
+                out.writeByte(value);
+            } catch (IOException ignored) {
+            }
+        }
+
+        void writeBoolean(boolean value) {
+            try {
+                out.writeBoolean(value);
+            } catch (IOException ignored) {
+            }
+        }
+
+        void writeString(String value) {
+            try {
+                out.writeBoolean(value != null);
+                if (value != null) out.writeUTF(value);
+            } catch (IOException ignored) {
+            }
+        }
+
+        byte[] toByteArray() {
+            return buffer.toByteArray();
+        }
+    }
+
+    class Maintainer implements FileDownloadDatabase.Maintainer {
+
+        private final IntObjectMap<FileDownloadModel> needChangeIdList = new IntObjectMap<>();
+        private final List<Integer> needRemoveId = new ArrayList<>();
+
+        @Override
+        public Iterator<FileDownloadModel> iterator() {
+            final List<FileDownloadModel> modelList = new ArrayList<>();
+            synchronized (JournalDatabaseImpl.this) {
+                for (int id : persistedModelMap.keys()) {
+                    final FileDownloadModel model = copyPersistedModel(id);
+                    if (model != null) modelList.add(model);
+                }
+            }
+
+            final Iterator<FileDownloadModel> iterator = modelList.iterator();
+            return new Iterator<FileDownloadModel>() {
+                private int currentId;
+
+                @Override
+                public boolean hasNext() {
+                    return iterator.hasNext();
+                }
+
+                @Override
+                public FileDownloadModel next() {
+                    final FileDownloadModel model = iterator.next();
+                    currentId = model.getId();
+                    return model;
+                }
+
+                @Override
+                public void remove() {
+                    needRemoveId.add(currentId);
+                }
+            };
+        }
+
+        @Override
+        public void onFinishMaintain() {
+            runInTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    for (Integer id : needRemoveId) {
+                        remove(id);
+                        removeConnections(id);
+                    }
+
+                    for (int oldId : needChangeIdList.keys()) {
+                        final FileDownloadModel modelWithNewId = needChangeIdList.get(oldId);
+                        final List<ConnectionModel> connectionModelList =
+                                findConnectionModel(oldId);
+
+                        remove(oldId);
+                        removeConnections(oldId);
+                        putPersistedModel(modelWithNewId);
+
+                        if (modelWithNewId.getConnectionCount() > 1) {
+                            for (ConnectionModel connectionModel : connectionModelList) {
+                                connectionModel.setId(modelWithNewId.getId());
+                                insertConnectionModel(connectionModel);
+                            }
+                        }
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onRemovedInvalidData(FileDownloadModel model) {
+        }
+
+        @Override
+        public void onRefreshedValidData(FileDownloadModel model) {
+            synchronized (JournalDatabaseImpl.this) {
+                downloaderModelMap.put(model.getId(), model);
+            }
+        }
+
+        @Override
+        public void changeFileDownloadModelId(int oldId, FileDownloadModel modelWithNewId) {
+            needChangeIdList.put(oldId, modelWithNewId);
+        }
+    }
+
+    public static class Maker implements FileDownloadHelper.DatabaseCustomMaker {
+
+        @Override
+        public FileDownloadDatabase customMake() {
+            return new JournalDatabaseImpl();
+        }
+    }
+}
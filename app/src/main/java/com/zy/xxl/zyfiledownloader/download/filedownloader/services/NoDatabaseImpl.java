@@ -16,12 +16,11 @@
 
 package com.zy.xxl.zyfiledownloader.download.filedownloader.services;
 
-import android.util.SparseArray;
-
 import com.zy.xxl.zyfiledownloader.download.filedownloader.model.ConnectionModel;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadModel;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadHelper;
 import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadLog;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.IntObjectMap;
 
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -57,8 +56,9 @@ import java.util.List;
  */
 public class NoDatabaseImpl implements FileDownloadDatabase {
 
-    private final SparseArray<FileDownloadModel> downloaderModelMap = new SparseArray<>();
-    private final SparseArray<List<ConnectionModel>> connectionModelListMap = new SparseArray<>();
+    private final IntObjectMap<FileDownloadModel> downloaderModelMap = new IntObjectMap<>();
+    private final IntObjectMap<List<ConnectionModel>> connectionModelListMap =
+            new IntObjectMap<>();
 
     protected NoDatabaseImpl() {
     }
@@ -111,6 +111,27 @@ public class NoDatabaseImpl implements FileDownloadDatabase {
         }
     }
 
+    @Override
+    public void splitConnectionModel(int id, int fromIndex, ConnectionModel splitModel,
+                                     int connectionCount) {
+        final List<ConnectionModel> processList = connectionModelListMap.get(id);
+        if (processList == null) return;
+
+        for (ConnectionModel connectionModel : processList) {
+            if (connectionModel.getIndex() == fromIndex) {
+                connectionModel.setEndOffset(splitModel.getStartOffset() - 1);
+                break;
+            }
+        }
+
+        insertConnectionModel(splitModel);
+    }
+
+    @Override
+    public void runInTransaction(Runnable operations) {
+        operations.run();
+    }
+
     @Override
     public void updateConnectionCount(int id, int count) {
     }
@@ -0,0 +1,480 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.services;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+
+import com.zy.xxl.zyfiledownloader.download.filedownloader.model.ConnectionModel;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadModel;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadStatus;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadLog;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.IntObjectMap;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 延迟合并写入的数据库
+ * The write-behind layer in front of any {@link FileDownloadDatabase}.
+ * <p/>
+ * The hot updates({@link #updateConnectionModel(int, int, long)} and
+ * {@link #updateProgress(int, long)}) only keep the latest offset on the memory, and they are
+ * flushed to the {@link #delegate} in one transaction when the {@link #FLUSH_INTERVAL_MILLIS} is
+ * passed or the offsets advanced reach {@link #FLUSH_BYTES_THRESHOLD}.
+ * <p/>
+ * All the other write operations are barriers: the pending updates are flushed before them, so
+ * the pause, error and completion always see the latest offsets, and the reads see the pending
+ * offsets on the memory without flushing them.
+ * <p/>
+ * The hot updates in {@link #runInDurableTransaction(Runnable)} are written through to the
+ * {@link #delegate}, for the offsets which must have been persisted when it returns.
+ * <p/>
+ * The connection models are cached on the memory once they are read, and all the writes on them
+ * go through the cache, so the connection models are read from the {@link #delegate} only once for
+ * each task.
+ */
+class WriteBehindDatabase implements FileDownloadDatabase, FileDownloadDatabase.WriteBehind,
+        Handler.Callback {
+
+    private final static long FLUSH_INTERVAL_MILLIS = 2000;
+    private final static long FLUSH_BYTES_THRESHOLD = 4 * 1024 * 1024; // 4MB
+    private final static int WHAT_FLUSH = 1;
+
+    private final FileDownloadDatabase delegate;
+    private final Handler handler;
+
+    private final Object pendingLock = new Object();
+    // guarded by the pendingLock.
+    private Map<Long, PendingConnectionOffset> pendingConnectionMap = new LinkedHashMap<>();
+    private Map<Integer, Long> pendingProgressMap = new LinkedHashMap<>();
+    private long pendingBytes;
+    private boolean flushScheduled;
+    // guarded by the pendingLock, with the latest offsets including the pending ones.
+    private final IntObjectMap<List<ConnectionModel>> connectionCache = new IntObjectMap<>();
+    // the thread in the durable transaction, whose hot updates are written through.
+    private volatile Thread writeThroughThread;
+
+    WriteBehindDatabase(FileDownloadDatabase delegate) {
+        this.delegate = delegate;
+
+        final HandlerThread thread = new HandlerThread("WriteBehindDatabase");
+        thread.start();
+        handler = new Handler(thread.getLooper(), this);
+    }
+
+    @Override
+    public void updateConnectionModel(int id, int index, long currentOffset) {
+        final Long key = ((long) id << 32) | (index & 0xFFFFFFFFL);
+        if (writeThroughThread == Thread.currentThread()) {
+            delegate.updateConnectionModel(id, index, currentOffset);
+            synchronized (pendingLock) {
+                // the pending one is stale if it isn't ahead of the one committed.
+                final PendingConnectionOffset pending = pendingConnectionMap.get(key);
+                if (pending != null && pending.offset <= currentOffset) {
+                    pendingConnectionMap.remove(key);
+                }
+
+                final ConnectionModel cachedModel = findCachedModel(id, index);
+                if (cachedModel != null && (pending == null || pending.offset <= currentOffset)) {
+                    cachedModel.setCurrentOffset(currentOffset);
+                }
+            }
+            return;
+        }
+
+        synchronized (pendingLock) {
+            final PendingConnectionOffset pending = pendingConnectionMap.get(key);
+            if (pending == null) {
+                pendingConnectionMap.put(key, new PendingConnectionOffset(id, index,
+                        currentOffset));
+            } else {
+                pendingBytes += currentOffset - pending.offset;
+                pending.offset = currentOffset;
+            }
+
+            final ConnectionModel cachedModel = findCachedModel(id, index);
+            if (cachedModel != null) cachedModel.setCurrentOffset(currentOffset);
+            scheduleFlush();
+        }
+    }
+
+    @Override
+    public void updateProgress(int id, long sofarBytes) {
+        if (writeThroughThread == Thread.currentThread()) {
+            delegate.updateProgress(id, sofarBytes);
+            synchronized (pendingLock) {
+                final Long pendingSofar = pendingProgressMap.get(id);
+                if (pendingSofar != null && pendingSofar <= sofarBytes) {
+                    pendingProgressMap.remove(id);
+                }
+            }
+            return;
+        }
+
+        synchronized (pendingLock) {
+            final Long pendingSofar = pendingProgressMap.put(id, sofarBytes);
+            if (pendingSofar != null) pendingBytes += sofarBytes - pendingSofar;
+            scheduleFlush();
+        }
+    }
+
+    // must hold the pending lock.
+    private void scheduleFlush() {
+        if (pendingBytes >= FLUSH_BYTES_THRESHOLD) {
+            handler.removeMessages(WHAT_FLUSH);
+            handler.sendEmptyMessage(WHAT_FLUSH);
+            flushScheduled = true;
+        } else if (!flushScheduled) {
+            handler.sendEmptyMessageDelayed(WHAT_FLUSH, FLUSH_INTERVAL_MILLIS);
+            flushScheduled = true;
+        }
+    }
+
+    @Override
+    public boolean handleMessage(Message msg) {
+        if (msg.what == WHAT_FLUSH) flush();
+        return true;
+    }
+
+    /**
+     * Flush all pending updates to the {@link #delegate} in one transaction.
+     */
+    private synchronized void flush() {
+        final Map<Long, PendingConnectionOffset> connectionMap;
+        final Map<Integer, Long> progressMap;
+        synchronized (pendingLock) {
+            flushScheduled = false;
+            pendingBytes = 0;
+            if (pendingConnectionMap.isEmpty() && pendingProgressMap.isEmpty()) return;
+
+            connectionMap = pendingConnectionMap;
+            progressMap = pendingProgressMap;
+            pendingConnectionMap = new LinkedHashMap<>();
+            pendingProgressMap = new LinkedHashMap<>();
+        }
+
+        delegate.runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                for (PendingConnectionOffset pending : connectionMap.values()) {
+                    delegate.updateConnectionModel(pending.id, pending.index, pending.offset);
+                }
+
+                for (Map.Entry<Integer, Long> entry : progressMap.entrySet()) {
+                    delegate.updateProgress(entry.getKey(), entry.getValue());
+                }
+            }
+        });
+
+        if (FileDownloadLog.NEED_LOG) {
+            FileDownloadLog.d(this, "flush %d connection offsets and %d progresses",
+                    connectionMap.size(), progressMap.size());
+        }
+    }
+
+    @Override
+    public synchronized FileDownloadModel find(int id) {
+        final FileDownloadModel model = delegate.find(id);
+        if (model == null) return null;
+
+        synchronized (pendingLock) {
+            // the model on the memory of the running task is never behind the pending progress,
+            // so only the stale one read from the delegate is overlaid, the same as flushed.
+            final Long pendingSofar = pendingProgressMap.get(id);
+            if (pendingSofar != null && pendingSofar > model.getSoFar()) {
+                model.setStatus(FileDownloadStatus.progress);
+                model.setSoFar(pendingSofar);
+            }
+        }
+        return model;
+    }
+
+    @Override
+    public List<ConnectionModel> findConnectionModel(int id) {
+        synchronized (pendingLock) {
+            final List<ConnectionModel> cachedList = connectionCache.get(id);
+            if (cachedList != null) return copyOf(cachedList);
+        }
+
+        // all the other writes on the connection models are locked out here.
+        synchronized (this) {
+            final List<ConnectionModel> modelList = delegate.findConnectionModel(id);
+            synchronized (pendingLock) {
+                final List<ConnectionModel> cachedList = copyOf(modelList);
+                // the pending offsets are newer than the ones on the delegate.
+                for (ConnectionModel model : cachedList) {
+                    final PendingConnectionOffset pending = pendingConnectionMap
+                            .get(((long) id << 32) | (model.getIndex() & 0xFFFFFFFFL));
+                    if (pending != null) model.setCurrentOffset(pending.offset);
+                }
+                connectionCache.put(id, cachedList);
+                return copyOf(cachedList);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void removeConnections(int id) {
+        flush();
+        delegate.removeConnections(id);
+        synchronized (pendingLock) {
+            // the next find reads the delegate again, which may be written by the others.
+            connectionCache.remove(id);
+        }
+    }
+
+    @Override
+    public synchronized void insertConnectionModel(ConnectionModel model) {
+        flush();
+        delegate.insertConnectionModel(model);
+        synchronized (pendingLock) {
+            putCachedModel(model);
+        }
+    }
+
+    @Override
+    public synchronized void splitConnectionModel(int id, int fromIndex,
+                                                  ConnectionModel splitModel,
+                                                  int connectionCount) {
+        flush();
+        delegate.splitConnectionModel(id, fromIndex, splitModel, connectionCount);
+        synchronized (pendingLock) {
+            final ConnectionModel fromModel = findCachedModel(id, fromIndex);
+            if (fromModel != null) fromModel.setEndOffset(splitModel.getStartOffset() - 1);
+            putCachedModel(splitModel);
+        }
+    }
+
+    @Override
+    public synchronized void runInTransaction(Runnable operations) {
+        // always lock this before the delegate, so it never deadlocks with the flush.
+        try {
+            delegate.runInTransaction(operations);
+        } catch (RuntimeException e) {
+            // the writes through the cache in the transaction may be rolled back.
+            synchronized (pendingLock) {
+                connectionCache.clear();
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized void runInDurableTransaction(Runnable operations) {
+        flush();
+        writeThroughThread = Thread.currentThread();
+        try {
+            runInTransaction(operations);
+        } finally {
+            writeThroughThread = null;
+        }
+    }
+
+    // must hold the pending lock.
+    private ConnectionModel findCachedModel(int id, int index) {
+        final List<ConnectionModel> cachedList = connectionCache.get(id);
+        if (cachedList == null) return null;
+
+        for (ConnectionModel model : cachedList) {
+            if (model.getIndex() == index) return model;
+        }
+        return null;
+    }
+
+    // must hold the pending lock.
+    private void putCachedModel(ConnectionModel model) {
+        final List<ConnectionModel> cachedList = connectionCache.get(model.getId());
+        // it is read from the delegate on the first find.
+        if (cachedList == null) return;
+
+        final ConnectionModel cachedModel = findCachedModel(model.getId(), model.getIndex());
+        if (cachedModel != null) cachedList.remove(cachedModel);
+        cachedList.add(copyOf(model));
+    }
+
+    private static List<ConnectionModel> copyOf(List<ConnectionModel> modelList) {
+        final List<ConnectionModel> copyList = new ArrayList<>(modelList.size());
+        for (ConnectionModel model : modelList) {
+            copyList.add(copyOf(model));
+        }
+        return copyList;
+    }
+
+    private static ConnectionModel copyOf(ConnectionModel model) {
+        final ConnectionModel copy = new ConnectionModel();
+        copy.setId(model.getId());
+        copy.setIndex(model.getIndex());
+        copy.setStartOffset(model.getStartOffset());
+        copy.setCurrentOffset(model.getCurrentOffset());
+        copy.setEndOffset(model.getEndOffset());
+        return copy;
+    }
+
+    @Override
+    public synchronized void updateConnectionCount(int id, int count) {
+        flush();
+        delegate.updateConnectionCount(id, count);
+    }
+
+    @Override
+    public synchronized void insert(FileDownloadModel downloadModel) {
+        flush();
+        delegate.insert(downloadModel);
+    }
+
+    @Override
+    public synchronized void update(FileDownloadModel downloadModel) {
+        flush();
+        delegate.update(downloadModel);
+    }
+
+    @Override
+    public synchronized boolean remove(int id) {
+        flush();
+        final boolean isRemoved = delegate.remove(id);
+        synchronized (pendingLock) {
+            connectionCache.remove(id);
+        }
+        return isRemoved;
+    }
+
+    @Override
+    public synchronized void clear() {
+        flush();
+        delegate.clear();
+        synchronized (pendingLock) {
+            connectionCache.clear();
+        }
+    }
+
+    @Override
+    public synchronized void updateOldEtagOverdue(int id, String newEtag, long sofar, long total,
+                                                  int connectionCount) {
+        flush();
+        delegate.updateOldEtagOverdue(id, newEtag, sofar, total, connectionCount);
+    }
+
+    @Override
+    public synchronized void updateConnected(int id, long total, String etag, String filename) {
+        flush();
+        delegate.updateConnected(id, total, etag, filename);
+    }
+
+    @Override
+    public synchronized void updateError(int id, Throwable throwable, long sofar) {
+        flush();
+        delegate.updateError(id, throwable, sofar);
+    }
+
+    @Override
+    public synchronized void updateRetry(int id, Throwable throwable) {
+        flush();
+        delegate.updateRetry(id, throwable);
+    }
+
+    @Override
+    public synchronized void updateCompleted(int id, long total) {
+        flush();
+        delegate.updateCompleted(id, total);
+        synchronized (pendingLock) {
+            // it is read from the delegate again if the task is restarted.
+            connectionCache.remove(id);
+        }
+    }
+
+    @Override
+    public synchronized void updatePause(int id, long sofar) {
+        flush();
+        delegate.updatePause(id, sofar);
+    }
+
+    @Override
+    public synchronized void updatePending(int id) {
+        flush();
+        delegate.updatePending(id);
+    }
+
+    @Override
+    public synchronized Maintainer maintainer() {
+        flush();
+        final Maintainer maintainer = delegate.maintainer();
+        // the maintainer removes the invalid rows and changes the ids on the delegate directly.
+        return maintainer instanceof LazyMaintainer
+                ? new CacheClearingLazyMaintainer(maintainer)
+                : new CacheClearingMaintainer(maintainer);
+    }
+
+    private class CacheClearingMaintainer implements Maintainer {
+        private final Maintainer maintainer;
+
+        CacheClearingMaintainer(Maintainer maintainer) {
+            this.maintainer = maintainer;
+        }
+
+        @Override
+        public Iterator<FileDownloadModel> iterator() {
+            return maintainer.iterator();
+        }
+
+        @Override
+        public void onFinishMaintain() {
+            maintainer.onFinishMaintain();
+            synchronized (pendingLock) {
+                connectionCache.clear();
+            }
+        }
+
+        @Override
+        public void onRemovedInvalidData(FileDownloadModel model) {
+            maintainer.onRemovedInvalidData(model);
+        }
+
+        @Override
+        public void onRefreshedValidData(FileDownloadModel model) {
+            maintainer.onRefreshedValidData(model);
+        }
+
+        @Override
+        public void changeFileDownloadModelId(int oldId, FileDownloadModel modelWithNewId) {
+            maintainer.changeFileDownloadModelId(oldId, modelWithNewId);
+        }
+    }
+
+    private class CacheClearingLazyMaintainer extends CacheClearingMaintainer
+            implements LazyMaintainer {
+        CacheClearingLazyMaintainer(Maintainer maintainer) {
+            super(maintainer);
+        }
+    }
+
+    private static class PendingConnectionOffset {
+        final int id;
+        final int index;
+        long offset;
+
+        PendingConnectionOffset(int id, int index, long offset) {
+            this.id = id;
+            this.index = index;
+            this.offset = offset;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.stream;
+
+import java.io.IOException;
+
+/**
+ * The {@link FileDownloadOutputStream} which can separate flushing its buffers from syncing to the
+ * physical media, so the sync can be done on the other thread without blocking the writing.
+ * <p>
+ * If the output stream doesn't implement this interface, {@link FileDownloadOutputStream#flushAndSync()}
+ * is invoked on the writing thread instead.
+ */
+public interface FileDownloadAsyncSyncable {
+
+    /**
+     * Flush all buffers of VM to the system, it is invoked on the writing thread.
+     */
+    void flush() throws IOException;
+
+    /**
+     * @return the handle to force all data flushed through {@link #flush()} to the physical media,
+     * the output streams on the same file must provide the same handle. It must be released after
+     * using, and it is still valid after this output stream is closed until it is released.
+     */
+    SyncHandle acquireSyncHandle() throws IOException;
+
+    interface SyncHandle {
+        /**
+         * Force all data flushed to the physical media, it can be invoked on any thread.
+         */
+        void sync() throws IOException;
+
+        void release() throws IOException;
+    }
+}
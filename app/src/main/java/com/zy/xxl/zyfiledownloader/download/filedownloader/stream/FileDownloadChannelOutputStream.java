@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.stream;
+
+
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadBufferPool;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 多个连接共享同一个文件通道的文件写入器
+ * The FileDownloadOutputStream implemented using a {@link FileChannel} which is shared by all
+ * output streams on the same file, namely all connections of the same task.
+ * <p>
+ * Each output stream keeps its own position and buffer, and writes to the shared channel with
+ * the positional {@link FileChannel#write(ByteBuffer, long)}, so there is only one file
+ * descriptor for each task, and the sync requested by several connections at the same time
+ * is done with one {@link FileChannel#force(boolean)}.
+ */
+public class FileDownloadChannelOutputStream implements FileDownloadOutputStream,
+        FileDownloadAsyncSyncable {
+
+    private final SharedFileChannel sharedChannel;
+    private final byte[] bufferArray;
+    private final ByteBuffer buffer;
+    // the position on the file of the first byte in the buffer.
+    private long position;
+    private boolean closed;
+
+    FileDownloadChannelOutputStream(File file) throws IOException {
+        sharedChannel = SharedFileChannel.acquire(file);
+        bufferArray = FileDownloadBufferPool.getImpl().acquire();
+        buffer = ByteBuffer.wrap(bufferArray);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len >= buffer.capacity()) {
+            // large data, write it directly.
+            flushBuffer();
+            position += sharedChannel.write(ByteBuffer.wrap(b, off, len), position);
+            return;
+        }
+
+        if (len > buffer.remaining()) flushBuffer();
+        buffer.put(b, off, len);
+    }
+
+    @Override
+    public void flushAndSync() throws IOException {
+        flushBuffer();
+        sharedChannel.sync();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+    }
+
+    @Override
+    public SyncHandle acquireSyncHandle() {
+        return sharedChannel.retain();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+
+        try {
+            flushBuffer();
+        } finally {
+            FileDownloadBufferPool.getImpl().release(bufferArray);
+            sharedChannel.release();
+        }
+    }
+
+    @Override
+    public void seek(long offset) throws IOException {
+        flushBuffer();
+        position = offset;
+    }
+
+    @Override
+    public void setLength(long totalBytes) throws IOException {
+        flushBuffer();
+        sharedChannel.setLength(totalBytes);
+    }
+
+    private void flushBuffer() throws IOException {
+        if (buffer.position() == 0) return;
+
+        buffer.flip();
+        position += sharedChannel.write(buffer, position);
+        buffer.clear();
+    }
+
+    public static class Creator implements FileDownloadHelper.OutputStreamCreator {
+
+        @Override
+        public FileDownloadOutputStream create(File file) throws IOException {
+            return new FileDownloadChannelOutputStream(file);
+        }
+
+        @Override
+        public boolean supportSeek() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.stream;
+
+
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 内存映射的文件写入器
+ * The FileDownloadOutputStream implemented using a sliding {@link MappedByteBuffer} window, the
+ * data is copied into the mapped pages directly without any write system call.
+ * <p>
+ * It is designed for the large file which has been pre-allocated, the range beyond the length of
+ * the file is never mapped because mapping it would extend the file, so such data(the file isn't
+ * pre-allocated or is chunked) is written through the positional channel write instead.
+ * <p>
+ * The window is forced and unmapped as soon as it slides or the stream is closed. If the platform
+ * doesn't allow unmapping it at once, it is left to the garbage collector, and the data is written
+ * through the channel instead of mapping the new window while there are too many such windows, so
+ * they never exhaust the address space.
+ * <p>
+ * You can select it through
+ * {@link com.zy.xxl.zyfiledownloader.download.filedownloader.services.DownloadMgrInitialParams.InitCustomMaker#outputStreamCreator(FileDownloadHelper.OutputStreamCreator)}
+ * with {@link Creator}.
+ */
+public class FileDownloadMappedOutputStream implements FileDownloadOutputStream {
+
+    private static final long WINDOW_SIZE = 4 * 1024 * 1024; // 4MB
+    // the windows released but not unmapped yet are 64MB at most.
+    private static final int MAX_OUTSTANDING_WINDOWS = 16;
+
+    private static final ReferenceQueue<MappedByteBuffer> COLLECTED_WINDOWS =
+            new ReferenceQueue<>();
+    // guarded by itself.
+    private static final Set<Reference<MappedByteBuffer>> OUTSTANDING_WINDOWS = new HashSet<>();
+
+    private final SharedFileChannel sharedChannel;
+    private MappedByteBuffer window;
+    // the position on the file of the first byte in the window.
+    private long windowStart;
+    private boolean windowDirty;
+    private long position;
+    private boolean closed;
+
+    FileDownloadMappedOutputStream(File file) throws IOException {
+        sharedChannel = SharedFileChannel.acquire(file);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!prepareWindow()) {
+                position += sharedChannel.write(ByteBuffer.wrap(b, off, len), position);
+                return;
+            }
+
+            final int windowOffset = (int) (position - windowStart);
+            final int count = Math.min(len, window.capacity() - windowOffset);
+            window.position(windowOffset);
+            window.put(b, off, count);
+            windowDirty = true;
+
+            position += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    @Override
+    public void flushAndSync() throws IOException {
+        forceWindow();
+        sharedChannel.sync();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+
+        try {
+            forceWindow();
+            releaseWindow();
+        } finally {
+            sharedChannel.release();
+        }
+    }
+
+    @Override
+    public void seek(long offset) throws IOException {
+        position = offset;
+    }
+
+    @Override
+    public void setLength(long totalBytes) throws IOException {
+        forceWindow();
+        // never keep the window which may be truncated.
+        releaseWindow();
+        sharedChannel.setLength(totalBytes);
+    }
+
+    /**
+     * @return {@code true} if the window covers the current position.
+     */
+    private boolean prepareWindow() throws IOException {
+        if (window != null && position >= windowStart
+                && position < windowStart + window.capacity()) {
+            return true;
+        }
+
+        // slide the window, the old one can't be forced any more after it is released.
+        forceWindow();
+        releaseWindow();
+
+        final long fileLength = sharedChannel.size();
+        if (position >= fileLength) return false;
+        if (isTooManyOutstandingWindows()) return false;
+
+        window = sharedChannel.map(position, Math.min(WINDOW_SIZE, fileLength - position));
+        windowStart = position;
+        return true;
+    }
+
+    private void forceWindow() {
+        if (window == null || !windowDirty) return;
+
+        window.force();
+        windowDirty = false;
+    }
+
+    private void releaseWindow() {
+        final MappedByteBuffer releasedWindow = window;
+        window = null;
+        windowDirty = false;
+        if (releasedWindow == null || unmap(releasedWindow)) return;
+
+        synchronized (OUTSTANDING_WINDOWS) {
+            OUTSTANDING_WINDOWS.add(new PhantomReference<>(releasedWindow, COLLECTED_WINDOWS));
+        }
+    }
+
+    private static boolean isTooManyOutstandingWindows() {
+        synchronized (OUTSTANDING_WINDOWS) {
+            Reference<? extends MappedByteBuffer> collected;
+            while ((collected = COLLECTED_WINDOWS.poll()) != null) {
+                OUTSTANDING_WINDOWS.remove(collected);
+            }
+            return OUTSTANDING_WINDOWS.size() >= MAX_OUTSTANDING_WINDOWS;
+        }
+    }
+
+    /**
+     * Unmap the {@code buffer} at once, it must never be accessed after this.
+     *
+     * @return {@code false} if the platform doesn't allow it, then the buffer is unmapped when it
+     * is collected.
+     */
+    private static boolean unmap(MappedByteBuffer buffer) {
+        try {
+            // android: java.nio.DirectByteBuffer#free
+            final Method free = buffer.getClass().getMethod("free");
+            free.setAccessible(true);
+            free.invoke(buffer);
+            return true;
+        } catch (Exception ignored) {
+        }
+
+        try {
+            // openjdk: sun.nio.ch.DirectBuffer#cleaner
+            final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            final Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner == null) return false;
+
+            final Method clean = cleaner.getClass().getMethod("clean");
+            clean.setAccessible(true);
+            clean.invoke(cleaner);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    public static class Creator implements FileDownloadHelper.OutputStreamCreator {
+
+        @Override
+        public FileDownloadOutputStream create(File file) throws IOException {
+            return new FileDownloadMappedOutputStream(file);
+        }
+
+        @Override
+        public boolean supportSeek() {
+            return true;
+        }
+    }
+}
@@ -26,6 +26,7 @@ import java.io.SyncFailedException;
  * 已完成
  * The output stream used to write the file for download.
  *
+ * @see FileDownloadChannelOutputStream
  * @see FileDownloadRandomAccessFile
  */
 
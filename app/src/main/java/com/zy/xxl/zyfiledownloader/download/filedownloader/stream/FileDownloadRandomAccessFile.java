@@ -18,6 +18,7 @@ package com.zy.xxl.zyfiledownloader.download.filedownloader.stream;
 
 
 import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadHelper;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.util.FileDownloadProperties;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
@@ -40,7 +41,8 @@ public class FileDownloadRandomAccessFile implements FileDownloadOutputStream {
     FileDownloadRandomAccessFile(File file) throws IOException {
         randomAccess = new RandomAccessFile(file, "rw");
         fd = randomAccess.getFD();
-        out = new BufferedOutputStream(new FileOutputStream(randomAccess.getFD()));
+        out = new BufferedOutputStream(new FileOutputStream(randomAccess.getFD()),
+                FileDownloadProperties.getImpl().DOWNLOAD_BUFFER_SIZE);
     }
 
     @Override
@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.stream;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The reference counted {@link FileChannel} shared by all output streams on the same file.
+ */
+class SharedFileChannel implements FileDownloadAsyncSyncable.SyncHandle {
+    private static final Map<String, SharedFileChannel> CHANNEL_MAP = new HashMap<>();
+
+    private final String path;
+    private final RandomAccessFile randomAccess;
+    private final FileChannel channel;
+    // guarded by the CHANNEL_MAP.
+    private int refCount;
+
+    private final AtomicLong writtenSeq = new AtomicLong();
+    private final Object syncLock = new Object();
+    // guarded by the syncLock.
+    private long syncedSeq;
+
+    private SharedFileChannel(String path, RandomAccessFile randomAccess) {
+        this.path = path;
+        this.randomAccess = randomAccess;
+        this.channel = randomAccess.getChannel();
+    }
+
+    /**
+     * @return the channel shared on the {@code file}, it must be released through
+     * {@link #release()} after using.
+     */
+    static SharedFileChannel acquire(File file) throws IOException {
+        final String path = file.getAbsolutePath();
+        synchronized (CHANNEL_MAP) {
+            SharedFileChannel sharedChannel = CHANNEL_MAP.get(path);
+            if (sharedChannel != null && !file.exists()) {
+                // the file has been deleted, never write to it any more.
+                CHANNEL_MAP.remove(path);
+                sharedChannel = null;
+            }
+
+            if (sharedChannel == null) {
+                sharedChannel = new SharedFileChannel(path, new RandomAccessFile(file, "rw"));
+                CHANNEL_MAP.put(path, sharedChannel);
+            }
+
+            sharedChannel.refCount++;
+            return sharedChannel;
+        }
+    }
+
+    SharedFileChannel retain() {
+        synchronized (CHANNEL_MAP) {
+            refCount++;
+        }
+        return this;
+    }
+
+    @Override
+    public void release() throws IOException {
+        synchronized (CHANNEL_MAP) {
+            if (--refCount > 0) return;
+
+            if (CHANNEL_MAP.get(path) == this) CHANNEL_MAP.remove(path);
+        }
+
+        randomAccess.close();
+    }
+
+    int write(ByteBuffer src, long position) throws IOException {
+        int writtenBytes = 0;
+        while (src.hasRemaining()) {
+            writtenBytes += channel.write(src, position + writtenBytes);
+        }
+        writtenSeq.incrementAndGet();
+        return writtenBytes;
+    }
+
+    /**
+     * Force all data written through {@link #write(ByteBuffer, long)} to the physical media, if it
+     * has been forced by the other output stream since the last write, nothing need to do.
+     */
+    @Override
+    public void sync() throws IOException {
+        final long seq = writtenSeq.get();
+        synchronized (syncLock) {
+            // the data before seq has been forced by the other output stream.
+            if (syncedSeq >= seq) return;
+
+            channel.force(true);
+            syncedSeq = seq;
+        }
+    }
+
+    MappedByteBuffer map(long position, long size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+    }
+
+    long size() throws IOException {
+        return channel.size();
+    }
+
+    void setLength(long totalBytes) throws IOException {
+        randomAccess.setLength(totalBytes);
+    }
+}
@@ -92,6 +92,27 @@ public class DownloadServiceNotConnectedHelper {
         return false;
     }
 
+    public static int getMaxNetworkThreadCount() {
+        log("request get the max network thread count in the download service");
+        return 0;
+    }
+
+    public static boolean setTaskPriority(int id, int priority) {
+        log("request set the priority[%d] of the task[%d] in the download service", priority, id);
+        return false;
+    }
+
+    public static boolean setMaxBandwidth(long bytesPerSecond) {
+        log("request set the max bandwidth[%d] in the download service", bytesPerSecond);
+        return false;
+    }
+
+    public static boolean setTaskMaxBandwidth(int id, long bytesPerSecond) {
+        log("request set the max bandwidth[%d] of the task[%d] in the download service",
+                bytesPerSecond, id);
+        return false;
+    }
+
     public static boolean clearTaskData(int id) {
         log("request clear the task[%d] data in the database", id);
         return false;
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.util;
+
+import java.util.ArrayDeque;
+
+/**
+ * 读写缓冲池
+ * The pool of the buffers used for reading from the connection and writing to the file, all tasks
+ * share this pool, so the buffers are reused instead of allocated on each fetching.
+ * <p/>
+ * The size of each buffer is {@link FileDownloadProperties#DOWNLOAD_BUFFER_SIZE}, and the total
+ * bytes allocated from this pool never exceed
+ * {@link FileDownloadProperties#DOWNLOAD_BUFFER_POOL_MAX_SIZE}, once it is reached, a small buffer
+ * which isn't pooled is provided instead.
+ */
+public class FileDownloadBufferPool {
+
+    private final static int FALLBACK_BUFFER_SIZE = 4096;
+
+    private final int bufferSize;
+    private final long maxPoolBytes;
+    private final ArrayDeque<byte[]> idleBufferQueue = new ArrayDeque<>();
+    // guarded by the idleBufferQueue.
+    private long allocatedBytes;
+
+    public static class HolderClass {
+        private final static FileDownloadBufferPool INSTANCE = new FileDownloadBufferPool(
+                FileDownloadProperties.getImpl().DOWNLOAD_BUFFER_SIZE,
+                FileDownloadProperties.getImpl().DOWNLOAD_BUFFER_POOL_MAX_SIZE);
+    }
+
+    public static FileDownloadBufferPool getImpl() {
+        return HolderClass.INSTANCE;
+    }
+
+    FileDownloadBufferPool(int bufferSize, long maxPoolBytes) {
+        this.bufferSize = bufferSize;
+        this.maxPoolBytes = maxPoolBytes;
+    }
+
+    /**
+     * @return the buffer, its length is {@link #getBufferSize()} unless the max size of this pool
+     * is reached. It must be released through {@link #release(byte[])} after using.
+     */
+    public byte[] acquire() {
+        synchronized (idleBufferQueue) {
+            final byte[] buffer = idleBufferQueue.poll();
+            if (buffer != null) return buffer;
+
+            if (allocatedBytes + bufferSize <= maxPoolBytes) {
+                allocatedBytes += bufferSize;
+                return new byte[bufferSize];
+            }
+        }
+
+        if (FileDownloadLog.NEED_LOG) {
+            FileDownloadLog.d(this, "the buffer pool is exhausted(%d), use the fallback buffer",
+                    maxPoolBytes);
+        }
+        return new byte[FALLBACK_BUFFER_SIZE];
+    }
+
+    /**
+     * @param buffer the buffer acquired from {@link #acquire()}, it must not be used any more.
+     */
+    public void release(byte[] buffer) {
+        // the fallback buffer isn't pooled.
+        if (buffer == null || buffer.length != bufferSize) return;
+
+        synchronized (idleBufferQueue) {
+            // the fallback buffer has the same size when the buffer size is the min one.
+            if ((idleBufferQueue.size() + 1) * (long) bufferSize > allocatedBytes) return;
+
+            idleBufferQueue.push(buffer);
+        }
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.zy.xxl.zyfiledownloader.download.filedownloader.util;
 
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -44,7 +45,7 @@ public class FileDownloadExecutors {
     }
 
     public static ThreadPoolExecutor newDefaultThreadPool(int nThreads,
-                                                          LinkedBlockingQueue<Runnable> queue,
+                                                          BlockingQueue<Runnable> queue,
                                                           String prefix) {
         final ThreadPoolExecutor executor = new ThreadPoolExecutor(nThreads, nThreads,
                 DEFAULT_IDLE_SECOND, TimeUnit.SECONDS, queue, new FileDownloadThreadFactory(prefix));
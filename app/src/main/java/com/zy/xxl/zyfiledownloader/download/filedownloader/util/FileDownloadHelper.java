@@ -104,7 +104,7 @@ public class FileDownloadHelper {
          * there are several conditions must be confirmed:
          * <p>
          * 1. the connection is support multiple connection(SUPPORT"Partial Content(206)" AND NOT Chunked（分成大块）)
-         * 2. the current {@link FileDownloadOutputStream} support seek(The default one({@link com.zy.xxl.zyfiledownloader.download.filedownloader.stream.FileDownloadRandomAccessFile} is support)
+         * 2. the current {@link FileDownloadOutputStream} support seek(The default one({@link com.zy.xxl.zyfiledownloader.download.filedownloader.stream.FileDownloadChannelOutputStream} is support)
          * 3. this is a new task NOT resume from breakpoint( If the task resume from breakpoint
          * the connection count would be using
          * the one you determined when the task
@@ -122,6 +122,36 @@ public class FileDownloadHelper {
         int determineConnectionCount(int downloadId, String url, String path, long totalLength);
     }
 
+    /**
+     * The connection count adapter which can adjust the connection count while the task is
+     * downloading, rather than only determine it once before the task is started.
+     */
+    public interface AdaptiveConnectionCountAdapter extends ConnectionCountAdapter {
+        /**
+         * Invoked periodically while the task is downloading with multiple connections.
+         * <p/>
+         * If the returned count is larger than the current one, the largest remaining range will be
+         * split out to the new connections; if it is smaller, the remaining ranges of some
+         * connections will be taken back and downloaded when the other connections are completed.
+         *
+         * @param downloadId          the download id.
+         * @param connectionCount     the count of the connections which are running now.
+         * @param totalBytesPerSecond the total throughput of all connections since the last
+         *                            invocation.
+         * @return the count of connection you want for the task. the value must be large than 0.
+         */
+        int adjustConnectionCount(int downloadId, int connectionCount, long totalBytesPerSecond);
+
+        /**
+         * Invoked when the task which has been adjusted through
+         * {@link #adjustConnectionCount(int, int, long)} is finished, whether it is completed,
+         * paused or failed, so the state kept for the task can be released.
+         *
+         * @param downloadId the download id.
+         */
+        void onTaskFinished(int downloadId);
+    }
+
     public interface DatabaseCustomMaker {
         /**
          * The database is used for storing the {@link FileDownloadModel}.
@@ -155,7 +185,7 @@ public class FileDownloadHelper {
          * @throws FileNotFoundException if the file exists but is a directory
          *                               rather than a regular file, does not exist but cannot
          *                               be created, or cannot be opened for any other reason
-         * @see com.zy.xxl.zyfiledownloader.download.filedownloader.stream.FileDownloadRandomAccessFile.Creator
+         * @see com.zy.xxl.zyfiledownloader.download.filedownloader.stream.FileDownloadChannelOutputStream.Creator
          */
         FileDownloadOutputStream create(File file) throws IOException;
 
@@ -87,6 +87,108 @@ import java.util.Properties;
  * Max 12, min 1. If the value more than {@code max} will be replaced with {@code max}; If the value
  * less than {@code min} will be replaced with {@code min}.
  * <p/>
+ * Key {@code download.buffer-size}
+ * Value: [4096, 1048576]
+ * Default: 65536.
+ * Such as: download.buffer-size=65536
+ * Description:
+ * The size of each buffer used for reading from the connection and writing to the file. The buffers
+ * are pooled and reused by all tasks, the bigger one means fewer read/write system calls but more
+ * memory.
+ * If the value more than {@code max} will be replaced with {@code max}; If the value less than
+ * {@code min} will be replaced with {@code min}.
+ * <p/>
+ * Key {@code download.buffer-pool-max-size}
+ * Value: [0, {@link Long#MAX_VALUE}]
+ * Default: 4194304.
+ * Such as: download.buffer-pool-max-size=4194304
+ * Description:
+ * The max bytes of all buffers allocated from the buffer pool for all running tasks, when it is
+ * reached, the further requirement would use a 4096 bytes buffer which isn't pooled instead.
+ * <p/>
+ * Key {@code download.pipelined-write}
+ * Value: {@code true} or {@code false}
+ * Default: {@code false}.
+ * Such as: download.pipelined-write=false
+ * Description:
+ * Whether write the data read from the connection to the file on a separate writer thread, so the
+ * slow writing or sync on the storage never stalls the network reading unless the bounded ring of
+ * buffers between them is full. The progress and the offset synced always follow the data which
+ * has been written.
+ * <p/>
+ * Key {@code download.max-connection-count}
+ * Value: [1, 64]
+ * Default: 12.
+ * Such as: download.max-connection-count=12
+ * Description:
+ * The maximum count of the concurrent connections for the multi-connection tasks of all tasks. The
+ * task starts with the connections available and gains more as the others are released, the
+ * connections are shared fairly between the tasks.
+ * If the value more than {@code max} will be replaced with {@code max}; If the value less than
+ * {@code min} will be replaced with {@code min}.
+ * <p/>
+ * Key {@code download.max-connection-count-per-host}
+ * Value: [0, {@link Integer#MAX_VALUE}]
+ * Default: 6, which follows the limit of the connections for each host in browsers.
+ * Such as: download.max-connection-count-per-host=6
+ * Description:
+ * The maximum count of the concurrent connections to the same host for the multi-connection tasks,
+ * 0 means no limit.
+ * <p/>
+ * Key {@code download.max-task-count-per-host}
+ * Value: [0, {@link Integer#MAX_VALUE}]
+ * Default: 0.
+ * Such as: download.max-task-count-per-host=2
+ * Description:
+ * The maximum count of the tasks downloading from the same host simultaneously, 0 means no limit.
+ * The excess tasks are queued for their host without occupying the network thread, so the tasks for
+ * the other hosts still proceed.
+ * <p/>
+ * Key {@code download.max-requests-per-second-per-host}
+ * Value: [0, {@link Integer#MAX_VALUE}]
+ * Default: 20.
+ * Such as: download.max-requests-per-second-per-host=20
+ * Description:
+ * The maximum rate of the requests(including the retries and the connections split out) sent to the
+ * same host, the burst up to this count is allowed, 0 means no limit. The throttled task or
+ * connection is queued again after the delay without occupying any thread, and the retries are
+ * sent at once with the later requests to the host delayed for them.
+ * <p/>
+ * Key {@code download.max-bandwidth}
+ * Value: [0, {@link Long#MAX_VALUE}]
+ * Default: 0.
+ * Such as: download.max-bandwidth=1048576
+ * Description:
+ * The maximum bytes per second read by all tasks, it is shared by the running tasks weighted by
+ * their priorities, 0 means no limit. It can be changed at runtime through
+ * {@link com.zy.xxl.zyfiledownloader.download.filedownloader.FileDownloader#setMaxBandwidth(long)}.
+ * <p/>
+ * Key {@code download.tail-hedging}
+ * Value: {@code true} or {@code false}
+ * Default: {@code false}.
+ * Such as: download.tail-hedging=false
+ * Description:
+ * Whether request the tail of the slowest range again on a new connection when the multi-connection
+ * task reaches its tail or one range is far behind the others, the connection delivers the first
+ * byte of the tail wins it and the other one is canceled.
+ * <p/>
+ * Key {@code download.stall-timeout}
+ * Value: [0, {@link Long#MAX_VALUE}]
+ * Default: 15000.
+ * Such as: download.stall-timeout=15000
+ * Description:
+ * The milliseconds the connection of the multi-connection task can be blocked on reading without
+ * any byte, then it is closed and the rest of its range is requested on a new connection without
+ * consuming the retry times, 0 means never.
+ * <p/>
+ * Key {@code download.priority-preemption}
+ * Value: {@code true} or {@code false}
+ * Default: {@code false}.
+ * Such as: download.priority-preemption=false
+ * Description:
+ * Whether the task with the higher priority waiting for the network thread pauses the running task
+ * with the lowest priority, the paused one is queued again and resumed from the breakpoint later.
+ * <p/>
  * Key {@code file.non-pre-allocation}
  * Value: {@code true} or {@code false}
  * Default: {@code false}.
@@ -120,6 +222,17 @@ public class FileDownloadProperties {
     private final static String KEY_DOWNLOAD_MIN_PROGRESS_STEP = "download.min-progress-step";
     private final static String KEY_DOWNLOAD_MIN_PROGRESS_TIME = "download.min-progress-time";
     private final static String KEY_DOWNLOAD_MAX_NETWORK_THREAD_COUNT = "download.max-network-thread-count";
+    private final static String KEY_DOWNLOAD_BUFFER_SIZE = "download.buffer-size";
+    private final static String KEY_DOWNLOAD_BUFFER_POOL_MAX_SIZE = "download.buffer-pool-max-size";
+    private final static String KEY_DOWNLOAD_PIPELINED_WRITE = "download.pipelined-write";
+    private final static String KEY_DOWNLOAD_MAX_CONNECTION_COUNT = "download.max-connection-count";
+    private final static String KEY_DOWNLOAD_MAX_CONNECTION_COUNT_PER_HOST = "download.max-connection-count-per-host";
+    private final static String KEY_DOWNLOAD_MAX_TASK_COUNT_PER_HOST = "download.max-task-count-per-host";
+    private final static String KEY_DOWNLOAD_MAX_REQUESTS_PER_SECOND_PER_HOST = "download.max-requests-per-second-per-host";
+    private final static String KEY_DOWNLOAD_MAX_BANDWIDTH = "download.max-bandwidth";
+    private final static String KEY_DOWNLOAD_TAIL_HEDGING = "download.tail-hedging";
+    private final static String KEY_DOWNLOAD_STALL_TIMEOUT = "download.stall-timeout";
+    private final static String KEY_DOWNLOAD_PRIORITY_PREEMPTION = "download.priority-preemption";
     private final static String KEY_FILE_NON_PRE_ALLOCATION = "file.non-pre-allocation";
     private final static String KEY_BROADCAST_COMPLETED = "broadcast.completed";
 
@@ -128,6 +241,17 @@ public class FileDownloadProperties {
     public final boolean HTTP_LENIENT;
     public final boolean PROCESS_NON_SEPARATE;
     public final int DOWNLOAD_MAX_NETWORK_THREAD_COUNT;
+    public final int DOWNLOAD_BUFFER_SIZE;
+    public final long DOWNLOAD_BUFFER_POOL_MAX_SIZE;
+    public final boolean DOWNLOAD_PIPELINED_WRITE;
+    public final int DOWNLOAD_MAX_CONNECTION_COUNT;
+    public final int DOWNLOAD_MAX_CONNECTION_COUNT_PER_HOST;
+    public final int DOWNLOAD_MAX_TASK_COUNT_PER_HOST;
+    public final int DOWNLOAD_MAX_REQUESTS_PER_SECOND_PER_HOST;
+    public final long DOWNLOAD_MAX_BANDWIDTH;
+    public final boolean DOWNLOAD_TAIL_HEDGING;
+    public final long DOWNLOAD_STALL_TIMEOUT;
+    public final boolean DOWNLOAD_PRIORITY_PREEMPTION;
     public final boolean FILE_NON_PRE_ALLOCATION;
     public final boolean BROADCAST_COMPLETED;
 
@@ -157,6 +281,17 @@ public class FileDownloadProperties {
         String downloadMinProgressStep = null;
         String downloadMinProgressTime = null;
         String downloadMaxNetworkThreadCount = null;
+        String downloadBufferSize = null;
+        String downloadBufferPoolMaxSize = null;
+        String downloadPipelinedWrite = null;
+        String downloadMaxConnectionCount = null;
+        String downloadMaxConnectionCountPerHost = null;
+        String downloadMaxTaskCountPerHost = null;
+        String downloadMaxRequestsPerSecondPerHost = null;
+        String downloadMaxBandwidth = null;
+        String downloadTailHedging = null;
+        String downloadStallTimeout = null;
+        String downloadPriorityPreemption = null;
         String fileNonPreAllocation = null;
         String broadcastCompleted = null;
 
@@ -173,6 +308,17 @@ public class FileDownloadProperties {
                 downloadMinProgressStep = p.getProperty(KEY_DOWNLOAD_MIN_PROGRESS_STEP);
                 downloadMinProgressTime = p.getProperty(KEY_DOWNLOAD_MIN_PROGRESS_TIME);
                 downloadMaxNetworkThreadCount = p.getProperty(KEY_DOWNLOAD_MAX_NETWORK_THREAD_COUNT);
+                downloadBufferSize = p.getProperty(KEY_DOWNLOAD_BUFFER_SIZE);
+                downloadBufferPoolMaxSize = p.getProperty(KEY_DOWNLOAD_BUFFER_POOL_MAX_SIZE);
+                downloadPipelinedWrite = p.getProperty(KEY_DOWNLOAD_PIPELINED_WRITE);
+                downloadMaxConnectionCount = p.getProperty(KEY_DOWNLOAD_MAX_CONNECTION_COUNT);
+                downloadMaxConnectionCountPerHost = p.getProperty(KEY_DOWNLOAD_MAX_CONNECTION_COUNT_PER_HOST);
+                downloadMaxTaskCountPerHost = p.getProperty(KEY_DOWNLOAD_MAX_TASK_COUNT_PER_HOST);
+                downloadMaxRequestsPerSecondPerHost = p.getProperty(KEY_DOWNLOAD_MAX_REQUESTS_PER_SECOND_PER_HOST);
+                downloadMaxBandwidth = p.getProperty(KEY_DOWNLOAD_MAX_BANDWIDTH);
+                downloadTailHedging = p.getProperty(KEY_DOWNLOAD_TAIL_HEDGING);
+                downloadStallTimeout = p.getProperty(KEY_DOWNLOAD_STALL_TIMEOUT);
+                downloadPriorityPreemption = p.getProperty(KEY_DOWNLOAD_PRIORITY_PREEMPTION);
                 fileNonPreAllocation = p.getProperty(KEY_FILE_NON_PRE_ALLOCATION);
                 broadcastCompleted = p.getProperty(KEY_BROADCAST_COMPLETED);
             }
@@ -246,6 +392,105 @@ public class FileDownloadProperties {
             DOWNLOAD_MAX_NETWORK_THREAD_COUNT = 3;
         }
 
+        //download.buffer-size
+        if (downloadBufferSize != null) {
+            DOWNLOAD_BUFFER_SIZE = getValidBufferSize(Integer.valueOf(downloadBufferSize));
+        } else {
+            DOWNLOAD_BUFFER_SIZE = 65536;
+        }
+
+        //download.buffer-pool-max-size
+        if (downloadBufferPoolMaxSize != null) {
+            DOWNLOAD_BUFFER_POOL_MAX_SIZE = Math.max(0, Long.valueOf(downloadBufferPoolMaxSize));
+        } else {
+            DOWNLOAD_BUFFER_POOL_MAX_SIZE = 4 * 1024 * 1024L;
+        }
+
+        //download.pipelined-write
+        if (downloadPipelinedWrite != null) {
+            if (!downloadPipelinedWrite.equals(TRUE_STRING) &&
+                    !downloadPipelinedWrite.equals(FALSE_STRING)) {
+                throw new IllegalStateException(
+                        FileDownloadUtils.formatString("the value of '%s' must be '%s' or '%s'",
+                                KEY_DOWNLOAD_PIPELINED_WRITE, TRUE_STRING, FALSE_STRING));
+            }
+            DOWNLOAD_PIPELINED_WRITE = downloadPipelinedWrite.equals(TRUE_STRING);
+        } else {
+            DOWNLOAD_PIPELINED_WRITE = false;
+        }
+
+        //download.max-connection-count
+        if (downloadMaxConnectionCount != null) {
+            DOWNLOAD_MAX_CONNECTION_COUNT = getValidConnectionCount(
+                    Integer.valueOf(downloadMaxConnectionCount));
+        } else {
+            DOWNLOAD_MAX_CONNECTION_COUNT = 12;
+        }
+
+        //download.max-connection-count-per-host
+        if (downloadMaxConnectionCountPerHost != null) {
+            DOWNLOAD_MAX_CONNECTION_COUNT_PER_HOST = Math.max(0,
+                    Integer.valueOf(downloadMaxConnectionCountPerHost));
+        } else {
+            DOWNLOAD_MAX_CONNECTION_COUNT_PER_HOST = 6;
+        }
+
+        //download.max-task-count-per-host
+        if (downloadMaxTaskCountPerHost != null) {
+            DOWNLOAD_MAX_TASK_COUNT_PER_HOST = Math.max(0,
+                    Integer.valueOf(downloadMaxTaskCountPerHost));
+        } else {
+            DOWNLOAD_MAX_TASK_COUNT_PER_HOST = 0;
+        }
+
+        //download.max-requests-per-second-per-host
+        if (downloadMaxRequestsPerSecondPerHost != null) {
+            DOWNLOAD_MAX_REQUESTS_PER_SECOND_PER_HOST = Math.max(0,
+                    Integer.valueOf(downloadMaxRequestsPerSecondPerHost));
+        } else {
+            DOWNLOAD_MAX_REQUESTS_PER_SECOND_PER_HOST = 20;
+        }
+
+        //download.max-bandwidth
+        if (downloadMaxBandwidth != null) {
+            DOWNLOAD_MAX_BANDWIDTH = Math.max(0, Long.valueOf(downloadMaxBandwidth));
+        } else {
+            DOWNLOAD_MAX_BANDWIDTH = 0;
+        }
+
+        //download.tail-hedging
+        if (downloadTailHedging != null) {
+            if (!downloadTailHedging.equals(TRUE_STRING) &&
+                    !downloadTailHedging.equals(FALSE_STRING)) {
+                throw new IllegalStateException(
+                        FileDownloadUtils.formatString("the value of '%s' must be '%s' or '%s'",
+                                KEY_DOWNLOAD_TAIL_HEDGING, TRUE_STRING, FALSE_STRING));
+            }
+            DOWNLOAD_TAIL_HEDGING = downloadTailHedging.equals(TRUE_STRING);
+        } else {
+            DOWNLOAD_TAIL_HEDGING = false;
+        }
+
+        //download.stall-timeout
+        if (downloadStallTimeout != null) {
+            DOWNLOAD_STALL_TIMEOUT = Math.max(0, Long.valueOf(downloadStallTimeout));
+        } else {
+            DOWNLOAD_STALL_TIMEOUT = 15000;
+        }
+
+        //download.priority-preemption
+        if (downloadPriorityPreemption != null) {
+            if (!downloadPriorityPreemption.equals(TRUE_STRING) &&
+                    !downloadPriorityPreemption.equals(FALSE_STRING)) {
+                throw new IllegalStateException(
+                        FileDownloadUtils.formatString("the value of '%s' must be '%s' or '%s'",
+                                KEY_DOWNLOAD_PRIORITY_PREEMPTION, TRUE_STRING, FALSE_STRING));
+            }
+            DOWNLOAD_PRIORITY_PREEMPTION = downloadPriorityPreemption.equals(TRUE_STRING);
+        } else {
+            DOWNLOAD_PRIORITY_PREEMPTION = false;
+        }
+
         // file.non-pre-allocation
         if (fileNonPreAllocation != null) {
             if (!fileNonPreAllocation.equals(TRUE_STRING) &&
@@ -274,13 +519,15 @@ public class FileDownloadProperties {
 
         if (FileDownloadLog.NEED_LOG) {
             FileDownloadLog.i(FileDownloadProperties.class, "init properties %d\n load properties:" +
-                            " %s=%B; %s=%B; %s=%d; %s=%d; %s=%d",
+                            " %s=%B; %s=%B; %s=%d; %s=%d; %s=%d; %s=%d; %s=%d",
                     System.currentTimeMillis() - start,
                     KEY_HTTP_LENIENT, HTTP_LENIENT,
                     KEY_PROCESS_NON_SEPARATE, PROCESS_NON_SEPARATE,
                     KEY_DOWNLOAD_MIN_PROGRESS_STEP, DOWNLOAD_MIN_PROGRESS_STEP,
                     KEY_DOWNLOAD_MIN_PROGRESS_TIME, DOWNLOAD_MIN_PROGRESS_TIME,
-                    KEY_DOWNLOAD_MAX_NETWORK_THREAD_COUNT, DOWNLOAD_MAX_NETWORK_THREAD_COUNT);
+                    KEY_DOWNLOAD_MAX_NETWORK_THREAD_COUNT, DOWNLOAD_MAX_NETWORK_THREAD_COUNT,
+                    KEY_DOWNLOAD_BUFFER_SIZE, DOWNLOAD_BUFFER_SIZE,
+                    KEY_DOWNLOAD_BUFFER_POOL_MAX_SIZE, DOWNLOAD_BUFFER_POOL_MAX_SIZE);
         }
     }
 
@@ -308,4 +555,42 @@ public class FileDownloadProperties {
 
         return requireCount;
     }
+
+    public static int getValidConnectionCount(int requireCount) {
+        final int MAX_VALID_CONNECTION_COUNT = 64;
+        final int MIN_VALID_CONNECTION_COUNT = 1;
+
+        if (requireCount > MAX_VALID_CONNECTION_COUNT) {
+            FileDownloadLog.w(FileDownloadProperties.class, "require the count of connection" +
+                            " is %d, what is more than the max valid count(%d), so adjust to %d auto",
+                    requireCount, MAX_VALID_CONNECTION_COUNT, MAX_VALID_CONNECTION_COUNT);
+            return MAX_VALID_CONNECTION_COUNT;
+        } else if (requireCount < MIN_VALID_CONNECTION_COUNT) {
+            FileDownloadLog.w(FileDownloadProperties.class, "require the count of connection" +
+                            " is %d, what is less than the min valid count(%d), so adjust to %d auto",
+                    requireCount, MIN_VALID_CONNECTION_COUNT, MIN_VALID_CONNECTION_COUNT);
+            return MIN_VALID_CONNECTION_COUNT;
+        }
+
+        return requireCount;
+    }
+
+    private static int getValidBufferSize(int requireSize) {
+        final int MAX_VALID_BUFFER_SIZE = 1024 * 1024;
+        final int MIN_VALID_BUFFER_SIZE = 4096;
+
+        if (requireSize > MAX_VALID_BUFFER_SIZE) {
+            FileDownloadLog.w(FileDownloadProperties.class, "require the buffer size is %d, what " +
+                            "is more than the max valid size(%d), so adjust to %d auto",
+                    requireSize, MAX_VALID_BUFFER_SIZE, MAX_VALID_BUFFER_SIZE);
+            return MAX_VALID_BUFFER_SIZE;
+        } else if (requireSize < MIN_VALID_BUFFER_SIZE) {
+            FileDownloadLog.w(FileDownloadProperties.class, "require the buffer size is %d, what " +
+                            "is less than the min valid size(%d), so adjust to %d auto",
+                    requireSize, MIN_VALID_BUFFER_SIZE, MIN_VALID_BUFFER_SIZE);
+            return MIN_VALID_BUFFER_SIZE;
+        }
+
+        return requireSize;
+    }
 }
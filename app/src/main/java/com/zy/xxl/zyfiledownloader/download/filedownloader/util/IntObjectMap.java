@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 整型键哈希表
+ * The thread-safe hash map from the primitive {@code int} key to the object, used for the
+ * registries indexed by the download id.
+ * <p/>
+ * It is open addressing with linear probing, so there isn't any boxing or entry object, and the
+ * put, get and remove are O(1) expected rather than the O(n) array shifting of the
+ * {@code SparseArray}. The removed slot is filled by shifting the following entries backward, so
+ * there isn't any tombstone either.
+ * <p/>
+ * The {@code null} value isn't supported, putting it is the same as removing the key.
+ */
+public class IntObjectMap<V> {
+
+    private final static int MIN_CAPACITY = 8;
+
+    private int[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+
+    public IntObjectMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public IntObjectMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    public synchronized V get(int key) {
+        final int index = indexOf(key);
+        return index < 0 ? null : valueAt(index);
+    }
+
+    public synchronized boolean containsKey(int key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * @return the previous value of the {@code key}, or {@code null} if there wasn't any.
+     */
+    public synchronized V put(int key, V value) {
+        if (value == null) return remove(key);
+
+        int index = slotOf(key);
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                final V previous = valueAt(index);
+                values[index] = value;
+                return previous;
+            }
+            index = (index + 1) & mask;
+        }
+
+        keys[index] = key;
+        values[index] = value;
+        // keep the load factor under 0.75.
+        if (++size * 4 >= values.length * 3) resize(values.length * 2);
+        return null;
+    }
+
+    /**
+     * @return the value of the {@code key} on the map, which is the {@code value} if there wasn't
+     * any.
+     */
+    public synchronized V putIfAbsent(int key, V value) {
+        final V current = get(key);
+        if (current != null) return current;
+
+        put(key, value);
+        return value;
+    }
+
+    /**
+     * @return the removed value, or {@code null} if there isn't the {@code key}.
+     */
+    public synchronized V remove(int key) {
+        final int index = indexOf(key);
+        if (index < 0) return null;
+
+        final V removed = valueAt(index);
+        removeAt(index);
+        return removed;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * @return the snapshot of the keys, in no particular order.
+     */
+    public synchronized int[] keys() {
+        final int[] snapshot = new int[size];
+        int i = 0;
+        for (int index = 0; index < values.length; index++) {
+            if (values[index] != null) snapshot[i++] = keys[index];
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the snapshot of the values, in no particular order.
+     */
+    public synchronized List<V> values() {
+        final List<V> snapshot = new ArrayList<>(size);
+        for (int index = 0; index < values.length; index++) {
+            if (values[index] != null) snapshot.add(valueAt(index));
+        }
+        return snapshot;
+    }
+
+    @SuppressWarnings("unchecked")
+    private V valueAt(int index) {
+        return (V) values[index];
+    }
+
+    private int indexOf(int key) {
+        int index = slotOf(key);
+        while (values[index] != null) {
+            if (keys[index] == key) return index;
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int slotOf(int key) {
+        // spread the ids which are hash codes or sequential numbers.
+        final int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private void removeAt(int index) {
+        values[index] = null;
+        size--;
+
+        // shift the following entries of the same probe sequence backward to fill the hole.
+        int hole = index;
+        int next = (index + 1) & mask;
+        while (values[next] != null) {
+            final int slot = slotOf(keys[next]);
+            // the entry can be moved to the hole only if its slot isn't in (hole, next].
+            final boolean isBetween = hole <= next
+                    ? hole < slot && slot <= next
+                    : hole < slot || slot <= next;
+            if (!isBetween) {
+                keys[hole] = keys[next];
+                values[hole] = values[next];
+                values[next] = null;
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+    }
+
+    private void resize(int capacity) {
+        final int[] oldKeys = keys;
+        final Object[] oldValues = values;
+        allocate(capacity);
+
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] == null) continue;
+
+            int index = slotOf(oldKeys[i]);
+            while (values[index] != null) index = (index + 1) & mask;
+            keys[index] = oldKeys[i];
+            values[index] = oldValues[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 <= expectedSize * 4) capacity <<= 1;
+        return capacity;
+    }
+}
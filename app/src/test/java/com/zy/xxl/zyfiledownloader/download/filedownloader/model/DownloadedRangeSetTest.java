@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.model;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DownloadedRangeSetTest {
+
+    private final static int ID = 1;
+
+    @Test
+    public void fromConnections_overlappingRows_areMerged() {
+        final DownloadedRangeSet rangeSet = DownloadedRangeSet.fromConnections(Arrays.asList(
+                createConnection(0, 0, 40, 49),
+                createConnection(1, 30, 60, 79),
+                createConnection(2, 50, 55, 0)));
+
+        assertEquals(60, rangeSet.getDownloadedBytes());
+
+        final List<ConnectionModel> planList = rangeSet.plan(ID, 100, 1, 1);
+        assertEquals(1, planList.size());
+        assertConnection(planList.get(0), 0, 60, 0);
+    }
+
+    @Test
+    public void fromConnections_adjacentRows_areMerged() {
+        final DownloadedRangeSet rangeSet = DownloadedRangeSet.fromConnections(Arrays.asList(
+                createConnection(1, 50, 100, 0),
+                createConnection(0, 0, 50, 49)));
+
+        assertEquals(100, rangeSet.getDownloadedBytes());
+
+        // no gap left between them.
+        final List<ConnectionModel> planList = rangeSet.plan(ID, 200, 1, 1);
+        assertEquals(1, planList.size());
+        assertConnection(planList.get(0), 0, 100, 0);
+    }
+
+    @Test
+    public void fromConnections_endOffsetZero_meansToTheEnd() {
+        // the last connection downloads to the end of the file, and it is written to 70 only.
+        final DownloadedRangeSet rangeSet = DownloadedRangeSet.fromConnections(Arrays.asList(
+                createConnection(0, 0, 50, 49),
+                createConnection(1, 50, 70, 0)));
+
+        assertEquals(70, rangeSet.getDownloadedBytes());
+
+        final List<ConnectionModel> planList = rangeSet.plan(ID, 100, 1, 1);
+        assertEquals(1, planList.size());
+        assertConnection(planList.get(0), 0, 70, 0);
+        assertTrue(isPlanCovered(planList, 100));
+    }
+
+    @Test
+    public void fromConnections_emptyRows_areIgnored() {
+        final DownloadedRangeSet rangeSet = DownloadedRangeSet.fromConnections(Arrays.asList(
+                createConnection(0, 0, 0, 49),
+                createConnection(1, 50, 50, 0)));
+
+        assertEquals(0, rangeSet.getDownloadedBytes());
+
+        final List<ConnectionModel> planList = rangeSet.plan(ID, 100, 1, 1);
+        assertEquals(1, planList.size());
+        assertConnection(planList.get(0), 0, 0, 0);
+    }
+
+    @Test
+    public void plan_gapInTheMiddle_keepsTheDownloadedRanges() {
+        final DownloadedRangeSet rangeSet = DownloadedRangeSet.fromConnections(Arrays.asList(
+                createConnection(0, 0, 30, 49),
+                createConnection(1, 50, 100, 0)));
+
+        final List<ConnectionModel> planList = rangeSet.plan(ID, 100, 1, 1);
+
+        assertEquals(2, planList.size());
+        assertConnection(planList.get(0), 0, 30, 49);
+        // the tail downloaded completely is kept.
+        assertConnection(planList.get(1), 50, 100, 99);
+        assertTrue(isPlanCovered(planList, 100));
+    }
+
+    @Test
+    public void plan_completedFile_hasNothingRemaining() {
+        final DownloadedRangeSet rangeSet = DownloadedRangeSet.fromPrefix(100);
+
+        final List<ConnectionModel> planList = rangeSet.plan(ID, 100, 3, 1);
+
+        assertEquals(1, planList.size());
+        assertConnection(planList.get(0), 0, 100, 99);
+        assertEquals(0, remainingCount(planList, 100));
+    }
+
+    @Test
+    public void plan_rangesBeyondTheTotal_areIgnored() {
+        final DownloadedRangeSet rangeSet = new DownloadedRangeSet();
+        rangeSet.add(0, 40);
+        rangeSet.add(150, 200);
+
+        final List<ConnectionModel> planList = rangeSet.plan(ID, 100, 1, 1);
+
+        assertEquals(1, planList.size());
+        assertConnection(planList.get(0), 0, 40, 0);
+    }
+
+    @Test
+    public void plan_splitsTheLargestRemaining() {
+        final DownloadedRangeSet rangeSet = DownloadedRangeSet.fromPrefix(20);
+
+        final List<ConnectionModel> planList = rangeSet.plan(ID, 100, 3, 1);
+
+        assertEquals(3, planList.size());
+        // [20, 99] is split into halves, then the first one of the largest is split again.
+        assertConnection(planList.get(0), 0, 20, 39);
+        assertConnection(planList.get(1), 40, 40, 59);
+        assertConnection(planList.get(2), 60, 60, 0);
+        assertTrue(isPlanCovered(planList, 100));
+    }
+
+    @Test
+    public void plan_moreConnectionsThanChunks_stopsAtMinSplitBytes() {
+        final DownloadedRangeSet rangeSet = new DownloadedRangeSet();
+
+        // only two chunks of the min split bytes can be split from 100 bytes.
+        final List<ConnectionModel> planList = rangeSet.plan(ID, 100, 5, 30);
+
+        assertEquals(2, planList.size());
+        assertConnection(planList.get(0), 0, 0, 49);
+        assertConnection(planList.get(1), 50, 50, 0);
+        assertTrue(isPlanCovered(planList, 100));
+    }
+
+    @Test
+    public void plan_remainingSmallerThanMinSplitBytes_isNotSplit() {
+        final DownloadedRangeSet rangeSet = DownloadedRangeSet.fromPrefix(90);
+
+        final List<ConnectionModel> planList = rangeSet.plan(ID, 100, 4, 30);
+
+        assertEquals(1, planList.size());
+        assertConnection(planList.get(0), 0, 90, 0);
+    }
+
+    @Test
+    public void plan_indexesAreSequential() {
+        final DownloadedRangeSet rangeSet = DownloadedRangeSet.fromConnections(Arrays.asList(
+                createConnection(0, 10, 20, 29),
+                createConnection(1, 40, 60, 0)));
+
+        final List<ConnectionModel> planList = rangeSet.plan(ID, 100, 4, 1);
+
+        for (int i = 0; i < planList.size(); i++) {
+            assertEquals(ID, planList.get(i).getId());
+            assertEquals(i, planList.get(i).getIndex());
+        }
+        assertTrue(isPlanCovered(planList, 100));
+    }
+
+    /**
+     * @return whether the models cover [0, totalLength) one after another without any gap.
+     */
+    private static boolean isPlanCovered(List<ConnectionModel> planList, long totalLength) {
+        long expectedStart = 0;
+        for (ConnectionModel model : planList) {
+            if (model.getStartOffset() != expectedStart) return false;
+            expectedStart = model.getEndOffset() == 0 ? totalLength : model.getEndOffset() + 1;
+        }
+        return expectedStart == totalLength;
+    }
+
+    private static int remainingCount(List<ConnectionModel> planList, long totalLength) {
+        int remainingCount = 0;
+        for (ConnectionModel model : planList) {
+            final long end = model.getEndOffset() == 0 ? totalLength - 1 : model.getEndOffset();
+            if (model.getCurrentOffset() <= end) remainingCount++;
+        }
+        return remainingCount;
+    }
+
+    private static void assertConnection(ConnectionModel model, long startOffset,
+                                         long currentOffset, long endOffset) {
+        assertEquals(startOffset, model.getStartOffset());
+        assertEquals(currentOffset, model.getCurrentOffset());
+        assertEquals(endOffset, model.getEndOffset());
+    }
+
+    private static ConnectionModel createConnection(int index, long startOffset,
+                                                    long currentOffset, long endOffset) {
+        final ConnectionModel model = new ConnectionModel();
+        model.setId(ID);
+        model.setIndex(index);
+        model.setStartOffset(startOffset);
+        model.setCurrentOffset(currentOffset);
+        model.setEndOffset(endOffset);
+        return model;
+    }
+}
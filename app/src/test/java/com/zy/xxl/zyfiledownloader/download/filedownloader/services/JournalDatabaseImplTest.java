@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.services;
+
+import com.zy.xxl.zyfiledownloader.download.filedownloader.model.ConnectionModel;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadModel;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadStatus;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The persisted state is always checked on a new instance replayed from the files, the same as the
+ * process is launched again.
+ */
+public class JournalDatabaseImplTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+    private JournalDatabaseImpl database;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = folder.newFolder();
+        database = new JournalDatabaseImpl(dir);
+    }
+
+    @Test
+    public void insert_update_isReplayed() {
+        database.insert(createModel(1, "url-1"));
+        final FileDownloadModel updated = createModel(1, "url-1");
+        updated.setETag("etag");
+        updated.setTotal(100);
+        database.update(updated);
+        database.updateConnected(1, 200, "etag-2", "name");
+        database.updateProgress(1, 50);
+
+        final FileDownloadModel model = findPersisted(reopen(), 1);
+        assertEquals("url-1", model.getUrl());
+        assertEquals(FileDownloadStatus.progress, model.getStatus());
+        assertEquals(50, model.getSoFar());
+        assertEquals(200, model.getTotal());
+        assertEquals("etag-2", model.getETag());
+        assertEquals("name", model.getFilename());
+    }
+
+    @Test
+    public void updatePause_updateError_areReplayed() {
+        database.insert(createModel(1, "url-1"));
+        database.insert(createModel(2, "url-2"));
+        database.updatePause(1, 30);
+        database.updateError(2, new RuntimeException("failed"), 40);
+
+        final JournalDatabaseImpl reopened = reopen();
+        assertEquals(FileDownloadStatus.paused, findPersisted(reopened, 1).getStatus());
+        assertEquals(30, findPersisted(reopened, 1).getSoFar());
+        assertEquals(FileDownloadStatus.error, findPersisted(reopened, 2).getStatus());
+        assertEquals(40, findPersisted(reopened, 2).getSoFar());
+        assertTrue(findPersisted(reopened, 2).getErrMsg().contains("failed"));
+    }
+
+    @Test
+    public void remove_keepsConnections_sameAsDefault() {
+        database.insert(createModel(1, "url-1"));
+        database.insertConnectionModel(createConnection(1, 0, 0, 49));
+        assertTrue(database.remove(1));
+        assertFalse(database.remove(1));
+
+        final JournalDatabaseImpl reopened = reopen();
+        assertNull(findPersisted(reopened, 1));
+        // the connection rows are only removed through the removeConnections.
+        assertEquals(1, reopened.findConnectionModel(1).size());
+    }
+
+    @Test
+    public void insertConnectionModel_sameIndex_keepsTheFirst() {
+        database.insertConnectionModel(createConnection(1, 0, 0, 49));
+        database.insertConnectionModel(createConnection(1, 0, 10, 99));
+
+        final List<ConnectionModel> connectionList = reopen().findConnectionModel(1);
+        assertEquals(1, connectionList.size());
+        assertEquals(49, connectionList.get(0).getEndOffset());
+    }
+
+    @Test
+    public void split_isReplayed() {
+        final FileDownloadModel model = createModel(1, "url-1");
+        model.setConnectionCount(1);
+        database.insert(model);
+        database.insertConnectionModel(createConnection(1, 0, 0, 99));
+        database.updateConnectionModel(1, 0, 20);
+
+        final ConnectionModel splitModel = createConnection(1, 1, 60, 99);
+        database.splitConnectionModel(1, 0, splitModel, 2);
+
+        final JournalDatabaseImpl reopened = reopen();
+        final List<ConnectionModel> connectionList = reopened.findConnectionModel(1);
+        assertEquals(2, connectionList.size());
+        final ConnectionModel from = findConnection(connectionList, 0);
+        assertEquals(20, from.getCurrentOffset());
+        assertEquals(59, from.getEndOffset());
+        final ConnectionModel split = findConnection(connectionList, 1);
+        assertEquals(60, split.getStartOffset());
+        assertEquals(99, split.getEndOffset());
+        assertEquals(2, findPersisted(reopened, 1).getConnectionCount());
+    }
+
+    @Test
+    public void changeId_movesModelAndConnections() {
+        final FileDownloadModel model = createModel(1, "url-1");
+        model.setConnectionCount(2);
+        database.insert(model);
+        database.insertConnectionModel(createConnection(1, 0, 0, 49));
+        database.insertConnectionModel(createConnection(1, 1, 50, 99));
+
+        final FileDownloadDatabase.Maintainer maintainer = database.maintainer();
+        for (FileDownloadModel ignored : maintainer) {
+            // iterate all.
+        }
+        final FileDownloadModel modelWithNewId = createModel(2, "url-1");
+        modelWithNewId.setConnectionCount(2);
+        maintainer.changeFileDownloadModelId(1, modelWithNewId);
+        maintainer.onFinishMaintain();
+
+        final JournalDatabaseImpl reopened = reopen();
+        assertNull(findPersisted(reopened, 1));
+        assertEquals("url-1", findPersisted(reopened, 2).getUrl());
+        assertTrue(reopened.findConnectionModel(1).isEmpty());
+        assertEquals(2, reopened.findConnectionModel(2).size());
+    }
+
+    @Test
+    public void changeId_singleConnection_dropsOldConnections() {
+        database.insert(createModel(1, "url-1"));
+        database.insertConnectionModel(createConnection(1, 0, 0, 99));
+
+        final FileDownloadDatabase.Maintainer maintainer = database.maintainer();
+        maintainer.changeFileDownloadModelId(1, createModel(2, "url-1"));
+        maintainer.onFinishMaintain();
+
+        final JournalDatabaseImpl reopened = reopen();
+        assertTrue(reopened.findConnectionModel(1).isEmpty());
+        assertTrue(reopened.findConnectionModel(2).isEmpty());
+        assertEquals("url-1", findPersisted(reopened, 2).getUrl());
+    }
+
+    @Test
+    public void clear_isReplayed() {
+        database.insert(createModel(1, "url-1"));
+        database.insertConnectionModel(createConnection(1, 0, 0, 99));
+        database.clear();
+
+        final JournalDatabaseImpl reopened = reopen();
+        assertNull(findPersisted(reopened, 1));
+        assertTrue(reopened.findConnectionModel(1).isEmpty());
+    }
+
+    @Test
+    public void replay_truncatedFinalRecord_dropsOnlyIt() throws Exception {
+        database.insert(createModel(1, "url-1"));
+        database.insertConnectionModel(createConnection(1, 0, 0, 99));
+        database.updateConnectionModel(1, 0, 10);
+        final long validLength = journalFile().length();
+        database.updateConnectionModel(1, 0, 20);
+
+        // the process is killed while the last record is written.
+        truncate(journalFile(), journalFile().length() - 3);
+
+        final JournalDatabaseImpl reopened = reopen();
+        assertEquals(10, reopened.findConnectionModel(1).get(0).getCurrentOffset());
+        assertEquals(validLength, journalFile().length());
+
+        // the records appended after the torn tail are replayed too.
+        reopened.updateConnectionModel(1, 0, 30);
+        assertEquals(30, reopen().findConnectionModel(1).get(0).getCurrentOffset());
+    }
+
+    @Test
+    public void replay_damagedFinalRecord_dropsOnlyIt() throws Exception {
+        database.insert(createModel(1, "url-1"));
+        database.updateProgress(1, 10);
+        database.updateProgress(1, 20);
+
+        // flip one byte of the checksum of the last record.
+        final RandomAccessFile journal = new RandomAccessFile(journalFile(), "rw");
+        try {
+            journal.seek(journal.length() - 1);
+            final int last = journal.read();
+            journal.seek(journal.length() - 1);
+            journal.write(last ^ 0xFF);
+        } finally {
+            journal.close();
+        }
+
+        assertEquals(10, findPersisted(reopen(), 1).getSoFar());
+    }
+
+    @Test
+    public void compact_keepsState_andAppendsAfterIt() {
+        database.insert(createModel(1, "url-1"));
+        database.insert(createModel(2, "url-2"));
+        database.insertConnectionModel(createConnection(1, 0, 0, 9999999));
+        database.insertConnectionModel(createConnection(1, 1, 10000000, 19999999));
+        database.remove(2);
+
+        // more than the compact threshold in one flush.
+        database.runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= 30000; i++) {
+                    database.updateConnectionModel(1, 0, i);
+                    database.updateConnectionModel(1, 1, 10000000 + i);
+                }
+            }
+        });
+
+        assertTrue(new File(dir, "snapshot").exists());
+        assertTrue(journalFile().length() < 1024);
+
+        database.updateProgress(1, 60000);
+
+        final JournalDatabaseImpl reopened = reopen();
+        assertNull(findPersisted(reopened, 2));
+        assertEquals(60000, findPersisted(reopened, 1).getSoFar());
+        final List<ConnectionModel> connectionList = reopened.findConnectionModel(1);
+        assertEquals(30000, findConnection(connectionList, 0).getCurrentOffset());
+        assertEquals(10030000, findConnection(connectionList, 1).getCurrentOffset());
+    }
+
+    private JournalDatabaseImpl reopen() {
+        return new JournalDatabaseImpl(dir);
+    }
+
+    private File journalFile() {
+        return new File(dir, "journal");
+    }
+
+    private static void truncate(File file, long length) throws Exception {
+        final RandomAccessFile randomAccess = new RandomAccessFile(file, "rw");
+        try {
+            randomAccess.setLength(length);
+        } finally {
+            randomAccess.close();
+        }
+    }
+
+    private static FileDownloadModel findPersisted(JournalDatabaseImpl database, int id) {
+        final Iterator<FileDownloadModel> iterator = database.maintainer().iterator();
+        while (iterator.hasNext()) {
+            final FileDownloadModel model = iterator.next();
+            if (model.getId() == id) return model;
+        }
+        return null;
+    }
+
+    private static ConnectionModel findConnection(List<ConnectionModel> connectionList,
+                                                  int index) {
+        for (ConnectionModel model : connectionList) {
+            if (model.getIndex() == index) return model;
+        }
+        return null;
+    }
+
+    static FileDownloadModel createModel(int id, String url) {
+        final FileDownloadModel model = new FileDownloadModel();
+        model.setId(id);
+        model.setUrl(url);
+        model.setPath("/sdcard/" + id, false);
+        model.setStatus(FileDownloadStatus.pending);
+        model.setConnectionCount(1);
+        return model;
+    }
+
+    static ConnectionModel createConnection(int id, int index, long startOffset,
+                                            long endOffset) {
+        final ConnectionModel model = new ConnectionModel();
+        model.setId(id);
+        model.setIndex(index);
+        model.setStartOffset(startOffset);
+        model.setCurrentOffset(startOffset);
+        model.setEndOffset(endOffset);
+        return model;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.services;
+
+import com.zy.xxl.zyfiledownloader.download.filedownloader.model.ConnectionModel;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadModel;
+import com.zy.xxl.zyfiledownloader.download.filedownloader.model.FileDownloadStatus;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WriteBehindDatabaseTest {
+
+    private final static int ID = 1;
+
+    private RecordingDatabase delegate;
+    private WriteBehindDatabase database;
+
+    @Before
+    public void setUp() {
+        delegate = new RecordingDatabase();
+        database = new WriteBehindDatabase(delegate);
+
+        final FileDownloadModel model = new FileDownloadModel();
+        model.setId(ID);
+        model.setStatus(FileDownloadStatus.connected);
+        model.setSoFar(0);
+        database.insert(model);
+
+        final ConnectionModel connectionModel = new ConnectionModel();
+        connectionModel.setId(ID);
+        connectionModel.setIndex(0);
+        connectionModel.setStartOffset(0);
+        connectionModel.setCurrentOffset(0);
+        connectionModel.setEndOffset(99);
+        database.insertConnectionModel(connectionModel);
+        delegate.writeList.clear();
+    }
+
+    @Test
+    public void find_overlaysPendingProgress_withoutFlushing() {
+        database.updateProgress(ID, 10);
+        database.updateProgress(ID, 20);
+
+        final FileDownloadModel model = database.find(ID);
+
+        assertEquals(20, model.getSoFar());
+        assertEquals(FileDownloadStatus.progress, model.getStatus());
+        assertTrue(delegate.writeList.isEmpty());
+    }
+
+    @Test
+    public void findConnectionModel_seesPendingOffset_withoutFlushing() {
+        database.updateConnectionModel(ID, 0, 30);
+
+        final List<ConnectionModel> modelList = database.findConnectionModel(ID);
+
+        assertEquals(1, modelList.size());
+        assertEquals(30, modelList.get(0).getCurrentOffset());
+        assertTrue(delegate.writeList.isEmpty());
+    }
+
+    @Test
+    public void runInTransaction_defersHotUpdates_untilBarrier() {
+        database.runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                database.updateConnectionModel(ID, 0, 40);
+            }
+        });
+        assertTrue(delegate.writeList.isEmpty());
+
+        database.updatePause(ID, 40);
+        assertEquals("connection 1/0 40", delegate.writeList.get(0));
+    }
+
+    @Test
+    public void runInDurableTransaction_writesThrough() {
+        database.runInDurableTransaction(new Runnable() {
+            @Override
+            public void run() {
+                database.updateConnectionModel(ID, 0, 50);
+                database.updateProgress(ID, 50);
+                // committed in the transaction rather than deferred.
+                assertEquals(2, delegate.writeList.size());
+            }
+        });
+
+        assertEquals("connection 1/0 50", delegate.writeList.get(0));
+        assertEquals("progress 1 50", delegate.writeList.get(1));
+        assertEquals(50, database.findConnectionModel(ID).get(0).getCurrentOffset());
+
+        // nothing is left pending to be flushed again.
+        delegate.writeList.clear();
+        database.updatePause(ID, 50);
+        assertEquals(0, delegate.writeList.size());
+    }
+
+    @Test
+    public void runInDurableTransaction_flushesOlderPendingFirst() {
+        database.updateConnectionModel(ID, 0, 60);
+
+        database.runInDurableTransaction(new Runnable() {
+            @Override
+            public void run() {
+                database.updateConnectionModel(ID, 0, 70);
+            }
+        });
+
+        assertEquals("connection 1/0 60", delegate.writeList.get(0));
+        assertEquals("connection 1/0 70", delegate.writeList.get(1));
+    }
+
+    @Test
+    public void removeConnections_readsDelegateOnNextFind() {
+        assertEquals(1, database.findConnectionModel(ID).size());
+
+        database.removeConnections(ID);
+        // such as written by the maintainer on the delegate directly.
+        delegate.insertConnectionModel(createConnection(1, 50));
+
+        final List<ConnectionModel> modelList = database.findConnectionModel(ID);
+        assertEquals(1, modelList.size());
+        assertEquals(1, modelList.get(0).getIndex());
+    }
+
+    @Test
+    public void remove_evictsCachedConnections() {
+        assertEquals(1, database.findConnectionModel(ID).size());
+
+        database.remove(ID);
+        delegate.removeConnections(ID);
+        delegate.insertConnectionModel(createConnection(2, 60));
+
+        final List<ConnectionModel> modelList = database.findConnectionModel(ID);
+        assertEquals(1, modelList.size());
+        assertEquals(2, modelList.get(0).getIndex());
+    }
+
+    private static ConnectionModel createConnection(int index, long startOffset) {
+        final ConnectionModel model = new ConnectionModel();
+        model.setId(ID);
+        model.setIndex(index);
+        model.setStartOffset(startOffset);
+        model.setCurrentOffset(startOffset);
+        model.setEndOffset(startOffset + 9);
+        return model;
+    }
+
+    /**
+     * The database on the memory which records the hot updates it receives, and finds the copy of
+     * the model as the one read from the disk.
+     */
+    private static class RecordingDatabase extends NoDatabaseImpl {
+        final List<String> writeList = new ArrayList<>();
+        private long sofar;
+        private byte status;
+
+        @Override
+        public FileDownloadModel find(int id) {
+            final FileDownloadModel model = super.find(id);
+            if (model == null) return null;
+
+            final FileDownloadModel copy = new FileDownloadModel();
+            copy.setId(model.getId());
+            copy.setStatus(status);
+            copy.setSoFar(sofar);
+            return copy;
+        }
+
+        @Override
+        public void insert(FileDownloadModel downloadModel) {
+            super.insert(downloadModel);
+            status = downloadModel.getStatus();
+            sofar = downloadModel.getSoFar();
+        }
+
+        @Override
+        public void updateConnectionModel(int id, int index, long currentOffset) {
+            super.updateConnectionModel(id, index, currentOffset);
+            writeList.add("connection " + id + "/" + index + " " + currentOffset);
+        }
+
+        @Override
+        public void updateProgress(int id, long sofarBytes) {
+            writeList.add("progress " + id + " " + sofarBytes);
+            status = FileDownloadStatus.progress;
+            sofar = sofarBytes;
+        }
+    }
+}
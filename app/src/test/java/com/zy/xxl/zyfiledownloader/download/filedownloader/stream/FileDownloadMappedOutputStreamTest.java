@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FileDownloadMappedOutputStreamTest {
+
+    private final static int MB = 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void write_acrossWindows_isPersistedOnClose() throws Exception {
+        final File file = folder.newFile();
+        final byte[] data = pattern(10 * MB + 123);
+
+        final FileDownloadMappedOutputStream stream = new FileDownloadMappedOutputStream(file);
+        stream.setLength(data.length);
+        // odd-sized writes, so some of them cross the boundary of the windows.
+        final int chunk = 300 * 1024 + 7;
+        for (int off = 0; off < data.length; off += chunk) {
+            stream.write(data, off, Math.min(chunk, data.length - off));
+        }
+        stream.close();
+
+        assertArrayEquals(data, read(file));
+    }
+
+    @Test
+    public void write_ranges_fromSeveralStreams() throws Exception {
+        final File file = folder.newFile();
+        final byte[] data = pattern(9 * MB);
+        final int half = data.length / 2;
+
+        final FileDownloadMappedOutputStream first = new FileDownloadMappedOutputStream(file);
+        first.setLength(data.length);
+        final FileDownloadMappedOutputStream second = new FileDownloadMappedOutputStream(file);
+        second.seek(half);
+
+        second.write(data, half, data.length - half);
+        first.write(data, 0, half);
+        first.flushAndSync();
+        second.flushAndSync();
+        first.close();
+        second.close();
+
+        assertArrayEquals(data, read(file));
+    }
+
+    @Test
+    public void write_beyondLength_isWrittenThroughChannel() throws Exception {
+        final File file = folder.newFile();
+        final byte[] data = pattern(MB + 17);
+
+        final FileDownloadMappedOutputStream stream = new FileDownloadMappedOutputStream(file);
+        stream.write(data, 0, data.length);
+        stream.close();
+
+        assertEquals(data.length, file.length());
+        assertArrayEquals(data, read(file));
+    }
+
+    @Test
+    public void close_twice_isIgnored() throws Exception {
+        final File file = folder.newFile();
+        final byte[] data = pattern(1024);
+
+        final FileDownloadMappedOutputStream stream = new FileDownloadMappedOutputStream(file);
+        stream.setLength(data.length);
+        stream.write(data, 0, data.length);
+        stream.close();
+        stream.close();
+
+        assertArrayEquals(data, read(file));
+    }
+
+    private static byte[] pattern(int length) {
+        final byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + (i >>> 13));
+        }
+        return data;
+    }
+
+    private static byte[] read(File file) throws Exception {
+        final RandomAccessFile randomAccess = new RandomAccessFile(file, "r");
+        try {
+            final byte[] content = new byte[(int) randomAccess.length()];
+            randomAccess.readFully(content);
+            return content;
+        } finally {
+            randomAccess.close();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2015 LingoChamp Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.zy.xxl.zyfiledownloader.download.filedownloader.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IntObjectMapTest {
+
+    // the capacity of the map created with the expected size 4.
+    private final static int SMALL_CAPACITY = 8;
+
+    @Test
+    public void put_get_remove() {
+        final IntObjectMap<String> map = new IntObjectMap<>();
+
+        assertNull(map.put(1, "a"));
+        assertNull(map.put(-7, "b"));
+        assertNull(map.put(0, "c"));
+        assertEquals("a", map.put(1, "d"));
+
+        assertEquals(3, map.size());
+        assertEquals("d", map.get(1));
+        assertEquals("b", map.get(-7));
+        assertEquals("c", map.get(0));
+        assertNull(map.get(2));
+        assertTrue(map.containsKey(0));
+
+        assertEquals("b", map.remove(-7));
+        assertNull(map.remove(-7));
+        assertFalse(map.containsKey(-7));
+        assertEquals(2, map.size());
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(1));
+    }
+
+    @Test
+    public void remove_acrossTheWrapAround_shiftsBackward() {
+        final IntObjectMap<String> map = new IntObjectMap<>(4);
+        // three keys probing from the last slot wrap around to the first slots, and one more key
+        // of the first slot is pushed behind them.
+        final int[] lastSlotKeys = findKeys(SMALL_CAPACITY - 1, 3);
+        final int firstSlotKey = findKeys(0, 1)[0];
+        for (int key : lastSlotKeys) map.put(key, "last-" + key);
+        map.put(firstSlotKey, "first");
+
+        // the hole is on the last slot, the entries after the wrap-around are shifted into it.
+        assertEquals("last-" + lastSlotKeys[0], map.remove(lastSlotKeys[0]));
+        assertEquals("last-" + lastSlotKeys[1], map.get(lastSlotKeys[1]));
+        assertEquals("last-" + lastSlotKeys[2], map.get(lastSlotKeys[2]));
+        assertEquals("first", map.get(firstSlotKey));
+
+        // the hole is after the wrap-around.
+        assertEquals("last-" + lastSlotKeys[2], map.remove(lastSlotKeys[2]));
+        assertEquals("last-" + lastSlotKeys[1], map.get(lastSlotKeys[1]));
+        assertEquals("first", map.get(firstSlotKey));
+        assertEquals(2, map.size());
+
+        assertEquals("last-" + lastSlotKeys[1], map.remove(lastSlotKeys[1]));
+        assertEquals("first", map.get(firstSlotKey));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void put_beyondTheLoadFactor_resizes() {
+        final IntObjectMap<Integer> map = new IntObjectMap<>(4);
+        final int count = 1000;
+        for (int i = 0; i < count; i++) {
+            map.put(i * 31, i);
+        }
+
+        assertEquals(count, map.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(Integer.valueOf(i), map.get(i * 31));
+        }
+
+        final int[] keys = map.keys();
+        Arrays.sort(keys);
+        assertEquals(count, keys.length);
+        assertEquals(0, keys[0]);
+        assertEquals((count - 1) * 31, keys[count - 1]);
+        assertEquals(count, map.values().size());
+    }
+
+    @Test
+    public void putIfAbsent_keepsTheCurrent() {
+        final IntObjectMap<String> map = new IntObjectMap<>();
+
+        assertEquals("a", map.putIfAbsent(1, "a"));
+        assertEquals("a", map.putIfAbsent(1, "b"));
+        assertEquals("a", map.get(1));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void put_null_removes() {
+        final IntObjectMap<String> map = new IntObjectMap<>();
+        map.put(1, "a");
+        map.put(2, "b");
+
+        assertEquals("a", map.put(1, null));
+        assertFalse(map.containsKey(1));
+        assertEquals(1, map.size());
+        assertNull(map.put(3, null));
+        assertEquals(1, map.size());
+        assertEquals("b", map.get(2));
+    }
+
+    @Test
+    public void randomOperations_sameAsHashMap() {
+        final IntObjectMap<Integer> map = new IntObjectMap<>();
+        final Map<Integer, Integer> expected = new HashMap<>();
+        final Random random = new Random(20151017);
+
+        for (int i = 0; i < 20000; i++) {
+            // a small key range, so there are many collisions and removals.
+            final int key = random.nextInt(256) - 128;
+            switch (random.nextInt(3)) {
+                case 0:
+                    assertEquals(expected.put(key, i), map.put(key, i));
+                    break;
+                case 1:
+                    assertEquals(expected.remove(key), map.remove(key));
+                    break;
+                default:
+                    assertEquals(expected.get(key), map.get(key));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+
+        for (Map.Entry<Integer, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+        }
+    }
+
+    /**
+     * @return the keys whose home slot is {@code slot} on the map with {@link #SMALL_CAPACITY}.
+     */
+    private static int[] findKeys(int slot, int count) {
+        final List<Integer> keyList = new ArrayList<>();
+        for (int key = 1; keyList.size() < count; key++) {
+            if (slotOf(key, SMALL_CAPACITY - 1) == slot) keyList.add(key);
+        }
+
+        final int[] keys = new int[count];
+        for (int i = 0; i < count; i++) keys[i] = keyList.get(i);
+        return keys;
+    }
+
+    // the same as the IntObjectMap#slotOf.
+    private static int slotOf(int key, int mask) {
+        final int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}